@@ -0,0 +1,7 @@
+# Gnuplot script file automatically generated by Plot2D.java
+# Plotting data in files ??
+set term png
+set xlabel "null"
+set ylabel "null"
+set output "./output/model.png"
+plot "./output/model_prey" title "prey" with linespoints , "./output/model_predator" title "predator" with linespoints 
\ No newline at end of file
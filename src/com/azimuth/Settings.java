@@ -41,14 +41,14 @@ public class Settings {
 		}
 	}
 	
-	public static Settings getInstance(){
+	public static synchronized Settings getInstance(){
 		if (instance == null){
 			instance = new Settings();
 		}
 		return instance;
 	}
 	
-	public static void load(String filename){
+	public static synchronized void load(String filename){
 		instance = new Settings(filename);
 	}
 
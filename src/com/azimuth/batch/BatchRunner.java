@@ -0,0 +1,158 @@
+package com.azimuth.batch;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.azimuth.ode.SolutionCache;
+
+/**
+ * Runs the jobs of a manifest on a bounded number of threads, and reports
+ * the throughput of every job as it completes.
+ * 
+ * Usage: BatchRunner manifest [concurrency]
+ * 
+ * The exit status is 1 if a job fails, and 2 if the manifest is not valid.
+ * 
+ * @see Manifest
+ * @author marco
+ * 
+ */
+public class BatchRunner {
+
+	/**
+	 * the number of jobs running at the same time
+	 */
+	private final int concurrency;
+	/**
+	 * the cache shared by the jobs, or null
+	 */
+	private final SolutionCache cache;
+
+	public BatchRunner(int concurrency, SolutionCache cache) {
+		this.concurrency = concurrency;
+		this.cache = cache;
+	}
+
+	public BatchRunner(int concurrency) {
+		this(concurrency, null);
+	}
+
+	/**
+	 * runs the jobs
+	 * 
+	 * @param jobs
+	 * @param log
+	 *            , where the reports are printed as the jobs complete, or null
+	 * @return, the reports in the order of the jobs
+	 */
+	public List<JobReport> run(List<Job> jobs, PrintStream log) {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+				Math.min(concurrency, jobs.size())));
+		JobReport[] reports = new JobReport[jobs.size()];
+		try {
+			CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(
+					executor);
+			for (int i = 0; i < jobs.size(); i++) {
+				completion.submit(new Run(jobs, i, reports));
+			}
+			for (int i = 0; i < jobs.size(); i++) {
+				JobReport report = reports[completion.take().get()];
+				if (log != null) {
+					log.println(report);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return Arrays.asList(reports);
+	}
+
+	/**
+	 * runs a job, and returns its index
+	 */
+	private class Run implements Callable<Integer> {
+		private final List<Job> jobs;
+		private final int index;
+		private final JobReport[] reports;
+
+		private Run(List<Job> jobs, int index, JobReport[] reports) {
+			this.jobs = jobs;
+			this.index = index;
+			this.reports = reports;
+		}
+
+		@Override
+		public Integer call() {
+			reports[index] = jobs.get(index).run(cache);
+			return index;
+		}
+	}
+
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	public SolutionCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println("usage: BatchRunner manifest [concurrency]");
+			System.exit(2);
+		}
+		Manifest manifest;
+		try {
+			manifest = Manifest.load(args[0]);
+		} catch (IOException e) {
+			System.err.println(args[0] + ": " + e.getMessage());
+			System.exit(2);
+			return;
+		}
+		int concurrency = args.length > 1 ? Integer.parseInt(args[1])
+				: manifest.getConcurrency();
+		SolutionCache cache = manifest.getCache() != null ? new SolutionCache(
+				64L << 20, manifest.getCache()) : null;
+		BatchRunner runner = new BatchRunner(concurrency, cache);
+
+		long start = System.nanoTime();
+		List<JobReport> reports = runner.run(manifest.getJobs(), System.out);
+		long time = System.nanoTime() - start;
+
+		List<String> failed = new ArrayList<String>();
+		long steps = 0;
+		for (JobReport report : reports) {
+			if (report.isFailed()) {
+				failed.add(report.getName());
+			} else {
+				steps += report.getNumberOfPoints() - 1;
+			}
+		}
+		System.out.println(String.format(
+				"%d jobs, %d failed, %d steps in %.1f ms (%.0f steps/s)",
+				reports.size(), failed.size(), steps, time / 1e6, steps * 1e9
+						/ time));
+		if (!failed.isEmpty()) {
+			System.err.println("failed: " + failed);
+			System.exit(1);
+		}
+	}
+
+}
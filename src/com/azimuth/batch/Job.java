@@ -0,0 +1,331 @@
+package com.azimuth.batch;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.azimuth.model.Model;
+import com.azimuth.ode.BDFSolver;
+import com.azimuth.ode.CachingSolver;
+import com.azimuth.ode.CompactSolution;
+import com.azimuth.ode.InitialValueProblem.Solution;
+import com.azimuth.ode.RosenbrockSolver;
+import com.azimuth.ode.RungeKuttaSolver;
+import com.azimuth.ode.RungeKuttaSolver.ButcherTableau;
+import com.azimuth.ode.SolutionCache;
+import com.azimuth.ode.Solver;
+
+/**
+ * A job of the batch runner: a model with its parameters, initial values and
+ * bounds, the solver and the output of the solution.
+ * 
+ * Every job has its own configuration and loads its own model, so jobs can
+ * run concurrently.
+ * 
+ * @author marco
+ * 
+ */
+public class Job {
+
+	/**
+	 * default constants
+	 */
+	private final static String DEFAULT_SOLVER = "RK4";
+	private final static double DEFAULT_STEP_SIZE = 0.01;
+	private final static int DEFAULT_ORDER = 2;
+
+	private final String name;
+	/**
+	 * the model file, or null if the model is given otherwise
+	 */
+	private final File model;
+	/**
+	 * values that replace the ones in the model file
+	 */
+	private final Map<String, Double> parameters = new LinkedHashMap<String, Double>();
+	private final Map<String, Double> initialValues = new LinkedHashMap<String, Double>();
+	private double lowerBound;
+	private double upperBound = Double.NaN;
+	/**
+	 * the name of a ButcherTableau, BDF or ROSENBROCK
+	 */
+	private String solver = DEFAULT_SOLVER;
+	private double stepSize = DEFAULT_STEP_SIZE;
+	/**
+	 * the order of the BDF solver
+	 */
+	private int order = DEFAULT_ORDER;
+	/**
+	 * the threads evaluating the stages of a Runge Kutta solver
+	 */
+	private int threads = 1;
+	/**
+	 * the output file, or null
+	 */
+	private File output;
+	private OutputFormat format = OutputFormat.BINARY;
+	/**
+	 * the storage of the solution, null for doubles
+	 */
+	private CompactSolution.Encoding storage;
+	private double errorBound;
+
+	public Job(String name, File model) {
+		this.name = name;
+		this.model = model;
+	}
+
+	/**
+	 * solves the model and writes the solution
+	 * 
+	 * @param cache
+	 *            , a cache shared by the jobs, or null
+	 * @return, the report of the job, also when it fails
+	 */
+	public JobReport run(SolutionCache cache) {
+		try {
+			Model problem = createProblem();
+			Solver solver = createSolver();
+			if (cache != null) {
+				solver = new CachingSolver(solver, cache);
+			}
+			long start = System.nanoTime();
+			Solution solution = solver.solve(problem);
+			if (storage != null && !(solution instanceof CompactSolution)) {
+				solution = CompactSolution.encode(solution, storage, errorBound);
+			}
+			long solved = System.nanoTime();
+			long bytes = 0;
+			if (output != null) {
+				OutputStream out = new BufferedOutputStream(
+						new FileOutputStream(output), 1 << 16);
+				try {
+					format.write(solution, problem.getVariableNames(), out);
+				} finally {
+					out.close();
+				}
+				bytes = output.length();
+			}
+			long written = System.nanoTime();
+			return new JobReport(name, solution.getValues().length, solution
+					.getTimesteps().length, solved - start, written - solved,
+					bytes);
+		} catch (Exception e) {
+			return new JobReport(name, e);
+		}
+	}
+
+	/**
+	 * loads the model and applies the configuration of the job
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	Model createProblem() throws IOException {
+		Model problem = Model.load(model.getPath());
+		configure(problem);
+		return problem;
+	}
+
+	/**
+	 * sets the parameters, the initial values and the bounds of the job on a
+	 * model; a model without initial values needs them all from the job
+	 * 
+	 * @param problem
+	 * @throws IllegalArgumentException
+	 *             , if a variable has no initial value
+	 */
+	public void configure(Model problem) {
+		for (Map.Entry<String, Double> parameter : parameters.entrySet()) {
+			problem.setParameter(parameter.getKey(), parameter.getValue());
+		}
+		double[] initial = problem.getInitialValue();
+		double[] values = initial != null ? initial.clone()
+				: new double[problem.getSize()];
+		for (Map.Entry<String, Double> value : initialValues.entrySet()) {
+			values[problem.indexOfVariable(value.getKey())] = value.getValue();
+		}
+		if (initial == null) {
+			for (String variable : problem.getVariableNames()) {
+				if (!initialValues.containsKey(variable)) {
+					throw new IllegalArgumentException("no initial value for "
+							+ variable + ", add " + variable + "(0) = ...");
+				}
+			}
+		}
+		problem.setInitialValue(values);
+		problem.setLowerBound(lowerBound);
+		problem.setUpperBound(upperBound);
+	}
+
+	/**
+	 * returns a new solver configured for the job
+	 * 
+	 * @return
+	 */
+	public Solver createSolver() {
+		if ("BDF".equals(solver)) {
+			return new BDFSolver(stepSize, order);
+		}
+		if ("ROSENBROCK".equals(solver)) {
+			return new RosenbrockSolver(stepSize);
+		}
+		RungeKuttaSolver rungeKutta = new RungeKuttaSolver(stepSize,
+				ButcherTableau.valueOf(solver));
+		rungeKutta.setThreads(threads);
+		rungeKutta.setStorage(storage, errorBound);
+		return rungeKutta;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public File getModel() {
+		return model;
+	}
+
+	public Map<String, Double> getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * sets a parameter of the model
+	 * 
+	 * @param name
+	 * @param value
+	 */
+	public void setParameter(String name, double value) {
+		parameters.put(name, value);
+	}
+
+	public Map<String, Double> getInitialValues() {
+		return initialValues;
+	}
+
+	/**
+	 * sets the initial value of a variable of the model
+	 * 
+	 * @param name
+	 * @param value
+	 */
+	public void setInitialValue(String name, double value) {
+		initialValues.put(name, value);
+	}
+
+	public double getLowerBound() {
+		return lowerBound;
+	}
+
+	public void setLowerBound(double lowerBound) {
+		this.lowerBound = lowerBound;
+	}
+
+	public double getUpperBound() {
+		return upperBound;
+	}
+
+	public void setUpperBound(double upperBound) {
+		this.upperBound = upperBound;
+	}
+
+	public String getSolver() {
+		return solver;
+	}
+
+	/**
+	 * sets the solver: the name of a ButcherTableau for a RungeKuttaSolver,
+	 * BDF or ROSENBROCK
+	 * 
+	 * @param solver
+	 */
+	public void setSolver(String solver) {
+		if (!"BDF".equals(solver) && !"ROSENBROCK".equals(solver)) {
+			ButcherTableau.valueOf(solver);
+		}
+		this.solver = solver;
+	}
+
+	public double getStepSize() {
+		return stepSize;
+	}
+
+	public void setStepSize(double stepSize) {
+		this.stepSize = stepSize;
+	}
+
+	public int getOrder() {
+		return order;
+	}
+
+	/**
+	 * sets the order of the BDF solver
+	 * 
+	 * @param order
+	 */
+	public void setOrder(int order) {
+		this.order = order;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * sets the number of threads evaluating the stages of a Runge Kutta
+	 * solver, 1 by default since the jobs already run in parallel
+	 * 
+	 * @param threads
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public File getOutput() {
+		return output;
+	}
+
+	/**
+	 * sets the output file, or null to discard the solution
+	 * 
+	 * @param output
+	 */
+	public void setOutput(File output) {
+		this.output = output;
+	}
+
+	public OutputFormat getFormat() {
+		return format;
+	}
+
+	public void setFormat(OutputFormat format) {
+		this.format = format;
+	}
+
+	public CompactSolution.Encoding getStorage() {
+		return storage;
+	}
+
+	public double getErrorBound() {
+		return errorBound;
+	}
+
+	/**
+	 * stores the solution in a CompactSolution: Runge Kutta solvers store it
+	 * while solving, the other solvers encode it at the end
+	 * 
+	 * @param storage
+	 *            , FLOAT, QUANTIZED or null for doubles
+	 * @param errorBound
+	 *            , the absolute error bound of QUANTIZED
+	 */
+	public void setStorage(CompactSolution.Encoding storage, double errorBound) {
+		this.storage = storage;
+		this.errorBound = errorBound;
+	}
+
+}
@@ -0,0 +1,112 @@
+package com.azimuth.batch;
+
+/**
+ * The outcome of a job, with its throughput
+ * 
+ * @author marco
+ * 
+ */
+public class JobReport {
+
+	private final String name;
+	private final int numberOfVars;
+	private final int numberOfPoints;
+	/**
+	 * nanoseconds spent solving and writing
+	 */
+	private final long solveTime;
+	private final long writeTime;
+	private final long bytes;
+	/**
+	 * the cause of the failure, or null
+	 */
+	private final Exception failure;
+
+	JobReport(String name, int numberOfVars, int numberOfPoints,
+			long solveTime, long writeTime, long bytes) {
+		this.name = name;
+		this.numberOfVars = numberOfVars;
+		this.numberOfPoints = numberOfPoints;
+		this.solveTime = solveTime;
+		this.writeTime = writeTime;
+		this.bytes = bytes;
+		this.failure = null;
+	}
+
+	JobReport(String name, Exception failure) {
+		this.name = name;
+		this.numberOfVars = 0;
+		this.numberOfPoints = 0;
+		this.solveTime = 0;
+		this.writeTime = 0;
+		this.bytes = 0;
+		this.failure = failure;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isFailed() {
+		return failure != null;
+	}
+
+	public Exception getFailure() {
+		return failure;
+	}
+
+	public int getNumberOfVars() {
+		return numberOfVars;
+	}
+
+	public int getNumberOfPoints() {
+		return numberOfPoints;
+	}
+
+	public long getSolveTime() {
+		return solveTime;
+	}
+
+	public long getWriteTime() {
+		return writeTime;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * returns the number of steps solved per second
+	 * 
+	 * @return
+	 */
+	public double getStepsPerSecond() {
+		return (numberOfPoints - 1) * 1e9 / Math.max(solveTime, 1);
+	}
+
+	/**
+	 * returns the number of bytes written per second
+	 * 
+	 * @return
+	 */
+	public double getBytesPerSecond() {
+		return bytes * 1e9 / Math.max(writeTime, 1);
+	}
+
+	@Override
+	public String toString() {
+		if (failure != null) {
+			return name + ": failed: " + failure;
+		}
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%s: %d variables, %d steps in %.1f ms (%.0f steps/s)",
+				name, numberOfVars, numberOfPoints - 1, solveTime / 1e6,
+				getStepsPerSecond()));
+		if (bytes > 0) {
+			report.append(String.format(", %d bytes in %.1f ms (%.1f MB/s)",
+					bytes, writeTime / 1e6, getBytesPerSecond() / 1e6));
+		}
+		return report.toString();
+	}
+
+}
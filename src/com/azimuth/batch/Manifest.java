@@ -0,0 +1,275 @@
+package com.azimuth.batch;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import com.azimuth.ode.CompactSolution;
+
+/**
+ * A list of jobs read from a properties file, e.g.
+ * 
+ * <pre>
+ * jobs = slow, fast
+ * concurrency = 2
+ * cache = ./output/cache
+ * 
+ * model = ./models/predator_prey.model
+ * to = 100
+ * step = 0.001
+ * 
+ * slow.output = ./output/slow.sol
+ * 
+ * fast.parameter.preyGrowthRate = 3
+ * fast.initial.prey = 5
+ * fast.solver = FEHLBERG8
+ * fast.output = ./output/fast.txt
+ * fast.format = text
+ * </pre>
+ * 
+ * A job reads the property "name.key", and "key" when it is missing, so the
+ * properties without a job name are defaults for every job. The keys are
+ * model, from, to, solver (a tableau name, BDF or ROSENBROCK), step, order
+ * (of BDF), threads (evaluating the stages), output, format (binary, text or
+ * json), storage (float or quantized) with error (the absolute error bound
+ * of quantized), and parameter.name and initial.name for the values of the
+ * model. The global keys are jobs, concurrency (the number of jobs running at the same
+ * time) and cache (the directory of a solution cache shared by the jobs).
+ * Relative paths are resolved against the directory of the manifest.
+ * 
+ * @author marco
+ * 
+ */
+public class Manifest {
+
+	private final static String PARAMETER = "parameter.";
+	private final static String INITIAL = "initial.";
+
+	private final List<Job> jobs = new ArrayList<Job>();
+	private int concurrency = Runtime.getRuntime().availableProcessors();
+	/**
+	 * the directory of the solution cache, or null
+	 */
+	private File cache;
+
+	/**
+	 * the directory of relative paths
+	 */
+	private final File base;
+	private final Properties properties;
+
+	private Manifest(Properties properties, File base) {
+		this.properties = properties;
+		this.base = base;
+	}
+
+	/**
+	 * reads a manifest
+	 * 
+	 * @param reader
+	 * @param base
+	 *            , the directory of relative paths, or null for the working
+	 *            directory
+	 * @return
+	 * @throws IOException
+	 *             , if the manifest cannot be read or is not valid
+	 */
+	public static Manifest read(Reader reader, File base) throws IOException {
+		Properties properties = new Properties();
+		properties.load(reader);
+		Manifest manifest = new Manifest(properties, base);
+		manifest.parse();
+		return manifest;
+	}
+
+	/**
+	 * reads a manifest from a file
+	 * 
+	 * @param filename
+	 * @return
+	 * @throws IOException
+	 */
+	public static Manifest load(String filename) throws IOException {
+		File file = new File(filename);
+		FileReader reader = new FileReader(file);
+		try {
+			return read(reader, file.getAbsoluteFile().getParentFile());
+		} finally {
+			reader.close();
+		}
+	}
+
+	private void parse() throws IOException {
+		String names = properties.getProperty("jobs");
+		if (names == null) {
+			throw new IOException("missing jobs");
+		}
+		String value = properties.getProperty("concurrency");
+		if (value != null) {
+			try {
+				concurrency = toInt("concurrency", value);
+			} catch (IllegalArgumentException e) {
+				throw new IOException(e.getMessage(), e);
+			}
+		}
+		value = properties.getProperty("cache");
+		if (value != null) {
+			cache = file(value);
+		}
+		for (String name : names.split(",")) {
+			name = name.trim();
+			if (name.length() > 0) {
+				jobs.add(parse(name));
+			}
+		}
+	}
+
+	private Job parse(String name) throws IOException {
+		String model = get(name + ".", "model");
+		if (model == null) {
+			throw new IOException("job " + name + ": missing model");
+		}
+		Job job = new Job(name, file(model));
+		configure(job, name + ".");
+		return job;
+	}
+
+	/**
+	 * configures a job with the properties of a manifest without the job
+	 * name, e.g. to=10, solver=RK4, parameter.a=1; the model is ignored
+	 * 
+	 * @param job
+	 * @param properties
+	 * @throws IOException
+	 *             , if the properties are not valid
+	 */
+	public static void configure(Job job, Properties properties)
+			throws IOException {
+		new Manifest(properties, null).configure(job, "");
+	}
+
+	/**
+	 * reads the properties of a job, whose keys start with the prefix or are
+	 * defaults
+	 */
+	private void configure(Job job, String prefix) throws IOException {
+		String name = job.getName();
+		try {
+			String value = get(prefix, "to");
+			if (value == null) {
+				throw new IOException("job " + name + ": missing to");
+			}
+			job.setUpperBound(toDouble("to", value));
+			value = get(prefix, "from");
+			if (value != null) {
+				job.setLowerBound(toDouble("from", value));
+			}
+			value = get(prefix, "solver");
+			if (value != null) {
+				job.setSolver(value.toUpperCase());
+			}
+			value = get(prefix, "step");
+			if (value != null) {
+				job.setStepSize(toDouble("step", value));
+			}
+			value = get(prefix, "order");
+			if (value != null) {
+				job.setOrder(toInt("order", value));
+			}
+			value = get(prefix, "threads");
+			if (value != null) {
+				job.setThreads(toInt("threads", value));
+			}
+			value = get(prefix, "output");
+			if (value != null) {
+				job.setOutput(file(value));
+			}
+			value = get(prefix, "format");
+			if (value != null) {
+				job.setFormat(OutputFormat.valueOf(value.toUpperCase()));
+			}
+			value = get(prefix, "storage");
+			if (value != null) {
+				String error = get(prefix, "error");
+				job.setStorage(CompactSolution.Encoding.valueOf(value
+						.toUpperCase()), error == null ? 0. : toDouble("error",
+						error));
+			}
+			// the defaults first, so that the job overrides them
+			for (String start : new String[] { "", prefix }) {
+				for (String key : properties.stringPropertyNames()) {
+					if (key.startsWith(start + PARAMETER)) {
+						job.setParameter(key.substring(start.length()
+								+ PARAMETER.length()), toDouble(key,
+								properties.getProperty(key)));
+					} else if (key.startsWith(start + INITIAL)) {
+						job.setInitialValue(key.substring(start.length()
+								+ INITIAL.length()), toDouble(key, properties
+								.getProperty(key)));
+					}
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			throw new IOException("job " + name + ": " + e.getMessage(), e);
+		}
+	}
+
+	private String get(String prefix, String key) {
+		String value = properties.getProperty(prefix + key);
+		if (value == null) {
+			value = properties.getProperty(key);
+		}
+		return value != null ? value.trim() : null;
+	}
+
+	private File file(String path) {
+		File file = new File(path.trim());
+		return file.isAbsolute() || base == null ? file : new File(base,
+				file.getPath());
+	}
+
+	private static double toDouble(String key, String value) {
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(key + " is not a number: "
+					+ value);
+		}
+	}
+
+	private static int toInt(String key, String value) {
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(key + " is not an integer: "
+					+ value);
+		}
+	}
+
+	public List<Job> getJobs() {
+		return jobs;
+	}
+
+	/**
+	 * returns the number of jobs running at the same time
+	 * 
+	 * @return
+	 */
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	/**
+	 * returns the directory of the solution cache, or null
+	 * 
+	 * @return
+	 */
+	public File getCache() {
+		return cache;
+	}
+
+}
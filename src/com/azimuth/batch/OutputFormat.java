@@ -0,0 +1,123 @@
+package com.azimuth.batch;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import com.azimuth.ode.InitialValueProblem.Solution;
+import com.azimuth.ode.SolutionFormat;
+
+/**
+ * The formats of the results of a job
+ * 
+ * @author marco
+ * 
+ */
+public enum OutputFormat {
+
+	/**
+	 * the binary SolutionFormat
+	 */
+	BINARY {
+		@Override
+		public void write(Solution solution, String[] names, OutputStream out)
+				throws IOException {
+			SolutionFormat.write(solution, out);
+		}
+	},
+	/**
+	 * a line for every timestep, with the time and the values separated by
+	 * tabs, after a header with the names of the variables, as the data files
+	 * of Plot2D
+	 */
+	TEXT {
+		@Override
+		public void write(Solution solution, String[] names, OutputStream out)
+				throws IOException {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(out,
+					"UTF-8"), 1 << 16);
+			double[] timesteps = solution.getTimesteps();
+			double[][] values = solution.getValues();
+			writer.write("# time");
+			for (String name : names) {
+				writer.write('\t');
+				writer.write(name);
+			}
+			writer.write('\n');
+			for (int n = 0; n < timesteps.length; n++) {
+				writer.write(Double.toString(timesteps[n]));
+				for (int j = 0; j < values.length; j++) {
+					writer.write('\t');
+					writer.write(Double.toString(values[j][n]));
+				}
+				writer.write('\n');
+			}
+			writer.flush();
+		}
+	},
+	/**
+	 * an object with the names of the variables, the timesteps and the
+	 * values grouped by variable
+	 * 
+	 * {"variables": ["x", ...], "time": [...], "values": [[...], ...]}
+	 * 
+	 * NaN and infinite values are written as null
+	 */
+	JSON {
+		@Override
+		public void write(Solution solution, String[] names, OutputStream out)
+				throws IOException {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(out,
+					"UTF-8"), 1 << 16);
+			writer.write("{\"variables\": [");
+			for (int j = 0; j < names.length; j++) {
+				if (j > 0) {
+					writer.write(", ");
+				}
+				writer.write('"');
+				writer.write(names[j]);
+				writer.write('"');
+			}
+			writer.write("],\n\"time\": ");
+			write(solution.getTimesteps(), writer);
+			writer.write(",\n\"values\": [");
+			double[][] values = solution.getValues();
+			for (int j = 0; j < values.length; j++) {
+				if (j > 0) {
+					writer.write(",\n");
+				}
+				write(values[j], writer);
+			}
+			writer.write("]}\n");
+			writer.flush();
+		}
+
+		private void write(double[] values, Writer writer) throws IOException {
+			writer.write('[');
+			for (int n = 0; n < values.length; n++) {
+				if (n > 0) {
+					writer.write(", ");
+				}
+				double value = values[n];
+				writer.write(Double.isNaN(value) || Double.isInfinite(value) ? "null"
+						: Double.toString(value));
+			}
+			writer.write(']');
+		}
+	};
+
+	/**
+	 * writes a solution to a stream, without closing it
+	 * 
+	 * @param solution
+	 * @param names
+	 *            , the names of the variables
+	 * @param out
+	 * @throws IOException
+	 */
+	public abstract void write(Solution solution, String[] names,
+			OutputStream out) throws IOException;
+
+}
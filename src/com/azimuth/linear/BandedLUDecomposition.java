@@ -0,0 +1,185 @@
+package com.azimuth.linear;
+
+import java.util.Arrays;
+
+/**
+ * LU factorization with partial pivoting of a square band matrix with lower
+ * bandwidth ml and upper bandwidth mu.
+ *
+ * Entries are stored by columns as in LAPACK: entry (i, j) is band[j][ml + mu
+ * + i - j]. The first ml positions of every column are reserved for the fill
+ * in caused by pivoting, so that memory and time scale with n*(2 ml + mu + 1)
+ * instead of n^2.
+ *
+ * @author marco
+ *
+ */
+public class BandedLUDecomposition {
+
+	private final int n;
+	private final int ml;
+	private final int mu;
+	/**
+	 * diagonal position in every column
+	 */
+	private final int kv;
+	private final double[][] band;
+	/**
+	 * row interchanges: at step j row j was swapped with row pivot[j]
+	 */
+	private final int[] pivot;
+
+	/**
+	 * creates an empty workspace
+	 *
+	 * @param n
+	 *            , size of the matrix
+	 * @param ml
+	 *            , lower bandwidth
+	 * @param mu
+	 *            , upper bandwidth
+	 */
+	public BandedLUDecomposition(int n, int ml, int mu) {
+		this.n = n;
+		this.ml = ml;
+		this.mu = mu;
+		this.kv = ml + mu;
+		this.band = new double[n][2 * ml + mu + 1];
+		this.pivot = new int[n];
+	}
+
+	public int getSize() {
+		return n;
+	}
+
+	public int getLowerBandwidth() {
+		return ml;
+	}
+
+	public int getUpperBandwidth() {
+		return mu;
+	}
+
+	/**
+	 * sets every entry to zero
+	 */
+	public void clear() {
+		for (int j = 0; j < n; j++) {
+			Arrays.fill(band[j], 0.);
+		}
+	}
+
+	/**
+	 * sets the entry (i, j), that must be within the band
+	 *
+	 * @param i
+	 * @param j
+	 * @param value
+	 */
+	public void set(int i, int j, double value) {
+		band[j][kv + i - j] = value;
+	}
+
+	/**
+	 * adds value to the entry (i, j), that must be within the band
+	 *
+	 * @param i
+	 * @param j
+	 * @param value
+	 */
+	public void add(int i, int j, double value) {
+		band[j][kv + i - j] += value;
+	}
+
+	/**
+	 * factors the matrix in place
+	 *
+	 * @throws ArithmeticException
+	 *             if the matrix is singular
+	 */
+	public void factor() {
+		for (int j = 0; j < n; j++) {
+			double[] column = band[j];
+			int km = Math.min(ml, n - 1 - j);
+			// search for the pivot in column j
+			int p = 0;
+			double max = Math.abs(column[kv]);
+			for (int i = 1; i <= km; i++) {
+				double v = Math.abs(column[kv + i]);
+				if (v > max) {
+					max = v;
+					p = i;
+				}
+			}
+			if (max == 0.) {
+				throw new ArithmeticException("singular matrix");
+			}
+			pivot[j] = j + p;
+			int last = Math.min(n - 1, j + kv);
+			// swap rows j and j+p
+			if (p != 0) {
+				for (int jj = j; jj <= last; jj++) {
+					double[] c = band[jj];
+					int a = kv + j - jj;
+					double tmp = c[a];
+					c[a] = c[a + p];
+					c[a + p] = tmp;
+				}
+			}
+			// multipliers
+			double diagonal = column[kv];
+			for (int i = 1; i <= km; i++) {
+				column[kv + i] /= diagonal;
+			}
+			// update the remaining columns
+			for (int jj = j + 1; jj <= last; jj++) {
+				double[] c = band[jj];
+				int a = kv + j - jj;
+				double u = c[a];
+				if (u != 0.) {
+					for (int i = 1; i <= km; i++) {
+						c[a + i] -= column[kv + i] * u;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * solves A x = b, overwriting b with the solution x
+	 *
+	 * @param b
+	 */
+	public void solve(double[] b) {
+		// forward substitution with L and the row interchanges
+		for (int j = 0; j < n; j++) {
+			int p = pivot[j];
+			if (p != j) {
+				double tmp = b[p];
+				b[p] = b[j];
+				b[j] = tmp;
+			}
+			double bj = b[j];
+			if (bj != 0.) {
+				double[] column = band[j];
+				int km = Math.min(ml, n - 1 - j);
+				for (int i = 1; i <= km; i++) {
+					b[j + i] -= column[kv + i] * bj;
+				}
+			}
+		}
+		// backward substitution with U, by columns
+		for (int j = n - 1; j >= 0; j--) {
+			double[] column = band[j];
+			double xj = b[j] / column[kv];
+			b[j] = xj;
+			if (xj != 0.) {
+				int first = Math.max(0, j - kv);
+				for (int i = first; i < j; i++) {
+					b[i] -= column[kv + i - j] * xj;
+				}
+			}
+		}
+	}
+
+}
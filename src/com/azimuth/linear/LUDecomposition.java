@@ -0,0 +1,133 @@
+package com.azimuth.linear;
+
+/**
+ * LU factorization with partial pivoting of a dense square matrix.
+ *
+ * The factorization is computed in place, so that the same instance can be
+ * filled and factored again many times without allocating new memory.
+ *
+ * @author marco
+ *
+ */
+public class LUDecomposition {
+
+	/**
+	 * the size of the matrix
+	 */
+	private final int n;
+	/**
+	 * the matrix before the factorization, its L and U factors afterwards
+	 */
+	private final double[][] lu;
+	/**
+	 * row permutation: row i of LU is row pivot[i] of the original matrix
+	 */
+	private final int[] pivot;
+
+	/**
+	 * creates an empty workspace for a n x n matrix
+	 *
+	 * @param n
+	 */
+	public LUDecomposition(int n) {
+		this.n = n;
+		this.lu = new double[n][n];
+		this.pivot = new int[n];
+	}
+
+	/**
+	 * returns the matrix to be filled before calling factor()
+	 *
+	 * @return
+	 */
+	public double[][] getMatrix() {
+		return lu;
+	}
+
+	public int getSize() {
+		return n;
+	}
+
+	/**
+	 * factors the matrix in place
+	 *
+	 * @throws ArithmeticException
+	 *             if the matrix is singular
+	 */
+	public void factor() {
+		for (int i = 0; i < n; i++) {
+			pivot[i] = i;
+		}
+		for (int k = 0; k < n; k++) {
+			// search for the pivot in column k
+			int p = k;
+			double max = Math.abs(lu[k][k]);
+			for (int i = k + 1; i < n; i++) {
+				double v = Math.abs(lu[i][k]);
+				if (v > max) {
+					max = v;
+					p = i;
+				}
+			}
+			if (max == 0.) {
+				throw new ArithmeticException("singular matrix");
+			}
+			// swap rows
+			if (p != k) {
+				double[] row = lu[p];
+				lu[p] = lu[k];
+				lu[k] = row;
+				int tmp = pivot[p];
+				pivot[p] = pivot[k];
+				pivot[k] = tmp;
+			}
+			// eliminate below the diagonal
+			double[] rowK = lu[k];
+			double diagonal = rowK[k];
+			for (int i = k + 1; i < n; i++) {
+				double[] rowI = lu[i];
+				double m = rowI[k] / diagonal;
+				rowI[k] = m;
+				if (m != 0.) {
+					for (int j = k + 1; j < n; j++) {
+						rowI[j] -= m * rowK[j];
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * solves A x = b, overwriting b with the solution x
+	 *
+	 * @param b
+	 * @param work
+	 *            , a scratch vector of size n
+	 */
+	public void solve(double[] b, double[] work) {
+		// apply the permutation
+		for (int i = 0; i < n; i++) {
+			work[i] = b[pivot[i]];
+		}
+		// forward substitution with L (unit diagonal)
+		for (int i = 0; i < n; i++) {
+			double[] row = lu[i];
+			double sum = work[i];
+			for (int j = 0; j < i; j++) {
+				sum -= row[j] * work[j];
+			}
+			work[i] = sum;
+		}
+		// backward substitution with U
+		for (int i = n - 1; i >= 0; i--) {
+			double[] row = lu[i];
+			double sum = work[i];
+			for (int j = i + 1; j < n; j++) {
+				sum -= row[j] * work[j];
+			}
+			work[i] = sum / row[i];
+		}
+		System.arraycopy(work, 0, b, 0, n);
+	}
+
+}
@@ -0,0 +1,113 @@
+package com.azimuth.linear;
+
+import java.util.Arrays;
+
+/**
+ * A sparse square matrix stored in Compressed Sparse Row (CSR) format: the
+ * values of the non zero entries are stored in the order given by the
+ * SparsityPattern.
+ *
+ * @author marco
+ *
+ */
+public class SparseMatrix {
+
+	private final SparsityPattern pattern;
+	private final double[] values;
+
+	public SparseMatrix(SparsityPattern pattern) {
+		this.pattern = pattern;
+		this.values = new double[pattern.getNonZeros()];
+	}
+
+	public SparsityPattern getPattern() {
+		return pattern;
+	}
+
+	/**
+	 * returns the values of the non zero entries, in CSR order
+	 *
+	 * @return
+	 */
+	public double[] getValues() {
+		return values;
+	}
+
+	public int getSize() {
+		return pattern.getSize();
+	}
+
+	/**
+	 * returns the entry (i, j)
+	 *
+	 * @param i
+	 * @param j
+	 * @return
+	 */
+	public double get(int i, int j) {
+		int index = pattern.indexOf(i, j);
+		return index >= 0 ? values[index] : 0.;
+	}
+
+	/**
+	 * sets the entry (i, j), that must be in the pattern
+	 *
+	 * @param i
+	 * @param j
+	 * @param value
+	 */
+	public void set(int i, int j, double value) {
+		int index = pattern.indexOf(i, j);
+		if (index < 0) {
+			throw new IllegalArgumentException("entry (" + i + ", " + j
+					+ ") is not in the sparsity pattern");
+		}
+		values[index] = value;
+	}
+
+	/**
+	 * sets every entry to zero
+	 */
+	public void clear() {
+		Arrays.fill(values, 0.);
+	}
+
+	/**
+	 * computes y = A x
+	 *
+	 * @param x
+	 * @param y
+	 */
+	public void multiply(double[] x, double[] y) {
+		int[] rowPointers = pattern.getRowPointers();
+		int[] columnIndexes = pattern.getColumnIndexes();
+		int n = pattern.getSize();
+		for (int i = 0; i < n; i++) {
+			double sum = 0.;
+			for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+				sum += values[k] * x[columnIndexes[k]];
+			}
+			y[i] = sum;
+		}
+	}
+
+	/**
+	 * computes y = A^T x
+	 *
+	 * @param x
+	 * @param y
+	 */
+	public void multiplyTranspose(double[] x, double[] y) {
+		int[] rowPointers = pattern.getRowPointers();
+		int[] columnIndexes = pattern.getColumnIndexes();
+		int n = pattern.getSize();
+		Arrays.fill(y, 0.);
+		for (int i = 0; i < n; i++) {
+			double xi = x[i];
+			for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+				y[columnIndexes[k]] += values[k] * xi;
+			}
+		}
+	}
+
+}
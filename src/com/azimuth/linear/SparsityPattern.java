@@ -0,0 +1,338 @@
+package com.azimuth.linear;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The structure of a sparse square matrix in Compressed Sparse Row (CSR)
+ * format: the columns of the non zero entries of row i are
+ * columnIndexes[rowPointers[i]], ..., columnIndexes[rowPointers[i+1]-1], in
+ * increasing order.
+ *
+ * The same structure is also available by columns, with the position of
+ * every entry in the CSR arrays, to walk the matrix one column at a time.
+ *
+ * @author marco
+ *
+ */
+public class SparsityPattern {
+
+	private final int n;
+	/**
+	 * CSR structure
+	 */
+	private final int[] rowPointers;
+	private final int[] columnIndexes;
+	/**
+	 * the same structure by columns: rows of column j and their positions in
+	 * the CSR arrays
+	 */
+	private final int[] columnPointers;
+	private final int[] rowIndexes;
+	private final int[] positions;
+
+	/**
+	 * creates a pattern from the non zero columns of every row
+	 *
+	 * @param dependencies
+	 *            , dependencies[i] = columns of the non zero entries in row
+	 *            i, in any order and possibly repeated
+	 */
+	public SparsityPattern(int[][] dependencies) {
+		this.n = dependencies.length;
+		// sort and remove duplicates
+		int[][] rows = new int[n][];
+		int nonZeros = 0;
+		for (int i = 0; i < n; i++) {
+			int[] row = dependencies[i].clone();
+			Arrays.sort(row);
+			int size = 0;
+			for (int k = 0; k < row.length; k++) {
+				if (row[k] < 0 || row[k] >= n) {
+					throw new IllegalArgumentException("column " + row[k]
+							+ " out of range in row " + i);
+				}
+				if (size == 0 || row[size - 1] != row[k]) {
+					row[size++] = row[k];
+				}
+			}
+			rows[i] = Arrays.copyOf(row, size);
+			nonZeros += size;
+		}
+		rowPointers = new int[n + 1];
+		columnIndexes = new int[nonZeros];
+		for (int i = 0; i < n; i++) {
+			System.arraycopy(rows[i], 0, columnIndexes, rowPointers[i],
+					rows[i].length);
+			rowPointers[i + 1] = rowPointers[i] + rows[i].length;
+		}
+		// transpose
+		columnPointers = new int[n + 1];
+		rowIndexes = new int[nonZeros];
+		positions = new int[nonZeros];
+		for (int k = 0; k < nonZeros; k++) {
+			columnPointers[columnIndexes[k] + 1]++;
+		}
+		for (int j = 0; j < n; j++) {
+			columnPointers[j + 1] += columnPointers[j];
+		}
+		int[] next = Arrays.copyOf(columnPointers, n);
+		for (int i = 0; i < n; i++) {
+			for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+				int index = next[columnIndexes[k]]++;
+				rowIndexes[index] = i;
+				positions[index] = k;
+			}
+		}
+	}
+
+	/**
+	 * returns the number of rows (and columns)
+	 *
+	 * @return
+	 */
+	public int getSize() {
+		return n;
+	}
+
+	public int getNonZeros() {
+		return columnIndexes.length;
+	}
+
+	public int[] getRowPointers() {
+		return rowPointers;
+	}
+
+	public int[] getColumnIndexes() {
+		return columnIndexes;
+	}
+
+	public int[] getColumnPointers() {
+		return columnPointers;
+	}
+
+	public int[] getRowIndexes() {
+		return rowIndexes;
+	}
+
+	/**
+	 * returns, for every entry in column order, its position in the CSR
+	 * arrays
+	 *
+	 * @return
+	 */
+	public int[] getPositions() {
+		return positions;
+	}
+
+	/**
+	 * returns the position of entry (i, j) in the CSR arrays, or a negative
+	 * number if it is zero
+	 *
+	 * @param i
+	 * @param j
+	 * @return
+	 */
+	public int indexOf(int i, int j) {
+		int index = Arrays.binarySearch(columnIndexes, rowPointers[i],
+				rowPointers[i + 1], j);
+		return index >= 0 ? index : -1;
+	}
+
+	/**
+	 * returns max(i - j) over the non zero entries
+	 *
+	 * @return
+	 */
+	public int getLowerBandwidth() {
+		int bandwidth = 0;
+		for (int i = 0; i < n; i++) {
+			if (rowPointers[i] < rowPointers[i + 1]) {
+				bandwidth = Math.max(bandwidth, i - columnIndexes[rowPointers[i]]);
+			}
+		}
+		return bandwidth;
+	}
+
+	/**
+	 * returns max(j - i) over the non zero entries
+	 *
+	 * @return
+	 */
+	public int getUpperBandwidth() {
+		int bandwidth = 0;
+		for (int i = 0; i < n; i++) {
+			if (rowPointers[i] < rowPointers[i + 1]) {
+				bandwidth = Math.max(bandwidth,
+						columnIndexes[rowPointers[i + 1] - 1] - i);
+			}
+		}
+		return bandwidth;
+	}
+
+	/**
+	 * partitions the columns into groups of structurally orthogonal columns,
+	 * i.e. columns with no non zero row in common, by greedy coloring of the
+	 * column intersection graph. Columns are visited by decreasing number of
+	 * non zeros (largest first ordering).
+	 *
+	 * @return, the groups of columns
+	 */
+	public int[][] color() {
+		// visit order
+		Integer[] order = new Integer[n];
+		for (int j = 0; j < n; j++) {
+			order[j] = j;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int na = columnPointers[a + 1] - columnPointers[a];
+				int nb = columnPointers[b + 1] - columnPointers[b];
+				return na != nb ? nb - na : a - b;
+			}
+		});
+		int[] color = new int[n];
+		Arrays.fill(color, -1);
+		// marks[c] = last column that found color c already used
+		int[] marks = new int[n];
+		Arrays.fill(marks, -1);
+		int numberOfColors = 0;
+		for (int o = 0; o < n; o++) {
+			int j = order[o];
+			for (int k = columnPointers[j]; k < columnPointers[j + 1]; k++) {
+				int i = rowIndexes[k];
+				for (int l = rowPointers[i]; l < rowPointers[i + 1]; l++) {
+					int other = color[columnIndexes[l]];
+					if (other >= 0) {
+						marks[other] = j;
+					}
+				}
+			}
+			int c = 0;
+			while (marks[c] == j) {
+				c++;
+			}
+			color[j] = c;
+			numberOfColors = Math.max(numberOfColors, c + 1);
+		}
+		int[] size = new int[numberOfColors];
+		for (int j = 0; j < n; j++) {
+			size[color[j]]++;
+		}
+		int[][] groups = new int[numberOfColors][];
+		for (int c = 0; c < numberOfColors; c++) {
+			groups[c] = new int[size[c]];
+			size[c] = 0;
+		}
+		for (int j = 0; j < n; j++) {
+			groups[color[j]][size[color[j]]++] = j;
+		}
+		return groups;
+	}
+
+	/**
+	 * computes the reverse Cuthill-McKee ordering of the symmetrized pattern,
+	 * that reduces the bandwidth of the matrix.
+	 *
+	 * @return, permutation[k] = the index of the variable in position k
+	 */
+	public int[] reverseCuthillMcKee() {
+		// adjacency of A + A^T
+		int[] degree = new int[n];
+		for (int i = 0; i < n; i++) {
+			for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+				int j = columnIndexes[k];
+				if (i != j) {
+					degree[i]++;
+					degree[j]++;
+				}
+			}
+		}
+		int[] pointers = new int[n + 1];
+		for (int i = 0; i < n; i++) {
+			pointers[i + 1] = pointers[i] + degree[i];
+		}
+		int[] adjacency = new int[pointers[n]];
+		int[] next = Arrays.copyOf(pointers, n);
+		for (int i = 0; i < n; i++) {
+			for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+				int j = columnIndexes[k];
+				if (i != j) {
+					adjacency[next[i]++] = j;
+					adjacency[next[j]++] = i;
+				}
+			}
+		}
+		// breadth first visits, starting from a node of minimum degree in
+		// every connected component and visiting neighbours by degree
+		int[] byDegree = sortByDegree(degree);
+		int[] permutation = new int[n];
+		boolean[] visited = new boolean[n];
+		int head = 0;
+		int tail = 0;
+		int scan = 0;
+		while (tail < n) {
+			while (visited[byDegree[scan]]) {
+				scan++;
+			}
+			int start = byDegree[scan];
+			visited[start] = true;
+			permutation[tail++] = start;
+			while (head < tail) {
+				int node = permutation[head++];
+				int first = tail;
+				for (int k = pointers[node]; k < pointers[node + 1]; k++) {
+					int other = adjacency[k];
+					if (!visited[other]) {
+						visited[other] = true;
+						permutation[tail++] = other;
+					}
+				}
+				// insertion sort of the new nodes by degree
+				for (int a = first + 1; a < tail; a++) {
+					int node2 = permutation[a];
+					int b = a - 1;
+					while (b >= first && degree[permutation[b]] > degree[node2]) {
+						permutation[b + 1] = permutation[b];
+						b--;
+					}
+					permutation[b + 1] = node2;
+				}
+			}
+		}
+		// reverse
+		for (int i = 0, j = n - 1; i < j; i++, j--) {
+			int tmp = permutation[i];
+			permutation[i] = permutation[j];
+			permutation[j] = tmp;
+		}
+		return permutation;
+	}
+
+	/**
+	 * returns the nodes sorted by increasing degree (counting sort)
+	 *
+	 * @param degree
+	 * @return
+	 */
+	private int[] sortByDegree(int[] degree) {
+		int max = 0;
+		for (int i = 0; i < n; i++) {
+			max = Math.max(max, degree[i]);
+		}
+		int[] start = new int[max + 2];
+		for (int i = 0; i < n; i++) {
+			start[degree[i] + 1]++;
+		}
+		for (int d = 0; d <= max; d++) {
+			start[d + 1] += start[d];
+		}
+		int[] sorted = new int[n];
+		for (int i = 0; i < n; i++) {
+			sorted[start[degree[i]]++] = i;
+		}
+		return sorted;
+	}
+
+}
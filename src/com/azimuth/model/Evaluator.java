@@ -0,0 +1,25 @@
+package com.azimuth.model;
+
+/**
+ * Evaluates the derivatives of a model. It is public only because the
+ * evaluators compiled at runtime are defined by their own class loader.
+ * 
+ * @author marco
+ * 
+ */
+public interface Evaluator {
+
+	/**
+	 * fills result with the derivatives of the model
+	 * 
+	 * @param t
+	 * @param values
+	 *            , the values of the variables
+	 * @param parameters
+	 *            , the values of the parameters
+	 * @param result
+	 */
+	public void evaluate(double t, double[] values, double[] parameters,
+			double[] result);
+
+}
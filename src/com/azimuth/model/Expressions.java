@@ -0,0 +1,156 @@
+package com.azimuth.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Creates the nodes of the expressions of a model.
+ * 
+ * Every node is created once: an expression equal to an existing one
+ * returns the existing node, which eliminates the common subexpressions.
+ * Nodes are also simplified when created: operations on constants are
+ * folded, identities like x + 0, x * 1 and x^1 are removed, small integer
+ * powers become products and the operands of commutative operations are
+ * sorted, so that a*b and b*a are the same node.
+ * 
+ * @author marco
+ * 
+ */
+class Expressions {
+
+	private final Map<Node, Node> nodes = new HashMap<Node, Node>();
+
+	private Node intern(Node node) {
+		Node existing = nodes.get(node);
+		if (existing != null) {
+			return existing;
+		}
+		node.setId(nodes.size());
+		nodes.put(node, node);
+		return node;
+	}
+
+	Node constant(double value) {
+		return intern(new Node(Operation.CONSTANT, value, -1, null, null));
+	}
+
+	Node variable(int index) {
+		return intern(new Node(Operation.VARIABLE, 0., index, null, null));
+	}
+
+	Node parameter(int index) {
+		return intern(new Node(Operation.PARAMETER, 0., index, null, null));
+	}
+
+	Node time() {
+		return intern(new Node(Operation.TIME, 0., -1, null, null));
+	}
+
+	/**
+	 * returns the node of a function of one argument, or of the negation
+	 * 
+	 * @param operation
+	 * @param a
+	 * @return
+	 */
+	Node unary(Operation operation, Node a) {
+		if (a.isConstant()) {
+			return constant(operation.apply(a.getValue(), 0.));
+		}
+		if (operation == Operation.NEGATE
+				&& a.getOperation() == Operation.NEGATE) {
+			// - - x = x
+			return a.getLeft();
+		}
+		return intern(new Node(operation, 0., -1, a, null));
+	}
+
+	/**
+	 * returns the node of an operation of two arguments
+	 * 
+	 * @param operation
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	Node binary(Operation operation, Node a, Node b) {
+		if (a.isConstant() && b.isConstant()) {
+			return constant(operation.apply(a.getValue(), b.getValue()));
+		}
+		switch (operation) {
+		case ADD:
+			if (a.isConstant(0.)) {
+				return b;
+			}
+			if (b.isConstant(0.)) {
+				return a;
+			}
+			if (b.getOperation() == Operation.NEGATE) {
+				// x + (-y) = x - y
+				return binary(Operation.SUBTRACT, a, b.getLeft());
+			}
+			if (a.getOperation() == Operation.NEGATE) {
+				return binary(Operation.SUBTRACT, b, a.getLeft());
+			}
+			break;
+		case SUBTRACT:
+			if (b.isConstant(0.)) {
+				return a;
+			}
+			if (a.isConstant(0.)) {
+				return unary(Operation.NEGATE, b);
+			}
+			if (b.getOperation() == Operation.NEGATE) {
+				// x - (-y) = x + y
+				return binary(Operation.ADD, a, b.getLeft());
+			}
+			break;
+		case MULTIPLY:
+			if (a.isConstant(1.)) {
+				return b;
+			}
+			if (b.isConstant(1.)) {
+				return a;
+			}
+			if (a.isConstant(-1.)) {
+				return unary(Operation.NEGATE, b);
+			}
+			if (b.isConstant(-1.)) {
+				return unary(Operation.NEGATE, a);
+			}
+			break;
+		case DIVIDE:
+			if (b.isConstant(1.)) {
+				return a;
+			}
+			break;
+		case POWER:
+			if (b.isConstant(1.)) {
+				return a;
+			}
+			if (b.isConstant(0.)) {
+				return constant(1.);
+			}
+			if (b.isConstant(2.)) {
+				return binary(Operation.MULTIPLY, a, a);
+			}
+			if (b.isConstant(3.)) {
+				return binary(Operation.MULTIPLY,
+						binary(Operation.MULTIPLY, a, a), a);
+			}
+			if (b.isConstant(-1.)) {
+				return binary(Operation.DIVIDE, constant(1.), a);
+			}
+			break;
+		default:
+			break;
+		}
+		if (operation.isCommutative() && a.getId() > b.getId()) {
+			Node tmp = a;
+			a = b;
+			b = tmp;
+		}
+		return intern(new Node(operation, 0., -1, a, b));
+	}
+
+}
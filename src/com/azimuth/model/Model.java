@@ -0,0 +1,324 @@
+package com.azimuth.model;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import com.azimuth.ode.Function;
+import com.azimuth.ode.ParametricProblem;
+import com.azimuth.ode.SourceCompiler;
+import com.azimuth.ode.VectorFunction;
+
+/**
+ * An Initial Value Problem defined by text, e.g. the predator prey model
+ * 
+ * <pre>
+ * parameter a = 1.5
+ * parameter b = 1
+ * parameter c = 3
+ * parameter d = 1
+ * x(0) = 10
+ * y(0) = 4
+ * dx/dt = (a - b*y)*x
+ * dy/dt = (-c + d*x)*y
+ * </pre>
+ * 
+ * (see ModelParser for the syntax). The parameters can be changed by name,
+ * or by solvers of ParametricProblem.
+ * 
+ * The expressions are parsed once and simplified, and the subexpressions
+ * they share are computed once, by a single evaluator of all the
+ * derivatives: it is compiled to Java when a compiler is available and the
+ * model is not too large, and interpreted otherwise.
+ * 
+ * @author marco
+ * 
+ */
+public class Model extends ParametricProblem {
+
+	/**
+	 * the largest program compiled to Java
+	 */
+	private final static int MAX_COMPILED_SIZE = 50000;
+	private final static int MAX_CACHED_EVALUATORS = 64;
+	private final static String PACKAGE = "com.azimuth.model.generated";
+
+	/**
+	 * evaluators compiled by source, shared by equal models
+	 */
+	private final static Map<String, Evaluator> EVALUATORS = new LinkedHashMap<String, Evaluator>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Evaluator> eldest) {
+			return size() > MAX_CACHED_EVALUATORS;
+		}
+	};
+	private static int counter;
+
+	private final String[] variableNames;
+	private final String[] parameterNames;
+	/**
+	 * every derivative, and one program for each derivative
+	 */
+	private final Program program;
+	private final Function[] derivatives;
+	private final int[][] dependencies;
+
+	/**
+	 * whether the evaluator is compiled to Java
+	 */
+	private boolean compiled = true;
+	private Evaluator evaluator;
+	private String definition;
+
+	Model(String[] variableNames, String[] parameterNames,
+			double[] parameters, double[] initialValues, Node[] equations) {
+		super(parameters);
+		this.variableNames = variableNames;
+		this.parameterNames = parameterNames;
+		setInitialValue(initialValues);
+		this.program = new Program(equations);
+		this.derivatives = new Function[equations.length];
+		this.dependencies = new int[equations.length][];
+		for (int e = 0; e < equations.length; e++) {
+			final Program single = new Program(new Node[] { equations[e] });
+			derivatives[e] = new Function() {
+				@Override
+				public double value(double t, double[] values) {
+					return single.value(t, values, getParameters());
+				}
+			};
+			TreeSet<Integer> variables = new TreeSet<Integer>();
+			collect(equations[e], variables, new IdentityHashMap<Node, Node>());
+			dependencies[e] = new int[variables.size()];
+			int i = 0;
+			for (int variable : variables) {
+				dependencies[e][i++] = variable;
+			}
+		}
+	}
+
+	/**
+	 * collects the variables of an expression
+	 */
+	private static void collect(Node node, TreeSet<Integer> variables,
+			Map<Node, Node> visited) {
+		if (visited.put(node, node) != null) {
+			return;
+		}
+		if (node.getOperation() == Operation.VARIABLE) {
+			variables.add(node.getIndex());
+		}
+		if (node.getLeft() != null) {
+			collect(node.getLeft(), variables, visited);
+		}
+		if (node.getRight() != null) {
+			collect(node.getRight(), variables, visited);
+		}
+	}
+
+	/**
+	 * parses a model
+	 * 
+	 * @param text
+	 * @return
+	 * @throws IOException
+	 *             , if the model has syntax errors
+	 */
+	public static Model parse(String text) throws IOException {
+		return read(new StringReader(text));
+	}
+
+	/**
+	 * reads a model
+	 * 
+	 * @param reader
+	 * @return
+	 * @throws IOException
+	 *             , if the model cannot be read or has syntax errors
+	 */
+	public static Model read(Reader reader) throws IOException {
+		return new ModelParser().parse(reader);
+	}
+
+	/**
+	 * reads a model from a file
+	 * 
+	 * @param filename
+	 * @return
+	 * @throws IOException
+	 */
+	public static Model load(String filename) throws IOException {
+		FileReader reader = new FileReader(filename);
+		try {
+			return read(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Override
+	public Function[] getDerivatives() {
+		return derivatives;
+	}
+
+	@Override
+	public int[][] getDependencies() {
+		return dependencies;
+	}
+
+	/**
+	 * returns the source of the evaluator, that depends only on the
+	 * simplified equations
+	 */
+	@Override
+	public synchronized String getDefinition() {
+		if (definition == null) {
+			definition = program.java(PACKAGE, "Model");
+		}
+		return definition;
+	}
+
+	/**
+	 * returns the evaluator of all the derivatives
+	 */
+	@Override
+	public VectorFunction getVectorFunction() {
+		final Evaluator evaluator = getEvaluator();
+		return new VectorFunction() {
+			@Override
+			public void value(double t, double[] values, double[] result) {
+				evaluator.evaluate(t, values, getParameters(), result);
+			}
+		};
+	}
+
+	/**
+	 * computes the product of the transpose of dF/dp with v exactly, by a
+	 * reverse sweep over the instructions of the derivatives, at the cost of
+	 * about two evaluations of F whatever the number of parameters
+	 */
+	@Override
+	public void parameterVectorProduct(double t, double[] values, double[] v,
+			double[] result) {
+		Arrays.fill(result, 0, getNumberOfParameters(), 0.);
+		program.parameterVectorProduct(t, values, getParameters(), v, result);
+	}
+
+	private synchronized Evaluator getEvaluator() {
+		if (evaluator == null) {
+			if (compiled && program.getSize() <= MAX_COMPILED_SIZE
+					&& SourceCompiler.isAvailable()) {
+				evaluator = compile(program);
+			}
+			if (evaluator == null) {
+				evaluator = program;
+			}
+		}
+		return evaluator;
+	}
+
+	/**
+	 * compiles a program to Java, or returns null if it is not possible
+	 */
+	private static Evaluator compile(Program program) {
+		synchronized (EVALUATORS) {
+			// the class name is not part of the key
+			String key = program.java(PACKAGE, "Model");
+			Evaluator evaluator = EVALUATORS.get(key);
+			if (evaluator == null) {
+				String name = "Model" + (counter++);
+				evaluator = SourceCompiler.compile(PACKAGE + "." + name,
+						program.java(PACKAGE, name), Evaluator.class);
+				if (evaluator != null) {
+					EVALUATORS.put(key, evaluator);
+				}
+			}
+			return evaluator;
+		}
+	}
+
+	/**
+	 * returns true if the derivatives are evaluated by code compiled at
+	 * runtime
+	 * 
+	 * @return
+	 */
+	public boolean isCompiled() {
+		return getEvaluator() != program;
+	}
+
+	/**
+	 * when false, the derivatives are always interpreted, which avoids the
+	 * cost of the compilation for short integrations
+	 * 
+	 * @param compiled
+	 */
+	public synchronized void setCompiled(boolean compiled) {
+		this.compiled = compiled;
+		this.evaluator = null;
+	}
+
+	/**
+	 * returns the number of instructions evaluating the derivatives, after
+	 * simplification and elimination of the common subexpressions
+	 * 
+	 * @return
+	 */
+	public int getNumberOfInstructions() {
+		return program.getSize();
+	}
+
+	public String[] getVariableNames() {
+		return variableNames.clone();
+	}
+
+	public String[] getParameterNames() {
+		return parameterNames.clone();
+	}
+
+	/**
+	 * returns the index of a variable in the values
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public int indexOfVariable(String name) {
+		int index = Arrays.asList(variableNames).indexOf(name);
+		if (index < 0) {
+			throw new IllegalArgumentException("no variable " + name);
+		}
+		return index;
+	}
+
+	/**
+	 * returns the index of a parameter in the parameters
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public int indexOfParameter(String name) {
+		int index = Arrays.asList(parameterNames).indexOf(name);
+		if (index < 0) {
+			throw new IllegalArgumentException("no parameter " + name);
+		}
+		return index;
+	}
+
+	public double getParameter(String name) {
+		return getParameters()[indexOfParameter(name)];
+	}
+
+	public void setParameter(String name, double value) {
+		getParameters()[indexOfParameter(name)] = value;
+	}
+
+}
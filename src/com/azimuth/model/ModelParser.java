@@ -0,0 +1,347 @@
+package com.azimuth.model;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses the text of a model. Every line is one of
+ * 
+ * <pre>
+ * parameter a = 1.5     a named parameter and its default value
+ * x(0) = 10             the initial value of a variable
+ * r = a - b*y           an auxiliary expression
+ * dx/dt = r*x           the derivative of a variable
+ * </pre>
+ * 
+ * Expressions use + - * / ^, parentheses, the time t and the functions sin,
+ * cos, tan, exp, log, sqrt, abs, pow, min and max. Names must be defined
+ * before they are used, except for the variables, which are defined by
+ * their derivatives. Text after # is a comment.
+ * 
+ * @author marco
+ * 
+ */
+class ModelParser {
+
+	private final static Pattern PARAMETER = Pattern
+			.compile("parameter\\s+([A-Za-z_]\\w*)\\s*=(.*)");
+	private final static Pattern INITIAL_VALUE = Pattern
+			.compile("([A-Za-z_]\\w*)\\s*\\(\\s*0\\s*\\)\\s*=(.*)");
+	private final static Pattern DERIVATIVE = Pattern
+			.compile("d([A-Za-z_]\\w*)\\s*/\\s*dt\\s*=(.*)");
+	private final static Pattern AUXILIARY = Pattern
+			.compile("([A-Za-z_]\\w*)\\s*=(.*)");
+	private final static String TIME = "t";
+
+	private final Expressions expressions = new Expressions();
+
+	/**
+	 * names in order of definition
+	 */
+	private final Map<String, Integer> variables = new LinkedHashMap<String, Integer>();
+	private final Map<String, Integer> parameters = new LinkedHashMap<String, Integer>();
+	private final Map<String, Node> auxiliaries = new HashMap<String, Node>();
+	private final List<Double> parameterValues = new ArrayList<Double>();
+	private final Map<Integer, Double> initialValues = new HashMap<Integer, Double>();
+	private Node[] equations;
+
+	/**
+	 * the line being parsed
+	 */
+	private int lineNumber;
+	private String text;
+	private int position;
+
+	/**
+	 * parses a model
+	 * 
+	 * @param reader
+	 * @return
+	 * @throws IOException
+	 *             , if the model has syntax errors
+	 */
+	Model parse(Reader reader) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader buffered = new BufferedReader(reader);
+		String line;
+		while ((line = buffered.readLine()) != null) {
+			int comment = line.indexOf('#');
+			lines.add((comment < 0 ? line : line.substring(0, comment)).trim());
+		}
+		// the variables are defined by their derivatives
+		for (lineNumber = 1; lineNumber <= lines.size(); lineNumber++) {
+			Matcher matcher = DERIVATIVE.matcher(lines.get(lineNumber - 1));
+			if (matcher.matches()) {
+				define(matcher.group(1));
+				variables.put(matcher.group(1), variables.size());
+			}
+		}
+		if (variables.isEmpty()) {
+			throw new IOException("the model has no derivatives");
+		}
+		equations = new Node[variables.size()];
+		for (lineNumber = 1; lineNumber <= lines.size(); lineNumber++) {
+			line = lines.get(lineNumber - 1);
+			if (line.length() > 0) {
+				parseLine(line);
+			}
+		}
+
+		String[] variableNames = variables.keySet().toArray(
+				new String[variables.size()]);
+		String[] parameterNames = parameters.keySet().toArray(
+				new String[parameters.size()]);
+		double[] values = new double[parameterValues.size()];
+		for (int k = 0; k < values.length; k++) {
+			values[k] = parameterValues.get(k);
+		}
+		double[] initial = null;
+		if (!initialValues.isEmpty()) {
+			initial = new double[variables.size()];
+			for (Map.Entry<Integer, Double> entry : initialValues.entrySet()) {
+				initial[entry.getKey()] = entry.getValue();
+			}
+		}
+		return new Model(variableNames, parameterNames, values, initial,
+				equations);
+	}
+
+	private void parseLine(String line) throws IOException {
+		Matcher matcher = PARAMETER.matcher(line);
+		if (matcher.matches()) {
+			define(matcher.group(1));
+			parameterValues.add(constant(matcher.group(2)));
+			parameters.put(matcher.group(1), parameters.size());
+			return;
+		}
+		matcher = DERIVATIVE.matcher(line);
+		if (matcher.matches()) {
+			int index = variables.get(matcher.group(1));
+			if (equations[index] != null) {
+				throw error("the derivative of " + matcher.group(1)
+						+ " is defined twice");
+			}
+			equations[index] = expression(matcher.group(2));
+			return;
+		}
+		matcher = INITIAL_VALUE.matcher(line);
+		if (matcher.matches()) {
+			Integer index = variables.get(matcher.group(1));
+			if (index == null) {
+				throw error(matcher.group(1) + " is not a variable");
+			}
+			initialValues.put(index, constant(matcher.group(2)));
+			return;
+		}
+		matcher = AUXILIARY.matcher(line);
+		if (matcher.matches()) {
+			define(matcher.group(1));
+			auxiliaries.put(matcher.group(1), expression(matcher.group(2)));
+			return;
+		}
+		throw error("cannot parse: " + line);
+	}
+
+	/**
+	 * checks that a name is not defined yet
+	 */
+	private void define(String name) throws IOException {
+		if (name.equals(TIME) || variables.containsKey(name)
+				|| parameters.containsKey(name)
+				|| auxiliaries.containsKey(name)
+				|| Operation.function(name, 1) != null
+				|| Operation.function(name, 2) != null) {
+			throw error(name + " is already defined");
+		}
+	}
+
+	private double constant(String text) throws IOException {
+		Node node = expression(text);
+		if (!node.isConstant()) {
+			throw error("not a constant: " + text.trim());
+		}
+		return node.getValue();
+	}
+
+	private IOException error(String message) {
+		return new IOException("line " + lineNumber + ": " + message);
+	}
+
+	/**
+	 * parses an expression
+	 */
+	private Node expression(String text) throws IOException {
+		this.text = text;
+		this.position = 0;
+		Node node = sum();
+		skipSpaces();
+		if (position < text.length()) {
+			throw error("unexpected " + text.substring(position));
+		}
+		return node;
+	}
+
+	// sum := product (('+'|'-') product)*
+	private Node sum() throws IOException {
+		Node node = product();
+		while (true) {
+			if (accept('+')) {
+				node = expressions.binary(Operation.ADD, node, product());
+			} else if (accept('-')) {
+				node = expressions.binary(Operation.SUBTRACT, node, product());
+			} else {
+				return node;
+			}
+		}
+	}
+
+	// product := unary (('*'|'/') unary)*
+	private Node product() throws IOException {
+		Node node = unary();
+		while (true) {
+			if (accept('*')) {
+				node = expressions.binary(Operation.MULTIPLY, node, unary());
+			} else if (accept('/')) {
+				node = expressions.binary(Operation.DIVIDE, node, unary());
+			} else {
+				return node;
+			}
+		}
+	}
+
+	// unary := ('-'|'+') unary | power
+	private Node unary() throws IOException {
+		if (accept('-')) {
+			return expressions.unary(Operation.NEGATE, unary());
+		}
+		if (accept('+')) {
+			return unary();
+		}
+		return power();
+	}
+
+	// power := primary ('^' unary)?
+	private Node power() throws IOException {
+		Node node = primary();
+		if (accept('^')) {
+			return expressions.binary(Operation.POWER, node, unary());
+		}
+		return node;
+	}
+
+	// primary := number | name | name '(' sum (',' sum)* ')' | '(' sum ')'
+	private Node primary() throws IOException {
+		skipSpaces();
+		if (accept('(')) {
+			Node node = sum();
+			expect(')');
+			return node;
+		}
+		if (position < text.length()
+				&& (Character.isDigit(text.charAt(position)) || text
+						.charAt(position) == '.')) {
+			return expressions.constant(number());
+		}
+		String name = name();
+		if (accept('(')) {
+			List<Node> arguments = new ArrayList<Node>();
+			arguments.add(sum());
+			while (accept(',')) {
+				arguments.add(sum());
+			}
+			expect(')');
+			Operation function = Operation.function(name, arguments.size());
+			if (function == null) {
+				throw error("unknown function " + name + " of "
+						+ arguments.size() + " arguments");
+			}
+			return function.getArity() == 1 ? expressions.unary(function,
+					arguments.get(0)) : expressions.binary(function, arguments
+					.get(0), arguments.get(1));
+		}
+		if (auxiliaries.containsKey(name)) {
+			return auxiliaries.get(name);
+		}
+		if (variables.containsKey(name)) {
+			return expressions.variable(variables.get(name));
+		}
+		if (parameters.containsKey(name)) {
+			return expressions.parameter(parameters.get(name));
+		}
+		if (name.equals(TIME)) {
+			return expressions.time();
+		}
+		throw error("unknown name " + name);
+	}
+
+	private double number() throws IOException {
+		int start = position;
+		while (position < text.length()
+				&& (Character.isDigit(text.charAt(position)) || text
+						.charAt(position) == '.')) {
+			position++;
+		}
+		if (position < text.length()
+				&& (text.charAt(position) == 'e' || text.charAt(position) == 'E')) {
+			position++;
+			if (position < text.length()
+					&& (text.charAt(position) == '+' || text.charAt(position) == '-')) {
+				position++;
+			}
+			while (position < text.length()
+					&& Character.isDigit(text.charAt(position))) {
+				position++;
+			}
+		}
+		try {
+			return Double.parseDouble(text.substring(start, position));
+		} catch (NumberFormatException e) {
+			throw error("not a number: " + text.substring(start, position));
+		}
+	}
+
+	private String name() throws IOException {
+		int start = position;
+		while (position < text.length()
+				&& (Character.isLetterOrDigit(text.charAt(position)) || text
+						.charAt(position) == '_')) {
+			position++;
+		}
+		if (start == position) {
+			throw error(position < text.length() ? "unexpected "
+					+ text.substring(position) : "unexpected end of line");
+		}
+		return text.substring(start, position);
+	}
+
+	private void skipSpaces() {
+		while (position < text.length()
+				&& Character.isWhitespace(text.charAt(position))) {
+			position++;
+		}
+	}
+
+	private boolean accept(char c) {
+		skipSpaces();
+		if (position < text.length() && text.charAt(position) == c) {
+			position++;
+			return true;
+		}
+		return false;
+	}
+
+	private void expect(char c) throws IOException {
+		if (!accept(c)) {
+			throw error("missing " + c);
+		}
+	}
+
+}
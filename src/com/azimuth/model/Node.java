@@ -0,0 +1,97 @@
+package com.azimuth.model;
+
+/**
+ * A node of the expressions of a model. Nodes are unique (see Expressions),
+ * so equal subexpressions are the same node and the expressions of a model
+ * form a directed acyclic graph.
+ * 
+ * @author marco
+ * 
+ */
+final class Node {
+
+	private final Operation operation;
+	/**
+	 * the value of a constant
+	 */
+	private final double value;
+	/**
+	 * the index of a variable or parameter
+	 */
+	private final int index;
+	private final Node left;
+	private final Node right;
+	/**
+	 * the creation order, used to sort the operands of commutative operations
+	 */
+	private int id;
+
+	Node(Operation operation, double value, int index, Node left, Node right) {
+		this.operation = operation;
+		this.value = value;
+		this.index = index;
+		this.left = left;
+		this.right = right;
+	}
+
+	Operation getOperation() {
+		return operation;
+	}
+
+	double getValue() {
+		return value;
+	}
+
+	int getIndex() {
+		return index;
+	}
+
+	Node getLeft() {
+		return left;
+	}
+
+	Node getRight() {
+		return right;
+	}
+
+	int getId() {
+		return id;
+	}
+
+	void setId(int id) {
+		this.id = id;
+	}
+
+	boolean isConstant() {
+		return operation == Operation.CONSTANT;
+	}
+
+	boolean isConstant(double c) {
+		return isConstant() && value == c;
+	}
+
+	@Override
+	public boolean equals(Object object) {
+		if (!(object instanceof Node)) {
+			return false;
+		}
+		Node node = (Node) object;
+		// the operands are unique, so they are compared by identity
+		return operation == node.operation
+				&& Double.doubleToLongBits(value) == Double
+						.doubleToLongBits(node.value) && index == node.index
+				&& left == node.left && right == node.right;
+	}
+
+	@Override
+	public int hashCode() {
+		long bits = Double.doubleToLongBits(value);
+		int hash = operation.hashCode();
+		hash = 31 * hash + (int) (bits ^ (bits >>> 32));
+		hash = 31 * hash + index;
+		hash = 31 * hash + System.identityHashCode(left);
+		hash = 31 * hash + System.identityHashCode(right);
+		return hash;
+	}
+
+}
@@ -0,0 +1,125 @@
+package com.azimuth.model;
+
+/**
+ * The operations of the expressions of a model
+ * 
+ * @author marco
+ * 
+ */
+enum Operation {
+
+	CONSTANT(0, null), VARIABLE(0, null), PARAMETER(0, null), TIME(0, "t"),
+	NEGATE(1, "-"), ADD(2, "+"), SUBTRACT(2, "-"), MULTIPLY(2, "*"),
+	DIVIDE(2, "/"), POWER(2, "pow"), SIN(1, "sin"), COS(1, "cos"),
+	TAN(1, "tan"), EXP(1, "exp"), LOG(1, "log"), SQRT(1, "sqrt"),
+	ABS(1, "abs"), MIN(2, "min"), MAX(2, "max");
+
+	private final int arity;
+	/**
+	 * the operator, or the name of the function
+	 */
+	private final String symbol;
+
+	Operation(int arity, String symbol) {
+		this.arity = arity;
+		this.symbol = symbol;
+	}
+
+	int getArity() {
+		return arity;
+	}
+
+	String getSymbol() {
+		return symbol;
+	}
+
+	boolean isCommutative() {
+		return this == ADD || this == MULTIPLY || this == MIN || this == MAX;
+	}
+
+	/**
+	 * returns the function with the given name and number of arguments, or
+	 * null
+	 * 
+	 * @param name
+	 * @param arity
+	 * @return
+	 */
+	static Operation function(String name, int arity) {
+		for (Operation operation : values()) {
+			if (operation.ordinal() >= POWER.ordinal()
+					&& operation.symbol.equals(name)
+					&& operation.arity == arity) {
+				return operation;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * applies the operation to its arguments
+	 * 
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	double apply(double a, double b) {
+		switch (this) {
+		case NEGATE:
+			return -a;
+		case ADD:
+			return a + b;
+		case SUBTRACT:
+			return a - b;
+		case MULTIPLY:
+			return a * b;
+		case DIVIDE:
+			return a / b;
+		case POWER:
+			return Math.pow(a, b);
+		case SIN:
+			return Math.sin(a);
+		case COS:
+			return Math.cos(a);
+		case TAN:
+			return Math.tan(a);
+		case EXP:
+			return Math.exp(a);
+		case LOG:
+			return Math.log(a);
+		case SQRT:
+			return Math.sqrt(a);
+		case ABS:
+			return Math.abs(a);
+		case MIN:
+			return Math.min(a, b);
+		case MAX:
+			return Math.max(a, b);
+		default:
+			throw new IllegalStateException(this + " has no arguments");
+		}
+	}
+
+	/**
+	 * returns the Java expression applying the operation to its arguments
+	 * 
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	String java(String a, String b) {
+		switch (this) {
+		case NEGATE:
+			return "-" + a;
+		case ADD:
+		case SUBTRACT:
+		case MULTIPLY:
+		case DIVIDE:
+			return a + " " + symbol + " " + b;
+		default:
+			return "Math." + symbol + "(" + a + (arity == 2 ? ", " + b : "")
+					+ ")";
+		}
+	}
+
+}
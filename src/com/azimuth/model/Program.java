@@ -0,0 +1,376 @@
+package com.azimuth.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The expressions of a model as a sequence of instructions, each computing a
+ * node once its operands are known and storing it in its own register.
+ * Since the nodes are unique, a subexpression shared by several
+ * expressions is computed once.
+ * 
+ * @author marco
+ * 
+ */
+class Program implements Evaluator {
+
+	/**
+	 * the largest number of instructions of a method of the generated code
+	 */
+	private final static int BLOCK_SIZE = 300;
+
+	/**
+	 * the expressions
+	 */
+	private final Node[] roots;
+
+	private final Operation[] operations;
+	/**
+	 * the registers of the operands, or the index of a variable or
+	 * parameter
+	 */
+	private final int[] first;
+	private final int[] second;
+	private final double[] constants;
+	/**
+	 * the registers of the results
+	 */
+	private final int[] outputs;
+
+	/**
+	 * registers of the threads evaluating the program
+	 */
+	private final ThreadLocal<double[]> registers = new ThreadLocal<double[]>() {
+		@Override
+		protected double[] initialValue() {
+			return new double[operations.length];
+		}
+	};
+
+	/**
+	 * adjoints of the registers of the threads differentiating the program
+	 */
+	private final ThreadLocal<double[]> adjoints = new ThreadLocal<double[]>() {
+		@Override
+		protected double[] initialValue() {
+			return new double[operations.length];
+		}
+	};
+
+	/**
+	 * compiles the expressions
+	 * 
+	 * @param roots
+	 */
+	Program(Node[] roots) {
+		this.roots = roots;
+		List<Node> order = new ArrayList<Node>();
+		Map<Node, Integer> indexes = new IdentityHashMap<Node, Integer>();
+		for (Node root : roots) {
+			visit(root, order, indexes);
+		}
+		int size = order.size();
+		operations = new Operation[size];
+		first = new int[size];
+		second = new int[size];
+		constants = new double[size];
+		for (int i = 0; i < size; i++) {
+			Node node = order.get(i);
+			operations[i] = node.getOperation();
+			constants[i] = node.getValue();
+			switch (node.getOperation()) {
+			case VARIABLE:
+			case PARAMETER:
+				first[i] = node.getIndex();
+				break;
+			default:
+				if (node.getLeft() != null) {
+					first[i] = indexes.get(node.getLeft());
+				}
+				if (node.getRight() != null) {
+					second[i] = indexes.get(node.getRight());
+				}
+			}
+		}
+		outputs = new int[roots.length];
+		for (int e = 0; e < roots.length; e++) {
+			outputs[e] = indexes.get(roots[e]);
+		}
+	}
+
+	/**
+	 * adds the node to the order after its operands
+	 */
+	private static void visit(Node node, List<Node> order,
+			Map<Node, Integer> indexes) {
+		if (indexes.containsKey(node)) {
+			return;
+		}
+		if (node.getLeft() != null) {
+			visit(node.getLeft(), order, indexes);
+		}
+		if (node.getRight() != null) {
+			visit(node.getRight(), order, indexes);
+		}
+		indexes.put(node, order.size());
+		order.add(node);
+	}
+
+	/**
+	 * returns the number of instructions
+	 * 
+	 * @return
+	 */
+	int getSize() {
+		return operations.length;
+	}
+
+	@Override
+	public void evaluate(double t, double[] values, double[] parameters,
+			double[] result) {
+		double[] r = run(t, values, parameters);
+		for (int e = 0; e < outputs.length; e++) {
+			result[e] = r[outputs[e]];
+		}
+	}
+
+	/**
+	 * returns the value of the first expression
+	 * 
+	 * @param t
+	 * @param values
+	 * @param parameters
+	 * @return
+	 */
+	double value(double t, double[] values, double[] parameters) {
+		return run(t, values, parameters)[outputs[0]];
+	}
+
+	private double[] run(double t, double[] values, double[] parameters) {
+		double[] r = registers.get();
+		for (int i = 0; i < operations.length; i++) {
+			switch (operations[i]) {
+			case CONSTANT:
+				r[i] = constants[i];
+				break;
+			case VARIABLE:
+				r[i] = values[first[i]];
+				break;
+			case PARAMETER:
+				r[i] = parameters[first[i]];
+				break;
+			case TIME:
+				r[i] = t;
+				break;
+			case NEGATE:
+				r[i] = -r[first[i]];
+				break;
+			case ADD:
+				r[i] = r[first[i]] + r[second[i]];
+				break;
+			case SUBTRACT:
+				r[i] = r[first[i]] - r[second[i]];
+				break;
+			case MULTIPLY:
+				r[i] = r[first[i]] * r[second[i]];
+				break;
+			case DIVIDE:
+				r[i] = r[first[i]] / r[second[i]];
+				break;
+			default:
+				r[i] = operations[i].apply(r[first[i]], r[second[i]]);
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * adds to result the product of the transpose of the derivatives of the
+	 * expressions with respect to the parameters with v, result[k] += sum_e
+	 * v[e] d expression_e / d p_k, by a reverse sweep over the instructions:
+	 * the cost is about twice an evaluation, whatever the number of
+	 * parameters
+	 * 
+	 * @param t
+	 * @param values
+	 * @param parameters
+	 * @param v
+	 * @param result
+	 */
+	void parameterVectorProduct(double t, double[] values,
+			double[] parameters, double[] v, double[] result) {
+		double[] r = run(t, values, parameters);
+		double[] a = adjoints.get();
+		Arrays.fill(a, 0.);
+		for (int e = 0; e < outputs.length; e++) {
+			a[outputs[e]] += v[e];
+		}
+		for (int i = operations.length - 1; i >= 0; i--) {
+			double ai = a[i];
+			if (ai == 0.) {
+				continue;
+			}
+			int left = first[i];
+			int right = second[i];
+			switch (operations[i]) {
+			case PARAMETER:
+				result[left] += ai;
+				break;
+			case CONSTANT:
+			case VARIABLE:
+			case TIME:
+				break;
+			case NEGATE:
+				a[left] -= ai;
+				break;
+			case ADD:
+				a[left] += ai;
+				a[right] += ai;
+				break;
+			case SUBTRACT:
+				a[left] += ai;
+				a[right] -= ai;
+				break;
+			case MULTIPLY:
+				a[left] += ai * r[right];
+				a[right] += ai * r[left];
+				break;
+			case DIVIDE:
+				a[left] += ai / r[right];
+				a[right] -= ai * r[i] / r[right];
+				break;
+			case POWER:
+				if (r[right] != 0.) {
+					a[left] += ai * r[right]
+							* Math.pow(r[left], r[right] - 1.);
+				}
+				if (r[left] > 0.) {
+					a[right] += ai * r[i] * Math.log(r[left]);
+				}
+				break;
+			case SIN:
+				a[left] += ai * Math.cos(r[left]);
+				break;
+			case COS:
+				a[left] -= ai * Math.sin(r[left]);
+				break;
+			case TAN:
+				a[left] += ai * (1. + r[i] * r[i]);
+				break;
+			case EXP:
+				a[left] += ai * r[i];
+				break;
+			case LOG:
+				a[left] += ai / r[left];
+				break;
+			case SQRT:
+				a[left] += ai * 0.5 / r[i];
+				break;
+			case ABS:
+				a[left] += ai * Math.signum(r[left]);
+				break;
+			case MIN:
+				a[r[left] <= r[right] ? left : right] += ai;
+				break;
+			case MAX:
+				a[r[left] >= r[right] ? left : right] += ai;
+				break;
+			}
+		}
+	}
+
+	/**
+	 * returns the source of a class implementing Evaluator that executes the
+	 * program, with a local variable for every node and the constants as
+	 * literals.
+	 * 
+	 * The derivatives are split in blocks of at most BLOCK_SIZE instructions,
+	 * each computed by its own method, since the JIT does not compile very
+	 * large methods; a subexpression shared by two blocks is computed by
+	 * both.
+	 * 
+	 * @param packageName
+	 * @param className
+	 * @return
+	 */
+	String java(String packageName, String className) {
+		StringBuilder code = new StringBuilder();
+		code.append("package ").append(packageName).append(";\n\n");
+		code.append("public final class ").append(className).append(
+				" implements com.azimuth.model.Evaluator {\n\n");
+		StringBuilder blocks = new StringBuilder();
+		StringBuilder block = new StringBuilder();
+		Map<Node, String> names = new IdentityHashMap<Node, String>();
+		int numberOfBlocks = 0;
+		for (int e = 0; e < roots.length; e++) {
+			String name = java(roots[e], names, block);
+			block.append("\t\tresult[").append(e).append("] = ").append(name)
+					.append(";\n");
+			if (names.size() >= BLOCK_SIZE || e == roots.length - 1) {
+				blocks.append("\tprivate static void block").append(
+						numberOfBlocks++).append("(double t, double[] y, ");
+				blocks.append("double[] p, double[] result) {\n");
+				blocks.append(block).append("\t}\n\n");
+				block.setLength(0);
+				names.clear();
+			}
+		}
+		code.append("\tpublic void evaluate(double t, double[] y, ");
+		code.append("double[] p, double[] result) {\n");
+		for (int b = 0; b < numberOfBlocks; b++) {
+			code.append("\t\tblock").append(b).append("(t, y, p, result);\n");
+		}
+		code.append("\t}\n\n").append(blocks).append("}\n");
+		return code.toString();
+	}
+
+	/**
+	 * appends the statements computing a node, after its operands, and
+	 * returns the Java expression of its value
+	 */
+	private static String java(Node node, Map<Node, String> names,
+			StringBuilder code) {
+		String name = names.get(node);
+		if (name != null) {
+			return name;
+		}
+		String expression;
+		switch (node.getOperation()) {
+		case CONSTANT:
+			return literal(node.getValue());
+		case TIME:
+			return "t";
+		case VARIABLE:
+			expression = "y[" + node.getIndex() + "]";
+			break;
+		case PARAMETER:
+			expression = "p[" + node.getIndex() + "]";
+			break;
+		default:
+			String left = java(node.getLeft(), names, code);
+			String right = node.getRight() == null ? null : java(node
+					.getRight(), names, code);
+			expression = node.getOperation().java(left, right);
+		}
+		name = "r" + names.size();
+		names.put(node, name);
+		code.append("\t\tdouble ").append(name).append(" = ").append(
+				expression).append(";\n");
+		return name;
+	}
+
+	private static String literal(double value) {
+		if (Double.isNaN(value)) {
+			return "Double.NaN";
+		}
+		if (Double.isInfinite(value)) {
+			return value > 0 ? "Double.POSITIVE_INFINITY"
+					: "Double.NEGATIVE_INFINITY";
+		}
+		return value < 0 ? "(" + value + ")" : Double.toString(value);
+	}
+
+}
@@ -0,0 +1,65 @@
+package com.azimuth.ode;
+
+/**
+ * A DifferentiableFunction that is written only once, on dual numbers: the
+ * plain value is computed by the same code with duals of width zero, which
+ * read the values in place. The function must not modify its arguments.
+ *
+ * @author marco
+ *
+ */
+public abstract class AbstractDifferentiableFunction implements
+		DifferentiableFunction {
+
+	/**
+	 * duals of width zero that wrap the values passed to value(t, values),
+	 * and the result
+	 */
+	private static class Workspace {
+		private Dual[] values;
+		private final Dual result = new Dual(0);
+		/**
+		 * true while a function evaluates on the workspace
+		 */
+		private boolean busy;
+	}
+
+	/**
+	 * one workspace per thread, shared by all the functions, so that the
+	 * functions can be shared by parallel solvers and n functions of n
+	 * variables do not keep n^2 duals
+	 */
+	private final static ThreadLocal<Workspace> WORKSPACE = new ThreadLocal<Workspace>() {
+		@Override
+		protected Workspace initialValue() {
+			return new Workspace();
+		}
+	};
+
+	/**
+	 * evaluates the function on duals that wrap the values, without copying
+	 * them: a sweep over the n components of a derivative costs O(n) beyond
+	 * the functions themselves
+	 */
+	@Override
+	public double value(double t, double[] values) {
+		Workspace w = WORKSPACE.get();
+		if (w.busy) {
+			// called by another function of the same thread
+			w = new Workspace();
+		}
+		if (w.values == null || w.values.length != values.length) {
+			w.values = Dual.wrap(values);
+		} else {
+			Dual.rewrap(w.values, values);
+		}
+		w.busy = true;
+		try {
+			value(t, w.values, w.result);
+		} finally {
+			w.busy = false;
+		}
+		return w.result.getValue();
+	}
+
+}
@@ -0,0 +1,334 @@
+package com.azimuth.ode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.azimuth.ode.RungeKuttaSolver.ButcherTableau;
+
+/**
+ * Computes the gradient dL/dp of a scalar loss L = g(y(tn)) with respect to
+ * the parameters of a ParametricProblem by the adjoint method.
+ *
+ * The adjoint is the exact reverse of the explicit Runge Kutta steps
+ * (discrete adjoint), so the gradient is the exact derivative of the
+ * numerical solution. Its cost is one forward and one backward sweep,
+ * independent of the number of parameters, as long as the problem computes
+ * the products with the transpose of dF/dp efficiently.
+ *
+ * The trajectory is never stored: the backward sweep needs the states in
+ * reverse order, and they are recomputed from checkpoints placed by
+ * recursive bisection. At most checkpointBudget states are kept in memory;
+ * with a budget of at least log2(number of steps) every state is recomputed
+ * at most log2(number of steps) times.
+ *
+ * @author marco
+ *
+ */
+public class AdjointSolver implements Solver {
+
+	/**
+	 * default constants
+	 */
+	private final static double DEFAULT_STEP_SIZE = 0.05;
+	private final static ButcherTableau DEFAULT_TABLEAU = ButcherTableau.RK4;
+	private final static int DEFAULT_CHECKPOINT_BUDGET = 32;
+
+	/**
+	 * the tableau used to compute the numerical approximation
+	 */
+	private ButcherTableau tableau;
+	/**
+	 * the size of the step
+	 */
+	private double h;
+	/**
+	 * the maximum number of states kept in memory
+	 */
+	private int checkpointBudget = DEFAULT_CHECKPOINT_BUDGET;
+
+	/**
+	 * results of the last call to gradient
+	 */
+	private double objectiveValue = Double.NaN;
+	private long computedSteps;
+
+	public AdjointSolver(double h, ButcherTableau tableau) {
+		this.h = h;
+		this.tableau = tableau;
+	}
+
+	public AdjointSolver(double h) {
+		this(h, DEFAULT_TABLEAU);
+	}
+
+	public AdjointSolver() {
+		this(DEFAULT_STEP_SIZE, DEFAULT_TABLEAU);
+	}
+
+	/**
+	 * solves the problem, without adjoints
+	 */
+	@Override
+	public InitialValueProblem.Solution solve(InitialValueProblem problem) {
+		return new RungeKuttaSolver(h, tableau).solve(problem);
+	}
+
+	/**
+	 * The state of a backward sweep
+	 */
+	private class Sweep {
+		private final ParametricProblem problem;
+		private final Objective objective;
+		private final Function[] f;
+		private final Jacobian jacobian;
+		/**
+		 * the coefficients of the tableau
+		 */
+		private final double[] a;
+		private final double[] b;
+		private final double[] c;
+		private final double lowerBound;
+		private final int numberOfSteps;
+		private final int numberOfVars;
+		/**
+		 * free checkpoints
+		 */
+		private final List<double[]> slots = new ArrayList<double[]>();
+		/**
+		 * adjoint of the current state dL/dy_n, null before the last step
+		 */
+		private double[] lambda;
+		/**
+		 * accumulated gradient dL/dp
+		 */
+		private final double[] gradient;
+		/**
+		 * workspace
+		 */
+		private final double[][] stages;
+		private final double[][] k;
+		private final double[][] kbar;
+		private final double[][] ybar;
+		private final double[][] dfdy;
+		private final double[] y;
+		private final double[] product;
+
+		private Sweep(ParametricProblem problem, Objective objective) {
+			this.problem = problem;
+			this.objective = objective;
+			this.f = problem.getDerivatives();
+			this.jacobian = DenseIterationMatrix.createJacobian(problem, f);
+			this.a = tableau.getA();
+			this.b = tableau.getB();
+			this.c = tableau.getC();
+			this.lowerBound = problem.getLowerBound();
+			this.numberOfSteps = (int) Math.round((problem.getUpperBound() - lowerBound)
+					/ h);
+			this.numberOfVars = f.length;
+			int numberOfStages = tableau.getStageNumber();
+			for (int i = 0; i < checkpointBudget; i++) {
+				slots.add(new double[numberOfVars]);
+			}
+			this.gradient = new double[problem.getNumberOfParameters()];
+			this.stages = new double[numberOfStages][numberOfVars];
+			this.k = new double[numberOfStages][numberOfVars];
+			this.kbar = new double[numberOfStages][numberOfVars];
+			this.ybar = new double[numberOfStages][numberOfVars];
+			this.dfdy = new double[numberOfVars][numberOfVars];
+			this.y = new double[numberOfVars];
+			this.product = new double[gradient.length];
+		}
+
+		/**
+		 * back propagates the adjoint through steps from, ..., to-1, given
+		 * the state at step from
+		 */
+		private void reverse(int from, int to, double[] state) {
+			if (to - from == 1) {
+				backward(from, state);
+			} else if (slots.isEmpty()) {
+				// no memory left: recompute every state from the first one
+				for (int m = to - 1; m >= from; m--) {
+					System.arraycopy(state, 0, y, 0, numberOfVars);
+					for (int n = from; n < m; n++) {
+						step(n, y);
+					}
+					backward(m, y);
+				}
+			} else {
+				int middle = (from + to) >>> 1;
+				double[] checkpoint = slots.remove(slots.size() - 1);
+				System.arraycopy(state, 0, checkpoint, 0, numberOfVars);
+				for (int n = from; n < middle; n++) {
+					step(n, checkpoint);
+				}
+				reverse(middle, to, checkpoint);
+				slots.add(checkpoint);
+				reverse(from, middle, state);
+			}
+		}
+
+		/**
+		 * computes the stages of step n from state y_n
+		 */
+		private void stages(int n, double[] state) {
+			double t0 = lowerBound + n * h;
+			for (int i = 0; i < stages.length; i++) {
+				double[] yi = stages[i];
+				for (int j = 0; j < numberOfVars; j++) {
+					double sum = 0.;
+					for (int s = 0; s < i; s++) {
+						sum += a[s + i * (i - 1) / 2] * k[s][j];
+					}
+					yi[j] = state[j] + h * sum;
+				}
+				for (int j = 0; j < numberOfVars; j++) {
+					k[i][j] = f[j].value(t0 + c[i] * h, yi);
+				}
+			}
+			computedSteps++;
+		}
+
+		/**
+		 * advances the state in place by one step
+		 */
+		private void step(int n, double[] state) {
+			stages(n, state);
+			for (int j = 0; j < numberOfVars; j++) {
+				double sum = 0.;
+				for (int i = 0; i < b.length; i++) {
+					sum += b[i] * k[i][j];
+				}
+				state[j] += h * sum;
+			}
+		}
+
+		/**
+		 * back propagates the adjoint through step n, given the state y_n
+		 */
+		private void backward(int n, double[] state) {
+			if (lambda == null) {
+				// last step: compute the final state and the loss
+				double[] last = new double[numberOfVars];
+				System.arraycopy(state, 0, last, 0, numberOfVars);
+				step(n, last);
+				lambda = new double[numberOfVars];
+				objectiveValue = objective.value(last);
+				objective.gradient(last, lambda);
+			}
+			stages(n, state);
+			double t0 = lowerBound + n * h;
+			int numberOfStages = stages.length;
+			for (int i = numberOfStages - 1; i >= 0; i--) {
+				double[] ki = kbar[i];
+				for (int j = 0; j < numberOfVars; j++) {
+					double sum = b[i] * lambda[j];
+					for (int s = i + 1; s < numberOfStages; s++) {
+						sum += a[i + s * (s - 1) / 2] * ybar[s][j];
+					}
+					ki[j] = h * sum;
+				}
+				double t = t0 + c[i] * h;
+				// ybar_i = J(Y_i)^T kbar_i
+				jacobian.evaluate(t, stages[i], dfdy);
+				double[] yi = ybar[i];
+				for (int j = 0; j < numberOfVars; j++) {
+					yi[j] = 0.;
+				}
+				for (int r = 0; r < numberOfVars; r++) {
+					double kr = ki[r];
+					if (kr != 0.) {
+						double[] row = dfdy[r];
+						for (int j = 0; j < numberOfVars; j++) {
+							yi[j] += row[j] * kr;
+						}
+					}
+				}
+				// gradient += (dF/dp)^T kbar_i
+				problem.parameterVectorProduct(t, stages[i], ki, product);
+				for (int p = 0; p < gradient.length; p++) {
+					gradient[p] += product[p];
+				}
+			}
+			for (int i = 0; i < numberOfStages; i++) {
+				for (int j = 0; j < numberOfVars; j++) {
+					lambda[j] += ybar[i][j];
+				}
+			}
+		}
+	}
+
+	/**
+	 * computes the gradient of the loss g(y(tn)) with respect to the
+	 * parameters of the problem
+	 *
+	 * @param problem
+	 * @param objective
+	 *            , the loss g
+	 * @return, dL/dp
+	 */
+	public double[] gradient(ParametricProblem problem, Objective objective) {
+		computedSteps = 0;
+		Sweep sweep = new Sweep(problem, objective);
+		double[] initialValues = problem.getInitialValue().clone();
+		if (sweep.numberOfSteps == 0) {
+			sweep.lambda = new double[sweep.numberOfVars];
+			objectiveValue = objective.value(initialValues);
+			objective.gradient(initialValues, sweep.lambda);
+		} else {
+			sweep.reverse(0, sweep.numberOfSteps, initialValues);
+		}
+		// contribution of the initial values
+		double[][] s0 = new double[sweep.numberOfVars][sweep.gradient.length];
+		problem.initialSensitivity(s0);
+		for (int j = 0; j < sweep.numberOfVars; j++) {
+			for (int p = 0; p < sweep.gradient.length; p++) {
+				sweep.gradient[p] += s0[j][p] * sweep.lambda[j];
+			}
+		}
+		return sweep.gradient;
+	}
+
+	/**
+	 * returns the loss computed by the last call to gradient
+	 *
+	 * @return
+	 */
+	public double getObjectiveValue() {
+		return objectiveValue;
+	}
+
+	/**
+	 * returns the number of Runge Kutta steps computed by the last call to
+	 * gradient, counting the recomputations
+	 *
+	 * @return
+	 */
+	public long getComputedSteps() {
+		return computedSteps;
+	}
+
+	@Override
+	public double getStepSize() {
+		return h;
+	}
+
+	@Override
+	public void setStepSize(double h) {
+		this.h = h;
+	}
+
+	public int getCheckpointBudget() {
+		return checkpointBudget;
+	}
+
+	/**
+	 * sets the maximum number of states kept in memory by the backward sweep
+	 *
+	 * @param checkpointBudget
+	 */
+	public void setCheckpointBudget(int checkpointBudget) {
+		this.checkpointBudget = checkpointBudget;
+	}
+
+}
@@ -0,0 +1,212 @@
+package com.azimuth.ode;
+
+import java.util.Arrays;
+
+import com.azimuth.linear.SparseMatrix;
+import com.azimuth.linear.SparsityPattern;
+
+/**
+ * Computes the exact Jacobian of a derivative made of DifferentiableFunction
+ * by forward mode automatic differentiation.
+ *
+ * Every variable is seeded with a unit direction and each f_i is evaluated
+ * once on dual numbers: the whole Jacobian comes out of a single pass over
+ * F. When the sparsity pattern is known, structurally independent columns
+ * share the same direction, so the duals are only as wide as the number of
+ * colors of the pattern.
+ *
+ * All the duals are allocated once, each workspace in a single array of
+ * doubles, and evaluations do not allocate memory.
+ *
+ * @author marco
+ *
+ */
+public class AutomaticJacobian implements Jacobian, SparseJacobian {
+
+	private final DifferentiableFunction[] f;
+	private final int n;
+	/**
+	 * null for a dense Jacobian
+	 */
+	private final SparsityPattern pattern;
+	/**
+	 * direction[j] = the direction seeded by variable j
+	 */
+	private final int[] direction;
+
+	/**
+	 * workspace for Jacobians
+	 */
+	private final Dual[] values;
+	private final Dual result;
+	/**
+	 * workspace for Jacobian-vector products
+	 */
+	private final Dual[] directionalValues;
+	private final Dual directionalResult;
+
+	/**
+	 * creates a dense Jacobian
+	 *
+	 * @param f
+	 *            , the derivatives, all DifferentiableFunction
+	 */
+	public AutomaticJacobian(Function[] f) {
+		this(f, null);
+	}
+
+	/**
+	 * creates a compressed Jacobian
+	 *
+	 * @param f
+	 *            , the derivatives, all DifferentiableFunction
+	 * @param pattern
+	 *            , the sparsity pattern, or null if dense
+	 */
+	public AutomaticJacobian(Function[] f, SparsityPattern pattern) {
+		if (!isDifferentiable(f)) {
+			throw new IllegalArgumentException(
+					"every derivative must be a DifferentiableFunction");
+		}
+		this.n = f.length;
+		this.f = new DifferentiableFunction[n];
+		for (int i = 0; i < n; i++) {
+			this.f[i] = (DifferentiableFunction) f[i];
+		}
+		this.pattern = pattern;
+		this.direction = new int[n];
+		int width;
+		if (pattern == null) {
+			for (int j = 0; j < n; j++) {
+				direction[j] = j;
+			}
+			width = n;
+		} else {
+			int[][] groups = pattern.color();
+			for (int g = 0; g < groups.length; g++) {
+				for (int j : groups[g]) {
+					direction[j] = g;
+				}
+			}
+			width = groups.length;
+		}
+		this.values = Dual.array(n, width);
+		this.directionalValues = Dual.array(n, 1);
+		this.result = new Dual(width);
+		this.directionalResult = new Dual(1);
+	}
+
+	/**
+	 * returns true if every function can be differentiated automatically
+	 *
+	 * @param f
+	 * @return
+	 */
+	public static boolean isDifferentiable(Function[] f) {
+		for (int i = 0; i < f.length; i++) {
+			if (!(f[i] instanceof DifferentiableFunction)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * returns the number of directions propagated by a Jacobian evaluation
+	 *
+	 * @return
+	 */
+	public int getWidth() {
+		return result.getWidth();
+	}
+
+	@Override
+	public void evaluate(double t, double[] y, double[][] dfdy) {
+		evaluate(t, y, null, dfdy);
+	}
+
+	/**
+	 * computes F(t, y) and its Jacobian in the same pass
+	 *
+	 * @param t
+	 * @param y
+	 * @param dydt
+	 *            , where F(t, y) is stored, may be null
+	 * @param dfdy
+	 */
+	public void evaluate(double t, double[] y, double[] dydt, double[][] dfdy) {
+		seed(y);
+		int[] rowPointers = pattern != null ? pattern.getRowPointers() : null;
+		int[] columnIndexes = pattern != null ? pattern.getColumnIndexes()
+				: null;
+		for (int i = 0; i < n; i++) {
+			f[i].value(t, values, result);
+			if (dydt != null) {
+				dydt[i] = result.getValue();
+			}
+			double[] row = dfdy[i];
+			if (pattern == null) {
+				for (int j = 0; j < n; j++) {
+					row[j] = result.getTangent(j);
+				}
+			} else {
+				Arrays.fill(row, 0.);
+				for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+					int j = columnIndexes[k];
+					row[j] = result.getTangent(direction[j]);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void evaluate(double t, double[] y, SparseMatrix dfdy) {
+		if (pattern == null) {
+			throw new IllegalStateException(
+					"a sparse Jacobian needs a sparsity pattern");
+		}
+		seed(y);
+		int[] rowPointers = pattern.getRowPointers();
+		int[] columnIndexes = pattern.getColumnIndexes();
+		double[] entries = dfdy.getValues();
+		for (int i = 0; i < n; i++) {
+			f[i].value(t, values, result);
+			for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+				entries[k] = result.getTangent(direction[columnIndexes[k]]);
+			}
+		}
+	}
+
+	/**
+	 * computes F(t, y) and the directional derivative J(t, y) v in one pass,
+	 * without building the Jacobian
+	 *
+	 * @param t
+	 * @param y
+	 * @param v
+	 * @param dydt
+	 *            , where F(t, y) is stored, may be null
+	 * @param jv
+	 *            , where J v is stored
+	 */
+	public void jacobianVectorProduct(double t, double[] y, double[] v,
+			double[] dydt, double[] jv) {
+		for (int j = 0; j < n; j++) {
+			directionalValues[j].set(y[j]).setTangent(0, v[j]);
+		}
+		for (int i = 0; i < n; i++) {
+			f[i].value(t, directionalValues, directionalResult);
+			if (dydt != null) {
+				dydt[i] = directionalResult.getValue();
+			}
+			jv[i] = directionalResult.getTangent(0);
+		}
+	}
+
+	private void seed(double[] y) {
+		for (int j = 0; j < n; j++) {
+			values[j].seed(y[j], direction[j]);
+		}
+	}
+
+}
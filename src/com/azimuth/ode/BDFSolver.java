@@ -0,0 +1,300 @@
+package com.azimuth.ode;
+
+/**
+ * An implicit solver for stiff ODE based on the Backward Differentiation
+ * Formulas
+ *
+ * y_{n+1} = sum_i alpha_i y_{n+1-i} + h beta F(t_{n+1}, y_{n+1})
+ *
+ * with fixed step size. The nonlinear system of every step is solved by a
+ * simplified Newton iteration: the Jacobian and the LU factorization of the
+ * iteration matrix are reused across steps and refreshed only when the
+ * iteration fails to converge.
+ *
+ * The first steps, before enough past values are available, are computed by
+ * extrapolation of the implicit Euler method, that has the same order.
+ *
+ * @see http://en.wikipedia.org/wiki/Backward_differentiation_formula
+ * @author marco
+ *
+ */
+public class BDFSolver implements Solver {
+
+	/**
+	 * default constants
+	 */
+	private final static double DEFAULT_STEP_SIZE = 0.05;
+	private final static int DEFAULT_ORDER = 2;
+	private final static double DEFAULT_TOLERANCE = 1e-10;
+	private final static int MAX_NEWTON_ITERATIONS = 7;
+	private final static int MAX_FULL_NEWTON_ITERATIONS = 20;
+
+	/**
+	 * coefficients alpha_1, ..., alpha_k for orders k = 1, ..., 5
+	 */
+	private final static double[][] ALPHA = {
+			{ 1. },
+			{ 4. / 3., -1. / 3. },
+			{ 18. / 11., -9. / 11., 2. / 11. },
+			{ 48. / 25., -36. / 25., 16. / 25., -3. / 25. },
+			{ 300. / 137., -300. / 137., 200. / 137., -75. / 137., 12. / 137. } };
+	/**
+	 * coefficient beta for orders k = 1, ..., 5
+	 */
+	private final static double[] BETA = { 1., 2. / 3., 6. / 11., 12. / 25.,
+			60. / 137. };
+
+	/**
+	 * the size of the step
+	 */
+	private double h;
+	/**
+	 * the order of the method, from 1 to 5
+	 */
+	private int order;
+	/**
+	 * tolerance on the (scaled) Newton correction
+	 */
+	private double tolerance = DEFAULT_TOLERANCE;
+
+	/**
+	 * statistics of the last call to solve
+	 */
+	private int jacobianEvaluations;
+	private int factorizations;
+
+	/**
+	 * Creates a BDF solver
+	 *
+	 * @param h
+	 *            , step size
+	 * @param order
+	 *            , from 1 to 5
+	 */
+	public BDFSolver(double h, int order) {
+		if (order < 1 || order > BETA.length) {
+			throw new IllegalArgumentException("order must be between 1 and "
+					+ BETA.length);
+		}
+		this.h = h;
+		this.order = order;
+	}
+
+	/**
+	 * Creates a BDF solver of order 2
+	 *
+	 * @param h
+	 *            , step size
+	 */
+	public BDFSolver(double h) {
+		this(h, DEFAULT_ORDER);
+	}
+
+	public BDFSolver() {
+		this(DEFAULT_STEP_SIZE, DEFAULT_ORDER);
+	}
+
+	@Override
+	public InitialValueProblem.Solution solve(InitialValueProblem problem) {
+		double[] initialValues = problem.getInitialValue();
+		double lowerBound = problem.getLowerBound();
+		double upperBound = problem.getUpperBound();
+
+		Function[] f = problem.getDerivatives();
+		int numberOfVars = f.length;
+		int numberOfSteps = (int) Math.round((upperBound - lowerBound) / h);
+
+		double[][] solution = new double[numberOfVars][numberOfSteps + 1];
+		double[] times = new double[numberOfSteps + 1];
+		for (int m = 0; m < numberOfVars; m++) {
+			solution[m][0] = initialValues[m];
+		}
+		times[0] = lowerBound;
+
+		IterationMatrix matrix = IterationMatrix.create(problem, f);
+		matrix.updateJacobian(lowerBound, initialValues);
+		// workspace
+		double[] y = new double[numberOfVars];
+		double[] psi = new double[numberOfVars];
+		double[] predictor = new double[numberOfVars];
+		double[] delta = new double[numberOfVars];
+		double[][] extrapolation = new double[order][numberOfVars];
+
+		for (int n = 0; n < numberOfSteps; n++) {
+			double t = lowerBound + (n + 1) * h;
+			if (n < order - 1) {
+				// not enough history yet
+				for (int j = 0; j < numberOfVars; j++) {
+					y[j] = solution[j][n];
+				}
+				extrapolatedEuler(f, matrix, times[n], y, psi, predictor,
+						delta, extrapolation);
+			} else {
+				double[] alpha = ALPHA[order - 1];
+				double hb = h * BETA[order - 1];
+				// the explicit part of the formula and a linear predictor
+				for (int j = 0; j < numberOfVars; j++) {
+					double sum = 0.;
+					for (int i = 0; i < order; i++) {
+						sum += alpha[i] * solution[j][n - i];
+					}
+					psi[j] = sum;
+					predictor[j] = n > 0 ? 2 * solution[j][n]
+							- solution[j][n - 1] : solution[j][n];
+				}
+				implicitStep(f, matrix, t, hb, psi, predictor, y, delta);
+			}
+			for (int j = 0; j < numberOfVars; j++) {
+				solution[j][n + 1] = y[j];
+			}
+			times[n + 1] = t;
+		}
+		jacobianEvaluations = matrix.getJacobianEvaluations();
+		factorizations = matrix.getFactorizations();
+		return new InitialValueProblem.Solution(times, solution);
+	}
+
+	/**
+	 * computes a start-up step of the same order of the method by Richardson
+	 * extrapolation of the implicit Euler method with 1, 2, ..., order
+	 * substeps
+	 *
+	 * @param y
+	 *            , the value at time t, replaced by the value at time t+h
+	 */
+	private void extrapolatedEuler(Function[] f, IterationMatrix matrix,
+			double t, double[] y, double[] psi, double[] predictor,
+			double[] delta, double[][] extrapolation) {
+		int numberOfVars = y.length;
+		for (int i = 0; i < order; i++) {
+			int substeps = i + 1;
+			double hs = h / substeps;
+			double[] ti = extrapolation[i];
+			System.arraycopy(y, 0, ti, 0, numberOfVars);
+			for (int m = 1; m <= substeps; m++) {
+				System.arraycopy(ti, 0, psi, 0, numberOfVars);
+				System.arraycopy(ti, 0, predictor, 0, numberOfVars);
+				implicitStep(f, matrix, t + m * hs, hs, psi, predictor, ti,
+						delta);
+			}
+			// Aitken-Neville tableau, the error expands in powers of h
+			for (int l = i - 1; l >= 0; l--) {
+				double ratio = (double) substeps / (l + 1) - 1.;
+				double[] tl = extrapolation[l];
+				for (int j = 0; j < numberOfVars; j++) {
+					tl[j] = extrapolation[l + 1][j]
+							+ (extrapolation[l + 1][j] - tl[j]) / ratio;
+				}
+			}
+		}
+		System.arraycopy(extrapolation[0], 0, y, 0, numberOfVars);
+	}
+
+	/**
+	 * solves y - psi - hb*F(t, y) = 0, starting from the predictor
+	 *
+	 * @throws IllegalStateException
+	 *             if the Newton iteration does not converge
+	 */
+	private void implicitStep(Function[] f, IterationMatrix matrix, double t,
+			double hb, double[] psi, double[] predictor, double[] y,
+			double[] delta) {
+		matrix.factor(hb);
+		System.arraycopy(predictor, 0, y, 0, y.length);
+		if (!newton(f, matrix, t, hb, psi, y, delta, false)) {
+			// the Jacobian is too old: start again with a full Newton
+			// iteration, that leaves a fresh Jacobian for the next steps
+			System.arraycopy(predictor, 0, y, 0, y.length);
+			if (!newton(f, matrix, t, hb, psi, y, delta, true)) {
+				throw new IllegalStateException(
+						"Newton iteration does not converge at t=" + t
+								+ ", try a smaller step size");
+			}
+		}
+	}
+
+	/**
+	 * solves y - psi - hb*F(t, y) = 0 starting from the given y
+	 *
+	 * @param updateJacobian
+	 *            , if true the Jacobian is evaluated at every iterate,
+	 *            otherwise the current factorization is used
+	 * @return, true if the iteration converged
+	 */
+	private boolean newton(Function[] f, IterationMatrix matrix, double t,
+			double hb, double[] psi, double[] y, double[] delta,
+			boolean updateJacobian) {
+		int numberOfVars = y.length;
+		int maxIterations = updateJacobian ? MAX_FULL_NEWTON_ITERATIONS
+				: MAX_NEWTON_ITERATIONS;
+		double previous = Double.POSITIVE_INFINITY;
+		for (int iteration = 0; iteration < maxIterations; iteration++) {
+			if (updateJacobian) {
+				matrix.updateJacobian(t, y);
+				matrix.factor(hb);
+			}
+			for (int j = 0; j < numberOfVars; j++) {
+				delta[j] = psi[j] + hb * f[j].value(t, y) - y[j];
+			}
+			matrix.solve(delta);
+			double norm = 0.;
+			for (int j = 0; j < numberOfVars; j++) {
+				y[j] += delta[j];
+				norm = Math.max(norm, Math.abs(delta[j]) / (1. + Math.abs(y[j])));
+			}
+			if (norm <= tolerance) {
+				return true;
+			}
+			if (Double.isNaN(norm) || norm > 0.9 * previous) {
+				// diverging or too slow
+				return false;
+			}
+			previous = norm;
+		}
+		return false;
+	}
+
+	
+
+	@Override
+	public double getStepSize() {
+		return h;
+	}
+
+	@Override
+	public void setStepSize(double h) {
+		this.h = h;
+	}
+
+	public int getOrder() {
+		return order;
+	}
+
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * returns the number of Jacobians evaluated by the last call to solve
+	 *
+	 * @return
+	 */
+	public int getJacobianEvaluations() {
+		return jacobianEvaluations;
+	}
+
+	/**
+	 * returns the number of LU factorizations computed by the last call to
+	 * solve
+	 *
+	 * @return
+	 */
+	public int getFactorizations() {
+		return factorizations;
+	}
+
+}
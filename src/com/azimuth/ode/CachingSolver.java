@@ -0,0 +1,441 @@
+package com.azimuth.ode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import com.azimuth.ode.InitialValueProblem.Solution;
+import com.azimuth.ode.RungeKuttaSolver.ButcherTableau;
+
+/**
+ * A solver that stores the solutions of another solver in a SolutionCache,
+ * and solves a problem again only when it has not been solved before.
+ * 
+ * A solution is identified by a hash of the definition of the problem
+ * (returned by getDefinition()), its parameters, initial values and lower
+ * bound, and the configuration of the solver, so equal problems built by
+ * different objects share their solutions. Problems without a definition
+ * are always solved.
+ * 
+ * The upper bound is not part of the key of fixed step solvers: a solution
+ * over [t0, t1] answers the same problem over [t0, t2] with t2 <= t1 by
+ * truncation, and, for one step solvers, with t2 > t1 by solving only
+ * [t1, t2] from the last values. The extended solution equals the one
+ * computed from t0, up to the rounding of the times, and replaces the
+ * shorter one in the cache.
+ * 
+ * The known solvers are RungeKuttaSolver (without event handlers),
+ * SymplecticSolver, BDFSolver and RosenbrockSolver; the multistep BDF and
+ * the Rosenbrock methods, that update the Jacobian every few steps, are not
+ * extended, as well as the CompactSolution of a solver storing its
+ * trajectory with less precision. Any other solver is cached only when its configuration is given
+ * explicitly, and only for the same interval.
+ * 
+ * @author marco
+ * 
+ */
+public class CachingSolver implements Solver {
+
+	/**
+	 * the solutions that can be reused for a different upper bound
+	 */
+	private enum Reuse {
+		EXACT, TRUNCATE, EXTEND
+	}
+
+	private final Solver solver;
+	private final SolutionCache cache;
+	/**
+	 * the configuration given by the caller, or null
+	 */
+	private final String configuration;
+
+	/**
+	 * statistics
+	 */
+	private int hits;
+	private int extensions;
+	private int misses;
+
+	/**
+	 * Creates a caching solver
+	 * 
+	 * @param solver
+	 *            , the wrapped solver
+	 * @param cache
+	 *            , the cache, possibly shared with other solvers
+	 * @param configuration
+	 *            , a text that identifies the results of the solver, other
+	 *            than its step size; null to describe the known solvers
+	 */
+	public CachingSolver(Solver solver, SolutionCache cache,
+			String configuration) {
+		this.solver = solver;
+		this.cache = cache;
+		this.configuration = configuration;
+	}
+
+	public CachingSolver(Solver solver, SolutionCache cache) {
+		this(solver, cache, null);
+	}
+
+	/**
+	 * Creates a caching solver with its own cache in memory
+	 * 
+	 * @param solver
+	 */
+	public CachingSolver(Solver solver) {
+		this(solver, new SolutionCache(), null);
+	}
+
+	@Override
+	public Solution solve(InitialValueProblem problem) {
+		String definition = problem.getDefinition();
+		String configuration = this.configuration != null ? this.configuration
+				: describe(solver);
+		if (definition == null || configuration == null) {
+			synchronized (this) {
+				misses++;
+			}
+			return solver.solve(problem);
+		}
+		Reuse reuse = reuse(solver);
+		String key = key(problem, definition, configuration,
+				reuse != Reuse.EXACT);
+		Solution cached = cache.get(key);
+		if (cached != null) {
+			if (reuse == Reuse.EXACT) {
+				hit();
+				return cached;
+			}
+			int numberOfSteps = (int) Math.round((problem.getUpperBound() - problem
+					.getLowerBound()) / solver.getStepSize());
+			int cachedSteps = cached.getTimesteps().length - 1;
+			if (numberOfSteps <= cachedSteps) {
+				hit();
+				return truncate(cached, numberOfSteps + 1);
+			}
+			// the last values of a compact solution are not exact
+			if (reuse == Reuse.EXTEND && !(cached instanceof CompactSolution)) {
+				synchronized (this) {
+					extensions++;
+				}
+				Solution solution = extend(problem, cached);
+				cache.put(key, solution);
+				return solution;
+			}
+		}
+		synchronized (this) {
+			misses++;
+		}
+		Solution solution = solver.solve(problem);
+		cache.put(key, solution);
+		return solution;
+	}
+
+	private synchronized void hit() {
+		hits++;
+	}
+
+	/**
+	 * solves the problem from the end of the cached solution, and joins the
+	 * two solutions
+	 */
+	private Solution extend(InitialValueProblem problem, Solution cached) {
+		double[] times = cached.getTimesteps();
+		double[][] values = cached.getValues();
+		int numberOfVars = values.length;
+		int last = times.length - 1;
+		double[] restart = new double[numberOfVars];
+		for (int j = 0; j < numberOfVars; j++) {
+			restart[j] = values[j][last];
+		}
+		// the problem may be solved concurrently by other threads
+		Solution tail = solver.solve(tail(problem, times[last], restart));
+		// the first point of the tail is the last of the cached solution
+		double[] tailTimes = tail.getTimesteps();
+		double[][] tailValues = tail.getValues();
+		int size = last + tailTimes.length;
+		double[] joinedTimes = Arrays.copyOf(times, size);
+		System.arraycopy(tailTimes, 1, joinedTimes, last + 1,
+				tailTimes.length - 1);
+		double[][] joinedValues = new double[numberOfVars][];
+		for (int j = 0; j < numberOfVars; j++) {
+			joinedValues[j] = Arrays.copyOf(values[j], size);
+			System.arraycopy(tailValues[j], 1, joinedValues[j], last + 1,
+					tailTimes.length - 1);
+		}
+		return new Solution(joinedTimes, joinedValues);
+	}
+
+	/**
+	 * returns a problem with the derivatives of the given one, starting from
+	 * other initial values
+	 */
+	private static InitialValueProblem tail(InitialValueProblem problem,
+			double lowerBound, double[] initialValues) {
+		InitialValueProblem tail;
+		if (problem instanceof PartitionedProblem) {
+			tail = new PartitionedTail((PartitionedProblem) problem);
+		} else {
+			tail = new Tail(problem);
+		}
+		tail.setLowerBound(lowerBound);
+		tail.setUpperBound(problem.getUpperBound());
+		tail.setInitialValue(initialValues);
+		return tail;
+	}
+
+	/**
+	 * The rest of the interval of a problem
+	 */
+	private static class Tail extends InitialValueProblem {
+		private final InitialValueProblem problem;
+
+		private Tail(InitialValueProblem problem) {
+			this.problem = problem;
+		}
+
+		@Override
+		public Function[] getDerivatives() {
+			return problem.getDerivatives();
+		}
+
+		@Override
+		public VectorFunction getVectorFunction() {
+			return problem.getVectorFunction();
+		}
+
+		@Override
+		public Jacobian getJacobian() {
+			return problem.getJacobian();
+		}
+
+		@Override
+		public SparseJacobian getSparseJacobian() {
+			return problem.getSparseJacobian();
+		}
+
+		@Override
+		public int[][] getDependencies() {
+			return problem.getDependencies();
+		}
+
+		@Override
+		public String getDefinition() {
+			return problem.getDefinition();
+		}
+	}
+
+	/**
+	 * The rest of the interval of a partitioned problem
+	 */
+	private static class PartitionedTail extends PartitionedProblem {
+		private final PartitionedProblem problem;
+
+		private PartitionedTail(PartitionedProblem problem) {
+			this.problem = problem;
+		}
+
+		@Override
+		public Function[] getPositionDerivatives() {
+			return problem.getPositionDerivatives();
+		}
+
+		@Override
+		public Function[] getMomentumDerivatives() {
+			return problem.getMomentumDerivatives();
+		}
+
+		@Override
+		public Function getHamiltonian() {
+			return problem.getHamiltonian();
+		}
+
+		@Override
+		public Function[] getDerivatives() {
+			return problem.getDerivatives();
+		}
+
+		@Override
+		public VectorFunction getVectorFunction() {
+			return problem.getVectorFunction();
+		}
+
+		@Override
+		public String getDefinition() {
+			return problem.getDefinition();
+		}
+	}
+
+	private static Solution truncate(Solution solution, int numberOfPoints) {
+		double[] times = solution.getTimesteps();
+		if (numberOfPoints == times.length) {
+			return solution;
+		}
+		double[][] values = solution.getValues();
+		double[][] truncated = new double[values.length][];
+		for (int j = 0; j < values.length; j++) {
+			truncated[j] = Arrays.copyOf(values[j], numberOfPoints);
+		}
+		Solution prefix = new Solution(Arrays.copyOf(times, numberOfPoints),
+				truncated);
+		if (solution instanceof CompactSolution) {
+			// decoded values are encoded again without loss
+			CompactSolution compact = (CompactSolution) solution;
+			return CompactSolution.encode(prefix, compact.getEncoding(),
+					compact.getErrorBound());
+		}
+		return prefix;
+	}
+
+	/**
+	 * returns the hash of everything that determines the solution
+	 */
+	private String key(InitialValueProblem problem, String definition,
+			String configuration, boolean prefix) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream data = new DataOutputStream(bytes);
+			write(data, configuration);
+			data.writeDouble(solver.getStepSize());
+			write(data, definition);
+			write(data, problem.getInitialValue());
+			if (problem instanceof ParametricProblem) {
+				write(data, ((ParametricProblem) problem).getParameters());
+			} else {
+				data.writeInt(-1);
+			}
+			data.writeDouble(problem.getLowerBound());
+			if (!prefix) {
+				data.writeDouble(problem.getUpperBound());
+			}
+			data.flush();
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(
+					bytes.toByteArray());
+			StringBuilder key = new StringBuilder();
+			for (byte b : hash) {
+				key.append(Character.forDigit((b >> 4) & 0xF, 16));
+				key.append(Character.forDigit(b & 0xF, 16));
+			}
+			return key.toString();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void write(DataOutputStream data, String text)
+			throws IOException {
+		byte[] bytes = text.getBytes("UTF-8");
+		data.writeInt(bytes.length);
+		data.write(bytes);
+	}
+
+	private static void write(DataOutputStream data, double[] values)
+			throws IOException {
+		data.writeInt(values.length);
+		for (double value : values) {
+			data.writeDouble(value);
+		}
+	}
+
+	/**
+	 * returns the configuration of a known solver, or null
+	 */
+	private static String describe(Solver solver) {
+		if (solver instanceof RungeKuttaSolver) {
+			RungeKuttaSolver rungeKutta = (RungeKuttaSolver) solver;
+			if (!rungeKutta.getEventHandlers().isEmpty()) {
+				return null;
+			}
+			ButcherTableau tableau = rungeKutta.getTableau();
+			return "RungeKuttaSolver " + Arrays.toString(tableau.getA())
+					+ Arrays.toString(tableau.getB())
+					+ Arrays.toString(tableau.getC()) + " "
+					+ rungeKutta.isStoreTrajectory() + " "
+					+ rungeKutta.getStorage() + " "
+					+ rungeKutta.getErrorBound();
+		}
+		if (solver instanceof SymplecticSolver) {
+			return "SymplecticSolver "
+					+ ((SymplecticSolver) solver).getMethod().name();
+		}
+		if (solver instanceof BDFSolver) {
+			BDFSolver bdf = (BDFSolver) solver;
+			return "BDFSolver " + bdf.getOrder() + " " + bdf.getTolerance();
+		}
+		if (solver instanceof RosenbrockSolver) {
+			return "RosenbrockSolver "
+					+ ((RosenbrockSolver) solver).getJacobianUpdateInterval();
+		}
+		return null;
+	}
+
+	private static Reuse reuse(Solver solver) {
+		if (solver instanceof RungeKuttaSolver) {
+			RungeKuttaSolver rungeKutta = (RungeKuttaSolver) solver;
+			return rungeKutta.getEventHandlers().isEmpty()
+					&& rungeKutta.isStoreTrajectory() ? Reuse.EXTEND
+					: Reuse.EXACT;
+		}
+		if (solver instanceof SymplecticSolver) {
+			return Reuse.EXTEND;
+		}
+		if (solver instanceof BDFSolver || solver instanceof RosenbrockSolver) {
+			return Reuse.TRUNCATE;
+		}
+		return Reuse.EXACT;
+	}
+
+	public Solver getSolver() {
+		return solver;
+	}
+
+	public SolutionCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * returns the number of problems answered by the cache, also by
+	 * truncation
+	 * 
+	 * @return
+	 */
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	/**
+	 * returns the number of problems answered by extending a cached solution
+	 * 
+	 * @return
+	 */
+	public synchronized int getExtensions() {
+		return extensions;
+	}
+
+	/**
+	 * returns the number of problems solved from the beginning
+	 * 
+	 * @return
+	 */
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	@Override
+	public double getStepSize() {
+		return solver.getStepSize();
+	}
+
+	@Override
+	public void setStepSize(double h) {
+		solver.setStepSize(h);
+	}
+
+}
@@ -0,0 +1,671 @@
+package com.azimuth.ode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.azimuth.ode.InitialValueProblem.Solution;
+
+/**
+ * A solution whose values are stored with less memory than doubles, with an
+ * explicit bound on the error of every value:
+ * 
+ * - FLOAT stores floats, with a relative error of at most 2^-24 (for values
+ * above Float.MIN_NORMAL in magnitude);
+ * 
+ * - QUANTIZED rounds every value to a multiple of twice the error bound, and
+ * stores the differences between the multiples and their linear
+ * extrapolation from the two previous ones, in variable length integers, in
+ * blocks of BLOCK_SIZE points. The absolute error is at most the bound. A
+ * smooth trajectory sampled with a small step costs one or two bytes per
+ * value; a block that would not be smaller, or that contains values that
+ * cannot be quantized (NaN, infinite, or too large for the bound), is stored
+ * as doubles.
+ * 
+ * The timesteps are exact: a uniform grid t0 + n h, as the ones of fixed
+ * step solvers, is stored as t0 and h, and the others as doubles. The
+ * solution is immutable: getValues() and getTimesteps() decode new arrays
+ * at every call, while getValue() decodes a single value.
+ * 
+ * @author marco
+ * 
+ */
+public class CompactSolution extends Solution {
+
+	/**
+	 * The encodings of the values
+	 */
+	public enum Encoding {
+		FLOAT, QUANTIZED
+	}
+
+	/**
+	 * the number of points of a quantized block
+	 */
+	final static int BLOCK_SIZE = 1024;
+	/**
+	 * the largest multiple of the quantum stored exactly by a double
+	 */
+	private final static double MAX_QUANTIZED = 1L << 52;
+	private final static byte QUANTIZED_BLOCK = 0;
+	private final static byte RAW_BLOCK = 1;
+
+	private final Encoding encoding;
+	/**
+	 * the absolute error bound of QUANTIZED
+	 */
+	private final double errorBound;
+	/**
+	 * the timesteps: the first "regular" are start + n step, the others are
+	 * in tail
+	 */
+	private final double start;
+	private final double step;
+	private final int regular;
+	private final double[] tail;
+	/**
+	 * floats[variable][point] for FLOAT
+	 */
+	private final float[][] floats;
+	/**
+	 * blocks[variable][block] for QUANTIZED
+	 */
+	private final byte[][][] blocks;
+
+	CompactSolution(double[] timesteps, float[][] floats) {
+		this(timesteps, Encoding.FLOAT, 0., floats, null);
+	}
+
+	CompactSolution(double[] timesteps, byte[][][] blocks, double errorBound) {
+		this(timesteps, Encoding.QUANTIZED, errorBound, null, blocks);
+	}
+
+	private CompactSolution(double start, double step, int regular,
+			double[] tail, Encoding encoding, double errorBound,
+			float[][] floats, byte[][][] blocks) {
+		super(null, null);
+		this.encoding = encoding;
+		this.errorBound = errorBound;
+		this.floats = floats;
+		this.blocks = blocks;
+		this.start = start;
+		this.step = step;
+		this.regular = regular;
+		this.tail = tail;
+	}
+
+	private CompactSolution(double[] timesteps, Encoding encoding,
+			double errorBound, float[][] floats, byte[][][] blocks) {
+		super(null, null);
+		this.encoding = encoding;
+		this.errorBound = errorBound;
+		this.floats = floats;
+		this.blocks = blocks;
+		int length = timesteps.length;
+		double t0 = length > 0 ? timesteps[0] : 0.;
+		double h = step(timesteps);
+		int count = length > 1 ? regular(timesteps, t0, h) : length;
+		this.start = t0;
+		this.step = h;
+		this.regular = count;
+		this.tail = Arrays.copyOfRange(timesteps, count, length);
+	}
+
+	/**
+	 * returns the step of the longest uniform prefix, trying the values of h
+	 * that a solver may have used
+	 */
+	private static double step(double[] timesteps) {
+		int length = timesteps.length;
+		double h = 0.;
+		int count = Math.min(length, 1);
+		if (length > 1) {
+			double t0 = timesteps[0];
+			double[] candidates = { timesteps[1] - t0,
+					(timesteps[length - 1] - t0) / (length - 1) };
+			for (double candidate : candidates) {
+				int regular = regular(timesteps, t0, candidate);
+				if (regular > count) {
+					count = regular;
+					h = candidate;
+				}
+			}
+		}
+		return h;
+	}
+
+	/**
+	 * returns the number of timesteps equal to t0 + n h
+	 */
+	private static int regular(double[] timesteps, double t0, double h) {
+		int count = 0;
+		while (count < timesteps.length && t0 + count * h == timesteps[count]) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Builds a compact solution a point at a time, so that a solver never
+	 * stores the whole trajectory as doubles
+	 * 
+	 * @author marco
+	 * 
+	 */
+	public static class Builder {
+		private final Encoding encoding;
+		private final double errorBound;
+		private final int numberOfVars;
+		private int capacity;
+		private int size;
+		/**
+		 * the timesteps: the first "regular" are start + n step, the
+		 * "others" are in tail, allocated only when the grid is not uniform
+		 */
+		private double start;
+		private double step;
+		private int regular;
+		private boolean grid;
+		private double[] tail;
+		private int others;
+		private float[][] floats;
+		/**
+		 * the values of the current block, and the completed blocks
+		 */
+		private double[][] block;
+		private List<List<byte[]>> blocks;
+		/**
+		 * the scratch space of encode, reused by every block
+		 */
+		private long[] multiples;
+		private Bytes bytes;
+
+		/**
+		 * Creates a builder
+		 * 
+		 * @param numberOfVars
+		 * @param capacity
+		 *            , the expected number of points
+		 * @param encoding
+		 * @param errorBound
+		 *            , the absolute error bound of QUANTIZED, ignored by
+		 *            FLOAT
+		 */
+		public Builder(int numberOfVars, int capacity, Encoding encoding,
+				double errorBound) {
+			if (encoding == Encoding.QUANTIZED
+					&& !(errorBound > 0. && errorBound < Double.POSITIVE_INFINITY)) {
+				throw new IllegalArgumentException(
+						"the error bound must be positive and finite");
+			}
+			this.encoding = encoding;
+			this.errorBound = errorBound;
+			this.numberOfVars = numberOfVars;
+			this.capacity = Math.max(capacity, 1);
+			if (encoding == Encoding.FLOAT) {
+				floats = new float[numberOfVars][this.capacity];
+			} else {
+				block = new double[numberOfVars][BLOCK_SIZE];
+				blocks = new ArrayList<List<byte[]>>();
+				for (int j = 0; j < numberOfVars; j++) {
+					blocks.add(new ArrayList<byte[]>());
+				}
+				multiples = new long[BLOCK_SIZE];
+				bytes = new Bytes(1 + 8 * BLOCK_SIZE);
+			}
+		}
+
+		/**
+		 * adds a point
+		 * 
+		 * @param time
+		 * @param values
+		 */
+		public void add(double time, double[] values) {
+			addTime(time);
+			if (floats != null) {
+				if (size == capacity) {
+					capacity = 2 * size;
+					for (int j = 0; j < numberOfVars; j++) {
+						floats[j] = Arrays.copyOf(floats[j], capacity);
+					}
+				}
+				for (int j = 0; j < numberOfVars; j++) {
+					floats[j][size] = toFloat(values[j]);
+				}
+			} else {
+				int index = size % BLOCK_SIZE;
+				for (int j = 0; j < numberOfVars; j++) {
+					block[j][index] = values[j];
+				}
+				if (index == BLOCK_SIZE - 1) {
+					flush(BLOCK_SIZE);
+				}
+			}
+			size++;
+		}
+
+		/**
+		 * sets the expected timesteps, start + n step, as t1 - t0 may differ
+		 * from the step of a solver by a rounding error. Without it the step
+		 * is t1 - t0.
+		 * 
+		 * @param start
+		 * @param step
+		 */
+		public void setGrid(double start, double step) {
+			if (size > 0) {
+				throw new IllegalStateException(
+						"the grid is set before the first point");
+			}
+			this.start = start;
+			this.step = step;
+			grid = true;
+		}
+
+		/**
+		 * extends the uniform prefix of the timesteps, or adds the time to
+		 * the others
+		 */
+		private void addTime(double time) {
+			if (others == 0) {
+				if (regular == 0 && !grid) {
+					start = time;
+				} else if (regular == 1 && !grid) {
+					step = time - start;
+				}
+				if (start + regular * step == time) {
+					regular++;
+					return;
+				}
+				tail = new double[16];
+			} else if (others == tail.length) {
+				tail = Arrays.copyOf(tail, 2 * others);
+			}
+			tail[others++] = time;
+		}
+
+		private void flush(int length) {
+			for (int j = 0; j < numberOfVars; j++) {
+				blocks.get(j).add(
+						encode(block[j], length, errorBound, multiples, bytes));
+			}
+		}
+
+		public CompactSolution build() {
+			double[] times = tail != null ? Arrays.copyOf(tail, others)
+					: new double[0];
+			if (floats != null) {
+				float[][] values = new float[numberOfVars][];
+				for (int j = 0; j < numberOfVars; j++) {
+					values[j] = Arrays.copyOf(floats[j], size);
+				}
+				return new CompactSolution(start, step, regular, times,
+						Encoding.FLOAT, 0., values, null);
+			}
+			if (size % BLOCK_SIZE != 0) {
+				flush(size % BLOCK_SIZE);
+			}
+			byte[][][] values = new byte[numberOfVars][][];
+			for (int j = 0; j < numberOfVars; j++) {
+				values[j] = blocks.get(j).toArray(new byte[0][]);
+			}
+			return new CompactSolution(start, step, regular, times,
+					Encoding.QUANTIZED, errorBound, null, values);
+		}
+	}
+
+	/**
+	 * returns a compact copy of a solution
+	 * 
+	 * @param solution
+	 * @param encoding
+	 * @param errorBound
+	 *            , the absolute error bound of QUANTIZED, ignored by FLOAT
+	 * @return
+	 */
+	public static CompactSolution encode(Solution solution, Encoding encoding,
+			double errorBound) {
+		double[] timesteps = solution.getTimesteps();
+		double[][] values = solution.getValues();
+		Builder builder = new Builder(values.length, timesteps.length,
+				encoding, errorBound);
+		if (timesteps.length > 0) {
+			builder.setGrid(timesteps[0], step(timesteps));
+		}
+		double[] point = new double[values.length];
+		for (int n = 0; n < timesteps.length; n++) {
+			for (int j = 0; j < values.length; j++) {
+				point[j] = values[j][n];
+			}
+			builder.add(timesteps[n], point);
+		}
+		return builder.build();
+	}
+
+	private static float toFloat(double value) {
+		float single = (float) value;
+		if (Float.isInfinite(single) && !Double.isInfinite(value)) {
+			throw new IllegalArgumentException(value
+					+ " is out of the float range");
+		}
+		return single;
+	}
+
+	/**
+	 * encodes a block of values, with the scratch space of a builder
+	 */
+	private static byte[] encode(double[] values, int length,
+			double errorBound, long[] multiples, Bytes bytes) {
+		double quantum = 2. * errorBound;
+		boolean quantized = true;
+		for (int n = 0; n < length && quantized; n++) {
+			double value = values[n];
+			// false also for NaN
+			if (!(Math.abs(value / quantum) < MAX_QUANTIZED)) {
+				quantized = false;
+				continue;
+			}
+			long multiple = Math.round(value / quantum);
+			// the bound is checked with the arithmetic of the decoder
+			if (Math.abs(multiple * quantum - value) > errorBound) {
+				multiple += multiple * quantum < value ? 1 : -1;
+				quantized = Math.abs(multiple * quantum - value) <= errorBound;
+			}
+			multiples[n] = multiple;
+		}
+		if (quantized) {
+			bytes.clear();
+			bytes.add(QUANTIZED_BLOCK);
+			for (int n = 0; n < length; n++) {
+				bytes.addVarLong(multiples[n] - predict(multiples, n));
+			}
+			if (bytes.size() < 1 + 8 * length) {
+				return bytes.toArray();
+			}
+		}
+		bytes.clear();
+		bytes.add(RAW_BLOCK);
+		for (int n = 0; n < length; n++) {
+			bytes.addLong(Double.doubleToRawLongBits(values[n]));
+		}
+		return bytes.toArray();
+	}
+
+	/**
+	 * the linear extrapolation of the previous multiples
+	 */
+	private static long predict(long[] multiples, int n) {
+		if (n >= 2) {
+			return 2 * multiples[n - 1] - multiples[n - 2];
+		}
+		return n == 1 ? multiples[0] : 0;
+	}
+
+	/**
+	 * decodes the first length values of a block
+	 */
+	static void decode(byte[] block, int length, double errorBound,
+			double[] values, int offset) {
+		double quantum = 2. * errorBound;
+		int position = 1;
+		if (block[0] == RAW_BLOCK) {
+			for (int n = 0; n < length; n++) {
+				long bits = 0;
+				for (int b = 0; b < 8; b++) {
+					bits = (bits << 8) | (block[position++] & 0xFF);
+				}
+				values[offset + n] = Double.longBitsToDouble(bits);
+			}
+			return;
+		}
+		long previous = 0;
+		long last = 0;
+		for (int n = 0; n < length; n++) {
+			long residual = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = block[position++];
+				residual |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			// zigzag
+			residual = (residual >>> 1) ^ -(residual & 1);
+			long prediction = n >= 2 ? 2 * last - previous : n == 1 ? last : 0;
+			long multiple = prediction + residual;
+			previous = last;
+			last = multiple;
+			values[offset + n] = multiple * quantum;
+		}
+	}
+
+	/**
+	 * a growing array of bytes
+	 */
+	private static class Bytes {
+		private byte[] bytes;
+		private int size;
+
+		private Bytes(int capacity) {
+			bytes = new byte[capacity];
+		}
+
+		private void add(int b) {
+			if (size == bytes.length) {
+				bytes = Arrays.copyOf(bytes, 2 * size + 8);
+			}
+			bytes[size++] = (byte) b;
+		}
+
+		private void addLong(long value) {
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				add((int) (value >>> shift));
+			}
+		}
+
+		/**
+		 * adds a zigzag variable length integer: 7 bits per byte, small
+		 * magnitudes first
+		 */
+		private void addVarLong(long value) {
+			long zigzag = (value << 1) ^ (value >> 63);
+			while ((zigzag & ~0x7FL) != 0) {
+				add((int) ((zigzag & 0x7F) | 0x80));
+				zigzag >>>= 7;
+			}
+			add((int) zigzag);
+		}
+
+		private int size() {
+			return size;
+		}
+
+		private void clear() {
+			size = 0;
+		}
+
+		private byte[] toArray() {
+			return Arrays.copyOf(bytes, size);
+		}
+	}
+
+	/**
+	 * returns new arrays with the decoded values
+	 */
+	@Override
+	public double[][] getValues() {
+		int numberOfPoints = getNumberOfPoints();
+		int numberOfVars = floats != null ? floats.length : blocks.length;
+		double[][] values = new double[numberOfVars][numberOfPoints];
+		for (int j = 0; j < numberOfVars; j++) {
+			if (floats != null) {
+				for (int n = 0; n < numberOfPoints; n++) {
+					values[j][n] = floats[j][n];
+				}
+			} else {
+				for (int b = 0; b < blocks[j].length; b++) {
+					decode(blocks[j][b], Math.min(BLOCK_SIZE, numberOfPoints
+							- b * BLOCK_SIZE), errorBound, values[j], b
+							* BLOCK_SIZE);
+				}
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * returns a new array with the timesteps
+	 */
+	@Override
+	public double[] getTimesteps() {
+		double[] timesteps = new double[regular + tail.length];
+		for (int n = 0; n < regular; n++) {
+			timesteps[n] = start + n * step;
+		}
+		System.arraycopy(tail, 0, timesteps, regular, tail.length);
+		return timesteps;
+	}
+
+	/**
+	 * returns the number of timesteps
+	 * 
+	 * @return
+	 */
+	public int getNumberOfPoints() {
+		return regular + tail.length;
+	}
+
+	/**
+	 * returns the solution of some of the variables, sharing the encoded
+	 * values: the values are encoded one variable at a time, so it equals
+	 * the solution of those variables encoded alone
+	 * 
+	 * @param from
+	 *            , the first variable
+	 * @param count
+	 *            , the number of variables
+	 * @return
+	 */
+	public CompactSolution getVariables(int from, int count) {
+		int numberOfVars = floats != null ? floats.length : blocks.length;
+		if (from < 0 || count < 0 || from + count > numberOfVars) {
+			throw new IndexOutOfBoundsException("variables " + from + " to "
+					+ (from + count) + " of " + numberOfVars);
+		}
+		float[][] floats = null;
+		byte[][][] blocks = null;
+		if (this.floats != null) {
+			floats = Arrays.copyOfRange(this.floats, from, from + count);
+		} else {
+			blocks = Arrays.copyOfRange(this.blocks, from, from + count);
+		}
+		return new CompactSolution(start, step, regular, tail, encoding,
+				errorBound, floats, blocks);
+	}
+
+	@Override
+	public double getValue(int variable, int index) {
+		if (floats != null) {
+			return floats[variable][index];
+		}
+		if (index < 0 || index >= getNumberOfPoints()) {
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+		double[] values = new double[index % BLOCK_SIZE + 1];
+		decode(blocks[variable][index / BLOCK_SIZE], values.length,
+				errorBound, values, 0);
+		return values[values.length - 1];
+	}
+
+	@Override
+	public void setValues(double[][] values) {
+		throw new UnsupportedOperationException(
+				"a compact solution is immutable");
+	}
+
+	@Override
+	public void setTimesteps(double[] timesteps) {
+		throw new UnsupportedOperationException(
+				"a compact solution is immutable");
+	}
+
+	public Encoding getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * returns the largest error of a value: relative for FLOAT, absolute for
+	 * QUANTIZED
+	 * 
+	 * @return
+	 */
+	public double getErrorBound() {
+		return encoding == Encoding.FLOAT ? Math.ulp(1f) / 2. : errorBound;
+	}
+
+	/**
+	 * returns the number of bytes of the timesteps and of the values
+	 * 
+	 * @return
+	 */
+	public long getBytes() {
+		int numberOfPoints = getNumberOfPoints();
+		long bytes = 8L * (3 + tail.length);
+		if (floats != null) {
+			bytes += 4L * floats.length * numberOfPoints;
+		} else {
+			for (byte[][] variable : blocks) {
+				for (byte[] block : variable) {
+					bytes += block.length;
+				}
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * writes the timesteps as t0, h, the number of points on the grid and
+	 * the others
+	 */
+	void writeTimesteps(DataOutputStream data) throws IOException {
+		data.writeDouble(start);
+		data.writeDouble(step);
+		data.writeInt(regular);
+		data.writeInt(tail.length);
+		for (double t : tail) {
+			data.writeDouble(t);
+		}
+	}
+
+	static double[] readTimesteps(DataInputStream data, int numberOfPoints)
+			throws IOException {
+		double start = data.readDouble();
+		double step = data.readDouble();
+		int regular = data.readInt();
+		int others = data.readInt();
+		if (regular < 0 || others < 0 || regular + others != numberOfPoints) {
+			throw new IOException("corrupted timesteps");
+		}
+		double[] timesteps = new double[numberOfPoints];
+		for (int n = 0; n < regular; n++) {
+			timesteps[n] = start + n * step;
+		}
+		for (int n = regular; n < numberOfPoints; n++) {
+			timesteps[n] = data.readDouble();
+		}
+		return timesteps;
+	}
+
+	float[][] getFloats() {
+		return floats;
+	}
+
+	byte[][][] getBlocks() {
+		return blocks;
+	}
+
+}
@@ -116,9 +116,10 @@ public class DelaySolver implements Solver {
 			// where the solution starts for this interval
 			int offset = (i+1)* meshPoints;
 			// fill new values in 
+			double[][] sub = subSolution.getValues();
+			double[] subTimesteps = subSolution.getTimesteps();
 			for (int j=0; j<=meshPoints; j++){
-				double[][] sub = subSolution.getValues();
-				timesteps[j+offset] = subSolution.getTimesteps()[j];
+				timesteps[j+offset] = subTimesteps[j];
 				for (int l=0; l<numberOfVars; l++){
 					solution[l][j + offset] = sub[l][j];
 				}
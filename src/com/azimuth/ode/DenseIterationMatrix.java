@@ -0,0 +1,73 @@
+package com.azimuth.ode;
+
+import com.azimuth.linear.LUDecomposition;
+import com.azimuth.linear.SparsityPattern;
+
+/**
+ * An iteration matrix I - gamma*J stored and factored as a dense matrix.
+ *
+ * @author marco
+ *
+ */
+class DenseIterationMatrix extends IterationMatrix {
+
+	private final int n;
+	private final Jacobian jacobian;
+	private final double[][] dfdy;
+	private final LUDecomposition lu;
+	private final double[] work;
+
+	DenseIterationMatrix(InitialValueProblem problem, Function[] f) {
+		this.n = f.length;
+		this.jacobian = createJacobian(problem, f);
+		this.dfdy = new double[n][n];
+		this.lu = new LUDecomposition(n);
+		this.work = new double[n];
+	}
+
+	/**
+	 * returns the Jacobian of the problem if known, an automatic or a finite
+	 * difference Jacobian otherwise
+	 *
+	 * @param problem
+	 * @param f
+	 * @return
+	 */
+	static Jacobian createJacobian(InitialValueProblem problem, Function[] f) {
+		Jacobian j = problem.getJacobian();
+		if (j == null && AutomaticJacobian.isDifferentiable(f)) {
+			int[][] dependencies = problem.getDependencies();
+			j = new AutomaticJacobian(f, dependencies != null ? new SparsityPattern(
+					dependencies) : null);
+		}
+		if (j == null) {
+			j = new FiniteDifferenceJacobian(f, problem.getDependencies());
+		}
+		return j;
+	}
+
+	@Override
+	protected void evaluateJacobian(double t, double[] y) {
+		jacobian.evaluate(t, y, dfdy);
+	}
+
+	@Override
+	protected void factorize(double gamma) {
+		double[][] m = lu.getMatrix();
+		for (int i = 0; i < n; i++) {
+			double[] row = m[i];
+			double[] jrow = dfdy[i];
+			for (int j = 0; j < n; j++) {
+				row[j] = -gamma * jrow[j];
+			}
+			row[i] += 1.;
+		}
+		lu.factor();
+	}
+
+	@Override
+	void solve(double[] b) {
+		lu.solve(b, work);
+	}
+
+}
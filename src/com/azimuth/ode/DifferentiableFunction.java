@@ -0,0 +1,25 @@
+package com.azimuth.ode;
+
+/**
+ * A Function that can also be evaluated on dual numbers, so that its
+ * derivatives are computed exactly by forward mode automatic
+ * differentiation.
+ *
+ * @see AutomaticJacobian
+ * @author marco
+ *
+ */
+public interface DifferentiableFunction extends Function {
+
+	/**
+	 * computes the value of the function and its derivatives along the
+	 * directions of the dual values, and stores them in result. The values
+	 * are read only.
+	 *
+	 * @param t
+	 * @param values
+	 * @param result
+	 */
+	public void value(double t, Dual[] values, Dual result);
+
+}
@@ -0,0 +1,340 @@
+package com.azimuth.ode;
+
+/**
+ * A dual number for forward mode automatic differentiation: a value together
+ * with its derivatives along a fixed number of directions (the width).
+ *
+ * Duals are mutable and every operation updates this number in place and
+ * returns it, so that expressions can be chained without allocating
+ * temporaries, e.g. (a - b*y)*x becomes
+ *
+ * result.set(y).multiply(-b).add(a).multiply(x)
+ *
+ * All the duals used in the same expression must have the same width. The
+ * duals of a block created by array(n, width) share a single array of
+ * doubles, the value of each followed by its derivatives.
+ *
+ * @author marco
+ *
+ */
+public final class Dual {
+
+	/**
+	 * the array shared by the duals of a block, replaceable so that a block
+	 * of width zero can wrap another array in constant time
+	 */
+	private static final class Storage {
+		private double[] data;
+
+		private Storage(double[] data) {
+			this.data = data;
+		}
+	}
+
+	private final Storage storage;
+	/**
+	 * the value is data[offset], the derivatives follow it
+	 */
+	private final int offset;
+	private final int width;
+
+	/**
+	 * creates a constant zero with the given number of directions
+	 *
+	 * @param width
+	 */
+	public Dual(int width) {
+		this(new Storage(new double[width + 1]), 0, width);
+	}
+
+	private Dual(Storage storage, int offset, int width) {
+		this.storage = storage;
+		this.offset = offset;
+		this.width = width;
+	}
+
+	/**
+	 * creates n constant zeros with the given number of directions, stored
+	 * in a single array of n (width + 1) doubles
+	 *
+	 * @param n
+	 * @param width
+	 * @return
+	 */
+	public static Dual[] array(int n, int width) {
+		Storage storage = new Storage(new double[n * (width + 1)]);
+		Dual[] duals = new Dual[n];
+		for (int i = 0; i < n; i++) {
+			duals[i] = new Dual(storage, i * (width + 1), width);
+		}
+		return duals;
+	}
+
+	/**
+	 * returns constants of width zero that read their values from the array,
+	 * without copying it. Setting them writes to the array.
+	 *
+	 * @param values
+	 * @return
+	 */
+	static Dual[] wrap(double[] values) {
+		Storage storage = new Storage(values);
+		Dual[] duals = new Dual[values.length];
+		for (int i = 0; i < values.length; i++) {
+			duals[i] = new Dual(storage, i, 0);
+		}
+		return duals;
+	}
+
+	/**
+	 * makes the duals returned by wrap read another array of the same
+	 * length
+	 *
+	 * @param duals
+	 * @param values
+	 */
+	static void rewrap(Dual[] duals, double[] values) {
+		if (duals.length > 0) {
+			duals[0].storage.data = values;
+		}
+	}
+
+	public double getValue() {
+		return storage.data[offset];
+	}
+
+	/**
+	 * returns the derivative along direction k
+	 *
+	 * @param k
+	 * @return
+	 */
+	public double getTangent(int k) {
+		if (k < 0 || k >= width) {
+			throw new ArrayIndexOutOfBoundsException(k);
+		}
+		return storage.data[offset + 1 + k];
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * sets this number to the constant c
+	 *
+	 * @param c
+	 * @return
+	 */
+	public Dual set(double c) {
+		double[] data = storage.data;
+		data[offset] = c;
+		for (int k = offset + 1; k <= offset + width; k++) {
+			data[k] = 0.;
+		}
+		return this;
+	}
+
+	/**
+	 * sets this number to a variable with value v and derivative 1 along
+	 * direction k
+	 *
+	 * @param v
+	 * @param k
+	 * @return
+	 */
+	public Dual seed(double v, int k) {
+		set(v);
+		return setTangent(k, 1.);
+	}
+
+	/**
+	 * sets the derivative along direction k
+	 *
+	 * @param k
+	 * @param derivative
+	 * @return
+	 */
+	public Dual setTangent(int k, double derivative) {
+		if (k < 0 || k >= width) {
+			throw new ArrayIndexOutOfBoundsException(k);
+		}
+		storage.data[offset + 1 + k] = derivative;
+		return this;
+	}
+
+	public Dual set(Dual x) {
+		System.arraycopy(x.storage.data, x.offset, storage.data, offset,
+				width + 1);
+		return this;
+	}
+
+	public Dual add(Dual x) {
+		double[] data = storage.data;
+		double[] xd = x.storage.data;
+		int d = x.offset - offset;
+		for (int k = offset; k <= offset + width; k++) {
+			data[k] += xd[k + d];
+		}
+		return this;
+	}
+
+	public Dual add(double c) {
+		storage.data[offset] += c;
+		return this;
+	}
+
+	public Dual subtract(Dual x) {
+		double[] data = storage.data;
+		double[] xd = x.storage.data;
+		int d = x.offset - offset;
+		for (int k = offset; k <= offset + width; k++) {
+			data[k] -= xd[k + d];
+		}
+		return this;
+	}
+
+	public Dual subtract(double c) {
+		storage.data[offset] -= c;
+		return this;
+	}
+
+	public Dual multiply(Dual x) {
+		double[] data = storage.data;
+		double[] xd = x.storage.data;
+		int d = x.offset - offset;
+		double value = data[offset];
+		double xv = xd[x.offset];
+		for (int k = offset + 1; k <= offset + width; k++) {
+			data[k] = data[k] * xv + value * xd[k + d];
+		}
+		data[offset] = value * xv;
+		return this;
+	}
+
+	public Dual multiply(double c) {
+		double[] data = storage.data;
+		for (int k = offset; k <= offset + width; k++) {
+			data[k] *= c;
+		}
+		return this;
+	}
+
+	public Dual divide(Dual x) {
+		double[] data = storage.data;
+		double[] xd = x.storage.data;
+		int d = x.offset - offset;
+		double xv = xd[x.offset];
+		double q = data[offset] / xv;
+		for (int k = offset + 1; k <= offset + width; k++) {
+			data[k] = (data[k] - q * xd[k + d]) / xv;
+		}
+		data[offset] = q;
+		return this;
+	}
+
+	public Dual divide(double c) {
+		return multiply(1. / c);
+	}
+
+	/**
+	 * this = this + a*b
+	 *
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public Dual addProduct(Dual a, Dual b) {
+		double[] data = storage.data;
+		double[] ad = a.storage.data;
+		double[] bd = b.storage.data;
+		int da = a.offset - offset;
+		int db = b.offset - offset;
+		double av = ad[a.offset];
+		double bv = bd[b.offset];
+		for (int k = offset + 1; k <= offset + width; k++) {
+			data[k] += ad[k + da] * bv + av * bd[k + db];
+		}
+		data[offset] += av * bv;
+		return this;
+	}
+
+	/**
+	 * this = this + c*a
+	 *
+	 * @param c
+	 * @param a
+	 * @return
+	 */
+	public Dual addProduct(double c, Dual a) {
+		double[] data = storage.data;
+		double[] ad = a.storage.data;
+		int da = a.offset - offset;
+		for (int k = offset; k <= offset + width; k++) {
+			data[k] += c * ad[k + da];
+		}
+		return this;
+	}
+
+	public Dual negate() {
+		return multiply(-1.);
+	}
+
+	public Dual square() {
+		double value = getValue();
+		return scale(2. * value, value * value);
+	}
+
+	public Dual reciprocal() {
+		double r = 1. / getValue();
+		return scale(-r * r, r);
+	}
+
+	public Dual exp() {
+		double e = Math.exp(getValue());
+		return scale(e, e);
+	}
+
+	public Dual log() {
+		double value = getValue();
+		return scale(1. / value, Math.log(value));
+	}
+
+	public Dual sqrt() {
+		double s = Math.sqrt(getValue());
+		return scale(0.5 / s, s);
+	}
+
+	public Dual sin() {
+		double value = getValue();
+		return scale(Math.cos(value), Math.sin(value));
+	}
+
+	public Dual cos() {
+		double value = getValue();
+		return scale(-Math.sin(value), Math.cos(value));
+	}
+
+	public Dual pow(double p) {
+		double value = getValue();
+		return scale(p * Math.pow(value, p - 1.), Math.pow(value, p));
+	}
+
+	/**
+	 * applies the chain rule for a function g with g(value) = newValue and
+	 * g'(value) = derivative
+	 *
+	 * @param derivative
+	 * @param newValue
+	 * @return
+	 */
+	private Dual scale(double derivative, double newValue) {
+		double[] data = storage.data;
+		for (int k = offset + 1; k <= offset + width; k++) {
+			data[k] *= derivative;
+		}
+		data[offset] = newValue;
+		return this;
+	}
+
+}
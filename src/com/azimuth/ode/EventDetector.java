@@ -0,0 +1,179 @@
+package com.azimuth.ode;
+
+import java.util.List;
+
+/**
+ * Detects and locates the events of a list of handlers within a step.
+ *
+ * The solution inside a step is approximated by the cubic Hermite
+ * interpolant of the values and derivatives at both ends, and the roots of g
+ * are located on it by the Illinois variant of regula falsi.
+ *
+ * @author marco
+ *
+ */
+class EventDetector {
+
+	private final static int MAX_ITERATIONS = 100;
+	private final static double RELATIVE_TOLERANCE = 1e-12;
+
+	private final EventHandler[] handlers;
+	private final int numberOfVars;
+	/**
+	 * value of every g at the beginning of the current step
+	 */
+	private final double[] g0;
+	/**
+	 * value of every g at the end of the current step
+	 */
+	private final double[] g1;
+	/**
+	 * the step being examined
+	 */
+	private double t0;
+	private double h;
+	private double[] y0;
+	private double[] y1;
+	private double[] f0;
+	private double[] f1;
+
+	/**
+	 * time and values of the last event
+	 */
+	private double eventTime;
+	private final double[] eventValues;
+	/**
+	 * workspace
+	 */
+	private final double[] interpolated;
+	private final boolean[] crossed;
+	private final double[] roots;
+
+	EventDetector(List<EventHandler> handlers, int numberOfVars) {
+		this.handlers = handlers.toArray(new EventHandler[handlers.size()]);
+		this.numberOfVars = numberOfVars;
+		this.g0 = new double[this.handlers.length];
+		this.g1 = new double[this.handlers.length];
+		this.crossed = new boolean[this.handlers.length];
+		this.roots = new double[this.handlers.length];
+		this.eventValues = new double[numberOfVars];
+		this.interpolated = new double[numberOfVars];
+	}
+
+	/**
+	 * evaluates the switching functions at the start of the integration
+	 *
+	 * @param t
+	 * @param y
+	 */
+	void init(double t, double[] y) {
+		for (int e = 0; e < handlers.length; e++) {
+			g0[e] = handlers[e].g(t, y);
+		}
+	}
+
+	/**
+	 * examines the step from (t0, y0) to (t1, y1), with derivatives f0 and
+	 * f1, and notifies the handlers of its events in chronological order
+	 *
+	 * @return, true if a handler stopped the integration: its time and values
+	 *          are given by getEventTime() and getEventValues()
+	 */
+	boolean step(double t0, double[] y0, double[] f0, double t1, double[] y1,
+			double[] f1) {
+		this.t0 = t0;
+		this.h = t1 - t0;
+		this.y0 = y0;
+		this.y1 = y1;
+		this.f0 = f0;
+		this.f1 = f1;
+		int count = 0;
+		for (int e = 0; e < handlers.length; e++) {
+			g1[e] = handlers[e].g(t1, y1);
+			crossed[e] = (g0[e] < 0. && g1[e] >= 0.)
+					|| (g0[e] > 0. && g1[e] <= 0.);
+			if (crossed[e]) {
+				roots[e] = locate(handlers[e], t0, g0[e], t1, g1[e]);
+				count++;
+			}
+		}
+		boolean stop = false;
+		// notify in chronological order
+		while (count > 0 && !stop) {
+			int first = -1;
+			for (int e = 0; e < handlers.length; e++) {
+				if (crossed[e] && (first < 0 || roots[e] < roots[first])) {
+					first = e;
+				}
+			}
+			crossed[first] = false;
+			count--;
+			eventTime = roots[first];
+			interpolate(eventTime, eventValues);
+			EventHandler.Action action = handlers[first].eventOccurred(
+					eventTime, eventValues.clone(), g1[first] > g0[first]);
+			stop = action == EventHandler.Action.STOP;
+		}
+		System.arraycopy(g1, 0, g0, 0, handlers.length);
+		return stop;
+	}
+
+	double getEventTime() {
+		return eventTime;
+	}
+
+	double[] getEventValues() {
+		return eventValues;
+	}
+
+	/**
+	 * finds a root of g in [ta, tb], knowing that g changes sign
+	 */
+	private double locate(EventHandler handler, double ta, double ga,
+			double tb, double gb) {
+		if (gb == 0.) {
+			return tb;
+		}
+		double tolerance = RELATIVE_TOLERANCE * Math.max(1., Math.abs(tb));
+		int side = 0;
+		for (int i = 0; i < MAX_ITERATIONS && tb - ta > tolerance; i++) {
+			double t = (ta * gb - tb * ga) / (gb - ga);
+			interpolate(t, interpolated);
+			double g = handler.g(t, interpolated);
+			if (g == 0.) {
+				return t;
+			}
+			if ((g > 0.) == (gb > 0.)) {
+				tb = t;
+				gb = g;
+				if (side == -1) {
+					ga *= 0.5;
+				}
+				side = -1;
+			} else {
+				ta = t;
+				ga = g;
+				if (side == 1) {
+					gb *= 0.5;
+				}
+				side = 1;
+			}
+		}
+		return tb;
+	}
+
+	/**
+	 * evaluates the cubic Hermite interpolant of the step at time t
+	 */
+	private void interpolate(double t, double[] y) {
+		double theta = (t - t0) / h;
+		double a = theta * (theta - 1.);
+		double b = (1. - 2. * theta);
+		for (int j = 0; j < numberOfVars; j++) {
+			double dy = y1[j] - y0[j];
+			y[j] = y0[j] + theta * dy + a
+					* (b * dy + (theta - 1.) * h * f0[j] + theta * h * f1[j]);
+		}
+	}
+
+}
@@ -0,0 +1,52 @@
+package com.azimuth.ode;
+
+/**
+ * An event of an Initial Value Problem, i.e. a zero crossing of a switching
+ * function g(t, y) along the solution.
+ *
+ * Solvers check the sign of g after every step; when it changes the time of
+ * the event is located on the interpolant of the step and the handler
+ * decides whether the integration goes on.
+ *
+ * @author marco
+ *
+ */
+public interface EventHandler {
+
+	/**
+	 * what the solver does after an event
+	 */
+	public enum Action {
+		/**
+		 * the solution ends at the time of the event
+		 */
+		STOP,
+		/**
+		 * the integration goes on
+		 */
+		CONTINUE
+	}
+
+	/**
+	 * the switching function, whose roots are the events
+	 *
+	 * @param t
+	 * @param values
+	 * @return
+	 */
+	public double g(double t, double[] values);
+
+	/**
+	 * called when g crosses zero
+	 *
+	 * @param t
+	 *            , the time of the event
+	 * @param values
+	 *            , the solution at time t
+	 * @param increasing
+	 *            , true if g goes from negative to positive
+	 * @return, the action of the solver
+	 */
+	public Action eventOccurred(double t, double[] values, boolean increasing);
+
+}
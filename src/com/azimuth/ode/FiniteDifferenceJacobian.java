@@ -0,0 +1,226 @@
+package com.azimuth.ode;
+
+import java.util.Arrays;
+
+import com.azimuth.linear.SparseMatrix;
+import com.azimuth.linear.SparsityPattern;
+
+/**
+ * Approximates the Jacobian of a derivative F: R x R^n \to R^n by forward
+ * differences.
+ *
+ * When the sparsity pattern of F is known, the columns are colored so that
+ * columns with no row in common are perturbed together: a whole group costs a
+ * single evaluation of the functions f_i that depend on it, and a banded or
+ * sparse Jacobian needs only a handful of evaluations of F.
+ *
+ * @author marco
+ *
+ */
+public class FiniteDifferenceJacobian implements Jacobian, SparseJacobian {
+
+	private final static double SQRT_EPSILON = Math.sqrt(Math.ulp(1.));
+
+	private final Function[] f;
+	private final int n;
+	/**
+	 * the sparsity pattern, or null for a dense Jacobian
+	 */
+	private final SparsityPattern pattern;
+	/**
+	 * groups[g] = the columns perturbed together, null for a dense Jacobian
+	 */
+	private final int[][] groups;
+	/**
+	 * affected[g] = the rows that depend on any column of group g
+	 */
+	private final int[][] affected;
+
+	/**
+	 * workspace
+	 */
+	private final double[] y;
+	private final double[] f0;
+	private final double[] f1;
+	private double[] entries;
+
+	/**
+	 * creates a dense approximation: one evaluation of F for each column
+	 *
+	 * @param f
+	 */
+	public FiniteDifferenceJacobian(Function[] f) {
+		this(f, (int[][]) null);
+	}
+
+	/**
+	 * creates an approximation that groups structurally independent columns
+	 *
+	 * @param f
+	 * @param dependencies
+	 *            , dependencies[i] = the indexes of the variables f_i depends
+	 *            on, or null if every f_i depends on every variable
+	 */
+	public FiniteDifferenceJacobian(Function[] f, int[][] dependencies) {
+		this(f, dependencies != null ? new SparsityPattern(dependencies)
+				: null);
+	}
+
+	/**
+	 * creates an approximation that groups structurally independent columns
+	 *
+	 * @param f
+	 * @param pattern
+	 *            , the sparsity pattern of the Jacobian, or null if it is
+	 *            dense
+	 */
+	public FiniteDifferenceJacobian(Function[] f, SparsityPattern pattern) {
+		this.f = f;
+		this.n = f.length;
+		this.pattern = pattern;
+		this.y = new double[n];
+		this.f0 = new double[n];
+		this.f1 = new double[n];
+		if (pattern == null) {
+			// one column at a time, without building an n^2 pattern
+			this.groups = null;
+			this.affected = null;
+			return;
+		}
+		this.groups = pattern.color();
+		this.affected = new int[groups.length][];
+		int[] columnPointers = pattern.getColumnPointers();
+		int[] rowIndexes = pattern.getRowIndexes();
+		for (int g = 0; g < groups.length; g++) {
+			int size = 0;
+			for (int j : groups[g]) {
+				size += columnPointers[j + 1] - columnPointers[j];
+			}
+			// columns in a group share no row, so there are no duplicates
+			int[] rows = new int[size];
+			int index = 0;
+			for (int j : groups[g]) {
+				int length = columnPointers[j + 1] - columnPointers[j];
+				System.arraycopy(rowIndexes, columnPointers[j], rows, index,
+						length);
+				index += length;
+			}
+			Arrays.sort(rows);
+			affected[g] = rows;
+		}
+	}
+
+	/**
+	 * returns the number of evaluations of F needed by a Jacobian
+	 *
+	 * @return
+	 */
+	public int getNumberOfGroups() {
+		return pattern == null ? n : groups.length;
+	}
+
+	/**
+	 * returns the sparsity pattern, or null if the Jacobian is dense
+	 * 
+	 * @return
+	 */
+	public SparsityPattern getPattern() {
+		return pattern;
+	}
+
+	@Override
+	public void evaluate(double t, double[] values, double[][] dfdy) {
+		if (pattern == null) {
+			differentiate(t, values, dfdy);
+			return;
+		}
+		if (entries == null) {
+			entries = new double[pattern.getNonZeros()];
+		}
+		differentiate(t, values, entries);
+		int[] rowPointers = pattern.getRowPointers();
+		int[] columnIndexes = pattern.getColumnIndexes();
+		for (int i = 0; i < n; i++) {
+			double[] row = dfdy[i];
+			Arrays.fill(row, 0.);
+			for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+				row[columnIndexes[k]] = entries[k];
+			}
+		}
+	}
+
+	@Override
+	public void evaluate(double t, double[] values, SparseMatrix dfdy) {
+		if (pattern == null) {
+			throw new IllegalStateException("the Jacobian has no pattern");
+		}
+		differentiate(t, values, dfdy.getValues());
+	}
+
+	/**
+	 * computes a dense Jacobian, one column at a time
+	 * 
+	 * @param t
+	 * @param values
+	 * @param dfdy
+	 */
+	private void differentiate(double t, double[] values, double[][] dfdy) {
+		System.arraycopy(values, 0, y, 0, n);
+		for (int i = 0; i < n; i++) {
+			f0[i] = f[i].value(t, y);
+		}
+		for (int j = 0; j < n; j++) {
+			y[j] = values[j] + increment(values[j]);
+			double delta = y[j] - values[j];
+			for (int i = 0; i < n; i++) {
+				dfdy[i][j] = (f[i].value(t, y) - f0[i]) / delta;
+			}
+			y[j] = values[j];
+		}
+	}
+
+	/**
+	 * computes the non zero entries of the Jacobian, in CSR order
+	 *
+	 * @param t
+	 * @param values
+	 * @param entries
+	 */
+	private void differentiate(double t, double[] values, double[] entries) {
+		int[] columnPointers = pattern.getColumnPointers();
+		int[] rowIndexes = pattern.getRowIndexes();
+		int[] positions = pattern.getPositions();
+		System.arraycopy(values, 0, y, 0, n);
+		for (int i = 0; i < n; i++) {
+			f0[i] = f[i].value(t, y);
+		}
+		for (int g = 0; g < groups.length; g++) {
+			int[] columns = groups[g];
+			// perturb every column of the group at once
+			for (int c = 0; c < columns.length; c++) {
+				int j = columns[c];
+				y[j] = values[j] + increment(values[j]);
+			}
+			int[] changed = affected[g];
+			for (int r = 0; r < changed.length; r++) {
+				int i = changed[r];
+				f1[i] = f[i].value(t, y);
+			}
+			// each row belongs to exactly one column of the group
+			for (int c = 0; c < columns.length; c++) {
+				int j = columns[c];
+				double delta = y[j] - values[j];
+				for (int k = columnPointers[j]; k < columnPointers[j + 1]; k++) {
+					int i = rowIndexes[k];
+					entries[positions[k]] = (f1[i] - f0[i]) / delta;
+				}
+				y[j] = values[j];
+			}
+		}
+	}
+
+	private static double increment(double value) {
+		return SQRT_EPSILON * Math.max(Math.abs(value), 1.);
+	}
+
+}
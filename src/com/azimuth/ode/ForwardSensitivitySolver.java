@@ -0,0 +1,352 @@
+package com.azimuth.ode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.azimuth.ode.RungeKuttaSolver.ButcherTableau;
+
+/**
+ * Solves a ParametricProblem together with its forward sensitivities S =
+ * dy/dp, that satisfy
+ *
+ * S' = J(t, y) S + dF/dp (t, y) S(t0) = dy0/dp
+ *
+ * The state and the sensitivities are integrated in a single pass by the same
+ * Runge Kutta method: the stages of the state, the Jacobian and dF/dp are
+ * computed once per stage and shared by all the parameters. When there are
+ * many parameters, their columns are updated in parallel.
+ *
+ * @author marco
+ *
+ */
+public class ForwardSensitivitySolver implements Solver {
+
+	/**
+	 * default constants
+	 */
+	private final static double DEFAULT_STEP_SIZE = 0.05;
+	private final static ButcherTableau DEFAULT_TABLEAU = ButcherTableau.RK4;
+	private final static int DEFAULT_PARALLEL_THRESHOLD = 16;
+
+	/**
+	 * the tableau used to compute the numerical approximation
+	 */
+	private ButcherTableau tableau;
+	/**
+	 * the size of the step
+	 */
+	private double h;
+	/**
+	 * the number of threads used for the sensitivities
+	 */
+	private int threads = Runtime.getRuntime().availableProcessors();
+	/**
+	 * the minimum number of parameters for a parallel update
+	 */
+	private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+	public ForwardSensitivitySolver(double h, ButcherTableau tableau) {
+		this.h = h;
+		this.tableau = tableau;
+	}
+
+	public ForwardSensitivitySolver(double h) {
+		this(h, DEFAULT_TABLEAU);
+	}
+
+	public ForwardSensitivitySolver() {
+		this(DEFAULT_STEP_SIZE, DEFAULT_TABLEAU);
+	}
+
+	/**
+	 * The state of an integration, shared by the tasks that update the
+	 * sensitivities
+	 */
+	private class Integration {
+		private final int numberOfVars;
+		private final int numberOfParameters;
+		private final double[] a;
+		private final double[] b;
+		/**
+		 * current state and sensitivities s[k][j] = d y_j / d p_k
+		 */
+		private final double[] y;
+		private final double[][] s;
+		/**
+		 * stages: k[i][j] for the state, l[i][k][j] for the sensitivities
+		 */
+		private final double[][] k;
+		private final double[][][] l;
+		/**
+		 * Jacobian and dF/dp of the current stage
+		 */
+		private final double[][] dfdy;
+		private final double[][] dfdp;
+
+		private Integration(int numberOfVars, int numberOfParameters) {
+			int numberOfStages = tableau.getStageNumber();
+			this.numberOfVars = numberOfVars;
+			this.numberOfParameters = numberOfParameters;
+			this.a = tableau.getA();
+			this.b = tableau.getB();
+			this.y = new double[numberOfVars];
+			this.s = new double[numberOfParameters][numberOfVars];
+			this.k = new double[numberOfStages][numberOfVars];
+			this.l = new double[numberOfStages][numberOfParameters][numberOfVars];
+			this.dfdy = new double[numberOfVars][numberOfVars];
+			this.dfdp = new double[numberOfVars][numberOfParameters];
+		}
+
+		/**
+		 * computes stage i of the sensitivities of parameters from, ..., to-1
+		 */
+		private void stage(int i, int from, int to, double[] z) {
+			for (int p = from; p < to; p++) {
+				// sensitivity at the stage
+				double[] sp = s[p];
+				for (int j = 0; j < numberOfVars; j++) {
+					double sum = 0.;
+					for (int r = 0; r < i; r++) {
+						sum += a[r + i * (i - 1) / 2] * l[r][p][j];
+					}
+					z[j] = sp[j] + h * sum;
+				}
+				double[] lip = l[i][p];
+				for (int j = 0; j < numberOfVars; j++) {
+					double[] row = dfdy[j];
+					double sum = dfdp[j][p];
+					for (int m = 0; m < numberOfVars; m++) {
+						sum += row[m] * z[m];
+					}
+					lip[j] = sum;
+				}
+			}
+		}
+
+		/**
+		 * advances the sensitivities of parameters from, ..., to-1
+		 */
+		private void update(int from, int to) {
+			for (int p = from; p < to; p++) {
+				double[] sp = s[p];
+				for (int j = 0; j < numberOfVars; j++) {
+					double sum = 0.;
+					for (int r = 0; r < b.length; r++) {
+						sum += b[r] * l[r][p][j];
+					}
+					sp[j] += h * sum;
+				}
+			}
+		}
+	}
+
+	/**
+	 * A task that updates a contiguous range of parameters
+	 */
+	private static class Chunk implements Callable<Void> {
+		private final Integration integration;
+		private final int from;
+		private final int to;
+		private final double[] z;
+		/**
+		 * the stage to compute, or -1 for the final update
+		 */
+		private int stage;
+
+		private Chunk(Integration integration, int from, int to) {
+			this.integration = integration;
+			this.from = from;
+			this.to = to;
+			this.z = new double[integration.numberOfVars];
+		}
+
+		@Override
+		public Void call() {
+			if (stage >= 0) {
+				integration.stage(stage, from, to, z);
+			} else {
+				integration.update(from, to);
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * solves the problem and its sensitivities
+	 *
+	 * @param problem
+	 *            , a ParametricProblem
+	 * @return, a SensitivitySolution
+	 */
+	@Override
+	public SensitivitySolution solve(InitialValueProblem problem) {
+		if (!(problem instanceof ParametricProblem)) {
+			throw new IllegalArgumentException(
+					"sensitivities need a ParametricProblem");
+		}
+		ParametricProblem parametric = (ParametricProblem) problem;
+
+		double[] initialValues = problem.getInitialValue();
+		double lowerBound = problem.getLowerBound();
+		double upperBound = problem.getUpperBound();
+		Function[] f = problem.getDerivatives();
+		Jacobian jacobian = DenseIterationMatrix.createJacobian(problem, f);
+
+		int numberOfVars = f.length;
+		int numberOfParameters = parametric.getNumberOfParameters();
+		int numberOfStages = tableau.getStageNumber();
+		int numberOfSteps = (int) Math.round((upperBound - lowerBound) / h);
+
+		double[] c = tableau.getC();
+		double[] b = tableau.getB();
+		double[] a = tableau.getA();
+
+		// where I store the solution
+		double[][] solution = new double[numberOfVars][numberOfSteps + 1];
+		double[][][] sensitivities = new double[numberOfParameters][numberOfVars][numberOfSteps + 1];
+		double[] times = new double[numberOfSteps + 1];
+
+		Integration integration = new Integration(numberOfVars,
+				numberOfParameters);
+		double[] y = integration.y;
+		double[][] s = integration.s;
+		double[][] k = integration.k;
+		double[] stageValues = new double[numberOfVars];
+
+		// initial conditions
+		double[][] s0 = new double[numberOfVars][numberOfParameters];
+		parametric.initialSensitivity(s0);
+		for (int j = 0; j < numberOfVars; j++) {
+			y[j] = initialValues[j];
+			for (int p = 0; p < numberOfParameters; p++) {
+				s[p][j] = s0[j][p];
+			}
+		}
+		store(integration, solution, sensitivities, 0);
+		times[0] = lowerBound;
+
+		// split the parameters in chunks
+		int numberOfChunks = numberOfParameters >= parallelThreshold ? Math
+				.min(threads, numberOfParameters) : 1;
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		for (int i = 0; i < numberOfChunks; i++) {
+			chunks.add(new Chunk(integration, i * numberOfParameters
+					/ numberOfChunks, (i + 1) * numberOfParameters
+					/ numberOfChunks));
+		}
+		ExecutorService executor = numberOfChunks > 1 ? Executors
+				.newFixedThreadPool(numberOfChunks) : null;
+
+		try {
+			for (int n = 0; n < numberOfSteps; n++) {
+				for (int i = 0; i < numberOfStages; i++) {
+					double t = times[n] + c[i] * h;
+					for (int j = 0; j < numberOfVars; j++) {
+						double sum = 0.;
+						for (int r = 0; r < i; r++) {
+							sum += a[r + i * (i - 1) / 2] * k[r][j];
+						}
+						stageValues[j] = y[j] + h * sum;
+					}
+					for (int j = 0; j < numberOfVars; j++) {
+						k[i][j] = f[j].value(t, stageValues);
+					}
+					jacobian.evaluate(t, stageValues, integration.dfdy);
+					parametric.parameterJacobian(t, stageValues,
+							integration.dfdp);
+					run(executor, chunks, i);
+				}
+				run(executor, chunks, -1);
+				for (int j = 0; j < numberOfVars; j++) {
+					double sum = 0.;
+					for (int r = 0; r < numberOfStages; r++) {
+						sum += b[r] * k[r][j];
+					}
+					y[j] += h * sum;
+				}
+				times[n + 1] = lowerBound + (n + 1) * h;
+				store(integration, solution, sensitivities, n + 1);
+			}
+		} finally {
+			if (executor != null) {
+				executor.shutdown();
+			}
+		}
+		return new SensitivitySolution(times, solution, sensitivities);
+	}
+
+	/**
+	 * runs a stage (or the final update, if stage is -1) on every chunk
+	 */
+	private void run(ExecutorService executor, List<Chunk> chunks, int stage) {
+		for (Chunk chunk : chunks) {
+			chunk.stage = stage;
+		}
+		if (executor == null) {
+			chunks.get(0).call();
+			return;
+		}
+		try {
+			for (Future<Void> future : executor.invokeAll(chunks)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	private void store(Integration integration, double[][] solution,
+			double[][][] sensitivities, int index) {
+		for (int j = 0; j < integration.numberOfVars; j++) {
+			solution[j][index] = integration.y[j];
+			for (int p = 0; p < integration.numberOfParameters; p++) {
+				sensitivities[p][j][index] = integration.s[p][j];
+			}
+		}
+	}
+
+	@Override
+	public double getStepSize() {
+		return h;
+	}
+
+	@Override
+	public void setStepSize(double h) {
+		this.h = h;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * sets the number of threads used to update the sensitivities
+	 *
+	 * @param threads
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public int getParallelThreshold() {
+		return parallelThreshold;
+	}
+
+	/**
+	 * sets the minimum number of parameters for a parallel update
+	 *
+	 * @param parallelThreshold
+	 */
+	public void setParallelThreshold(int parallelThreshold) {
+		this.parallelThreshold = parallelThreshold;
+	}
+
+}
@@ -50,6 +50,18 @@ public abstract class InitialValueProblem {
 			return timesteps;
 		}
 
+		/**
+		 * returns the value of a variable at a timestep
+		 * 
+		 * @param variable
+		 * @param index
+		 *            , the index of the timestep
+		 * @return
+		 */
+		public double getValue(int variable, int index) {
+			return values[variable][index];
+		}
+
 		public void setTimesteps(double[] timesteps) {
 			this.timesteps = timesteps;
 		}
@@ -62,6 +74,7 @@ public abstract class InitialValueProblem {
 		 */
 		public double[][] getValuesGroupedByTime() {
 			// calculate the transpose of matrix values
+			double[][] values = getValues();
 			int numberOfRows = values.length;
 			int numberOfColumns = values[0].length;
 			double[][] t = new double[numberOfColumns][numberOfRows];
@@ -101,6 +114,68 @@ public abstract class InitialValueProblem {
 	 */
 	public abstract Function[] getDerivatives();
 
+	/**
+	 * returns the derivative as a single function, or null if the problem
+	 * only provides its components. Solvers that support it (e.g. the serial
+	 * RungeKuttaSolver) evaluate it instead of the components.
+	 * 
+	 * @return
+	 */
+	public VectorFunction getVectorFunction() {
+		return null;
+	}
+
+	/**
+	 * returns the Jacobian of the derivative, or null if it is not known. In
+	 * that case implicit solvers differentiate the derivatives automatically
+	 * when they are all DifferentiableFunction, and approximate the Jacobian
+	 * by finite differences otherwise.
+	 * 
+	 * @return
+	 */
+	public Jacobian getJacobian() {
+		return null;
+	}
+
+	/**
+	 * returns the sparse Jacobian of the derivative, or null if it is not
+	 * known. It is used only by problems that declare their dependencies.
+	 * 
+	 * @return
+	 */
+	public SparseJacobian getSparseJacobian() {
+		return null;
+	}
+
+	/**
+	 * returns the sparsity structure of the derivative as an array
+	 * dependencies[i] = indexes of the variables f_i depends on, or null if
+	 * every f_i may depend on every variable.
+	 * 
+	 * It is used to reduce the cost of finite difference Jacobians and lets
+	 * implicit solvers store the Jacobian as a sparse matrix and factor a band
+	 * matrix instead of a dense one.
+	 * 
+	 * @return
+	 */
+	public int[][] getDependencies() {
+		return null;
+	}
+
+	/**
+	 * returns a text that identifies the derivatives of the problem, or null
+	 * if it is not known. Two problems with the same definition must have the
+	 * same derivatives for the same parameters; the initial values, the
+	 * bounds and the parameters are not part of it.
+	 * 
+	 * It is used by CachingSolver to recognize problems already solved.
+	 * 
+	 * @return
+	 */
+	public String getDefinition() {
+		return null;
+	}
+
 	public double getLowerBound() {
 		return lowerBound;
 	}
@@ -0,0 +1,122 @@
+package com.azimuth.ode;
+
+import java.util.logging.Logger;
+
+import com.azimuth.linear.SparsityPattern;
+
+/**
+ * The matrix M = I - gamma*J used by implicit and linearly implicit solvers,
+ * together with its LU factorization.
+ *
+ * Both the Jacobian J and the factorization are kept until they are
+ * explicitly refreshed, so that they can be reused across many steps.
+ *
+ * @author marco
+ *
+ */
+abstract class IterationMatrix {
+
+	private final static Logger logger = Logger.getLogger(IterationMatrix.class
+			.getSimpleName());
+
+	/**
+	 * the value of gamma of the current factorization, NaN if none
+	 */
+	private double gamma = Double.NaN;
+
+	/**
+	 * statistics
+	 */
+	private int jacobianEvaluations;
+	private int factorizations;
+
+	/**
+	 * the largest share of the maximum heap that a dense iteration matrix
+	 * falling back from a sparse pattern may take
+	 */
+	private final static double DENSE_HEAP_SHARE = 0.5;
+
+	/**
+	 * creates a sparse iteration matrix if the problem declares its
+	 * dependencies and they fit a narrow band, a dense one otherwise. A
+	 * problem that gives only a dense analytic Jacobian gets a dense matrix,
+	 * so that its Jacobian is used. A sparse pattern too wide for a band
+	 * falls back to a dense matrix, with a warning, unless its Jacobian and
+	 * factorization (2 n^2 doubles) would not fit the heap.
+	 *
+	 * @param problem
+	 * @param f
+	 *            , the derivatives of the problem
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if the dependencies are not banded and a dense matrix does
+	 *             not fit the heap
+	 */
+	static IterationMatrix create(InitialValueProblem problem, Function[] f) {
+		int[][] dependencies = problem.getDependencies();
+		if (dependencies != null
+				&& (problem.getSparseJacobian() != null || problem
+						.getJacobian() == null)) {
+			SparseIterationMatrix matrix = SparseIterationMatrix.create(
+					problem, f, new SparsityPattern(dependencies));
+			if (matrix != null) {
+				return matrix;
+			}
+			double bytes = 16. * f.length * f.length;
+			if (bytes > DENSE_HEAP_SHARE * Runtime.getRuntime().maxMemory()) {
+				throw new IllegalArgumentException("the dependencies of "
+						+ f.length + " variables are not banded, and a dense "
+						+ "iteration matrix needs " + (long) bytes + " bytes");
+			}
+			logger.warning("using a dense " + f.length + "x" + f.length
+					+ " iteration matrix");
+		}
+		return new DenseIterationMatrix(problem, f);
+	}
+
+	/**
+	 * evaluates the Jacobian at (t, y) and invalidates the factorization
+	 *
+	 * @param t
+	 * @param y
+	 */
+	void updateJacobian(double t, double[] y) {
+		evaluateJacobian(t, y);
+		jacobianEvaluations++;
+		gamma = Double.NaN;
+	}
+
+	/**
+	 * factors I - gamma*J, unless it is already factored for this gamma
+	 *
+	 * @param gamma
+	 */
+	void factor(double gamma) {
+		if (gamma == this.gamma) {
+			return;
+		}
+		factorize(gamma);
+		factorizations++;
+		this.gamma = gamma;
+	}
+
+	/**
+	 * solves (I - gamma*J) x = b in place
+	 *
+	 * @param b
+	 */
+	abstract void solve(double[] b);
+
+	protected abstract void evaluateJacobian(double t, double[] y);
+
+	protected abstract void factorize(double gamma);
+
+	int getJacobianEvaluations() {
+		return jacobianEvaluations;
+	}
+
+	int getFactorizations() {
+		return factorizations;
+	}
+
+}
@@ -0,0 +1,23 @@
+package com.azimuth.ode;
+
+/**
+ * This interface represents the Jacobian matrix of the derivative of an IVP
+ *
+ * J(t, y) = dF/dy (t, y)
+ *
+ * @author marco
+ *
+ */
+public interface Jacobian {
+
+	/**
+	 * fills dfdy with the partial derivatives dfdy[i][j] = d f_i / d y_j
+	 * evaluated at (t, y)
+	 *
+	 * @param t
+	 * @param values
+	 * @param dfdy
+	 */
+	public void evaluate(double t, double[] values, double[][] dfdy);
+
+}
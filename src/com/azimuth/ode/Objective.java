@@ -0,0 +1,28 @@
+package com.azimuth.ode;
+
+/**
+ * A scalar loss g(y(tn)) of the final value of an Initial Value Problem
+ *
+ * @see AdjointSolver
+ * @author marco
+ *
+ */
+public interface Objective {
+
+	/**
+	 * returns the loss for the final values
+	 *
+	 * @param values
+	 * @return
+	 */
+	public double value(double[] values);
+
+	/**
+	 * fills dgdy with the gradient of the loss dg/dy
+	 *
+	 * @param values
+	 * @param dgdy
+	 */
+	public void gradient(double[] values, double[] dgdy);
+
+}
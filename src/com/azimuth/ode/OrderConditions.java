@@ -0,0 +1,120 @@
+package com.azimuth.ode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.azimuth.ode.RungeKuttaSolver.ButcherTableau;
+
+/**
+ * The order conditions of explicit Runge Kutta methods.
+ *
+ * A method has order p when, for every rooted tree t with at most p
+ * vertices, its elementary weight equals the inverse of the density of the
+ * tree:
+ *
+ * sum_i b_i Phi_i(t) = 1 / gamma(t)
+ *
+ * where Phi_i of a leaf is 1 and Phi_i of a tree with subtrees u_1, ...,
+ * u_m is prod_k (sum_j a_ij Phi_j(u_k)).
+ *
+ * @see http://en.wikipedia.org/wiki/Butcher_group
+ * @author marco
+ *
+ */
+class OrderConditions {
+
+	/**
+	 * the highest order checked
+	 */
+	final static int MAX_ORDER = 10;
+	/**
+	 * largest accepted relative error of gamma(t) * Phi(t)
+	 */
+	private final static double TOLERANCE = 1e-8;
+
+	/**
+	 * the rooted trees with at most MAX_ORDER vertices, sorted by order:
+	 * children[t] are the indexes of the subtrees of t
+	 */
+	private final static List<int[]> CHILDREN = new ArrayList<int[]>();
+	private final static List<Integer> ORDERS = new ArrayList<Integer>();
+	private final static List<Double> DENSITIES = new ArrayList<Double>();
+
+	static {
+		for (int order = 1; order <= MAX_ORDER; order++) {
+			generate(order, order - 1, ORDERS.size() - 1, new int[order],
+					0);
+		}
+	}
+
+	private OrderConditions() {
+	}
+
+	/**
+	 * adds the trees of the given order whose remaining subtrees have
+	 * indexes at most last, in non increasing order to avoid duplicates
+	 */
+	private static void generate(int order, int remaining, int last,
+			int[] subtrees, int count) {
+		if (remaining == 0) {
+			int[] children = new int[count];
+			System.arraycopy(subtrees, 0, children, 0, count);
+			double density = order;
+			for (int child : children) {
+				density *= DENSITIES.get(child);
+			}
+			CHILDREN.add(children);
+			ORDERS.add(order);
+			DENSITIES.add(density);
+			return;
+		}
+		for (int u = last; u >= 0; u--) {
+			if (ORDERS.get(u) <= remaining) {
+				subtrees[count] = u;
+				generate(order, remaining - ORDERS.get(u), u, subtrees,
+						count + 1);
+			}
+		}
+	}
+
+	/**
+	 * returns the order of the tableau, up to MAX_ORDER
+	 *
+	 * @param tableau
+	 * @return
+	 */
+	static int order(ButcherTableau tableau) {
+		double[] a = tableau.getA();
+		double[] b = tableau.getB();
+		int s = tableau.getStageNumber();
+		// product[u][i] = sum_j a_ij Phi_j(u)
+		double[][] product = new double[CHILDREN.size()][];
+		for (int t = 0; t < CHILDREN.size(); t++) {
+			double[] phi = new double[s];
+			for (int i = 0; i < s; i++) {
+				double value = 1.;
+				for (int u : CHILDREN.get(t)) {
+					value *= product[u][i];
+				}
+				phi[i] = value;
+			}
+			double weight = 0.;
+			for (int i = 0; i < s; i++) {
+				weight += b[i] * phi[i];
+			}
+			if (Math.abs(weight * DENSITIES.get(t) - 1.) > TOLERANCE) {
+				return ORDERS.get(t) - 1;
+			}
+			product[t] = new double[s];
+			for (int i = 0; i < s; i++) {
+				double sum = 0.;
+				for (int j = 0; j < i; j++) {
+					sum += a[j + i * (i - 1) / 2] * phi[j];
+				}
+				product[t][i] = sum;
+			}
+		}
+		return MAX_ORDER;
+	}
+
+}
@@ -0,0 +1,151 @@
+package com.azimuth.ode;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An Initial Value Problem whose derivative depends on a vector of parameters
+ * p
+ *
+ * y' = F(t, y, p) y(t0) = y0(p)
+ *
+ * The derivatives must read the parameters from the array returned by
+ * getParameters() every time they are evaluated, so that solvers can change
+ * them in place. The finite differences of parameterJacobian perturb a copy
+ * of the parameters seen only by the calling thread, so a problem can be
+ * shared by threads.
+ *
+ * @author marco
+ *
+ */
+public abstract class ParametricProblem extends InitialValueProblem {
+
+	private final static double SQRT_EPSILON = Math.sqrt(Math.ulp(1.));
+
+	/**
+	 * vector of parameters
+	 */
+	private double[] parameters;
+
+	/**
+	 * the perturbed copy of the parameters of the thread computing finite
+	 * differences, and the number of such threads
+	 */
+	private final ThreadLocal<double[]> perturbed = new ThreadLocal<double[]>();
+	private final AtomicInteger perturbing = new AtomicInteger();
+
+	public ParametricProblem(double[] parameters) {
+		this.parameters = parameters;
+	}
+
+	/**
+	 * returns the parameters, or their perturbed copy during the finite
+	 * differences of this thread
+	 * 
+	 * @return
+	 */
+	public double[] getParameters() {
+		if (perturbing.get() > 0) {
+			double[] copy = perturbed.get();
+			if (copy != null) {
+				return copy;
+			}
+		}
+		return parameters;
+	}
+
+	public void setParameters(double[] parameters) {
+		this.parameters = parameters;
+	}
+
+	/**
+	 * returns the number of parameters
+	 *
+	 * @return
+	 */
+	public int getNumberOfParameters() {
+		return parameters.length;
+	}
+
+	/**
+	 * fills dfdp with the partial derivatives dfdp[i][k] = d f_i / d p_k
+	 * evaluated at (t, y).
+	 *
+	 * The default implementation uses forward differences and costs one
+	 * evaluation of F for each parameter: override it when the derivatives
+	 * are known.
+	 *
+	 * @param t
+	 * @param values
+	 * @param dfdp
+	 */
+	public void parameterJacobian(double t, double[] values, double[][] dfdp) {
+		Function[] f = getDerivatives();
+		int n = f.length;
+		double[] f0 = new double[n];
+		for (int i = 0; i < n; i++) {
+			f0[i] = f[i].value(t, values);
+		}
+		double[] copy = getParameters().clone();
+		perturbed.set(copy);
+		perturbing.incrementAndGet();
+		try {
+			for (int k = 0; k < copy.length; k++) {
+				double p = copy[k];
+				double delta = SQRT_EPSILON * Math.max(Math.abs(p), 1.);
+				copy[k] = p + delta;
+				delta = copy[k] - p;
+				for (int i = 0; i < n; i++) {
+					dfdp[i][k] = (f[i].value(t, values) - f0[i]) / delta;
+				}
+				copy[k] = p;
+			}
+		} finally {
+			perturbing.decrementAndGet();
+			perturbed.remove();
+		}
+	}
+
+	/**
+	 * computes the product of the transpose of dF/dp with a vector,
+	 * result[k] = sum_i v[i] d f_i / d p_k, as needed by adjoint solvers.
+	 *
+	 * The default implementation builds dF/dp by finite differences, at the
+	 * cost of one evaluation of F for each parameter, so the gradients of
+	 * AdjointSolver cost as much as forward sensitivities: override it to
+	 * make its cost independent of the number of parameters, as Model does.
+	 *
+	 * @param t
+	 * @param values
+	 * @param v
+	 * @param result
+	 */
+	public void parameterVectorProduct(double t, double[] values, double[] v,
+			double[] result) {
+		int n = values.length;
+		double[][] dfdp = new double[n][parameters.length];
+		parameterJacobian(t, values, dfdp);
+		for (int k = 0; k < parameters.length; k++) {
+			double sum = 0.;
+			for (int i = 0; i < n; i++) {
+				sum += v[i] * dfdp[i][k];
+			}
+			result[k] = sum;
+		}
+	}
+
+	/**
+	 * fills s0 with the derivatives of the initial values s0[i][k] = d y0_i /
+	 * d p_k. The default implementation assumes the initial values do not
+	 * depend on the parameters.
+	 *
+	 * @param s0
+	 */
+	public void initialSensitivity(double[][] s0) {
+		for (int i = 0; i < s0.length; i++) {
+			for (int k = 0; k < s0[i].length; k++) {
+				s0[i][k] = 0.;
+			}
+		}
+	}
+
+}
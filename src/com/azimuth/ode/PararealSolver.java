@@ -0,0 +1,405 @@
+package com.azimuth.ode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.azimuth.ode.InitialValueProblem.Solution;
+import com.azimuth.ode.RungeKuttaSolver.ButcherTableau;
+
+/**
+ * A parallel in time solver implementing the Parareal algorithm.
+ *
+ * The interval is split in time slices. A cheap coarse solver G propagates
+ * the initial values sequentially across the slices, then every iteration
+ * solves all the slices concurrently with an accurate fine solver F, and
+ * corrects the values at the boundaries with the sequential sweep
+ *
+ * U[n+1] = G(U'[n]) + F(U[n]) - G(U[n])
+ *
+ * After k iterations the first k slices are exact, so the fine solutions are
+ * recomputed only for the remaining ones. The iterations stop when the
+ * largest relative change of the boundary values is below the tolerance:
+ * with a good coarse solver this happens after few iterations, and the wall
+ * clock time is roughly (iterations + 1) fine slices instead of the whole
+ * interval.
+ *
+ * When the iterations converged, the fine solutions are joined as they are:
+ * at the boundaries the trajectory jumps by the residual of the last
+ * iteration, that is below the tolerance. When they stopped at the maximum
+ * number of iterations, the slices whose initial values were changed by the
+ * last correction are solved again from them before the slices are joined,
+ * so that the trajectory is a fine solution within every slice.
+ *
+ * The fine solver is shared by the worker threads, so it must not keep state
+ * between calls to solve: a RungeKuttaSolver without event handlers does
+ * not. Every slice should contain an integer number of fine and coarse steps.
+ *
+ * @see http://en.wikipedia.org/wiki/Parareal
+ * @author marco
+ *
+ */
+public class PararealSolver implements Solver {
+
+	/**
+	 * default constants
+	 */
+	private final static double DEFAULT_STEP_SIZE = 0.05;
+	private final static int DEFAULT_COARSENING = 10;
+	private final static double DEFAULT_TOLERANCE = 1e-8;
+
+	/**
+	 * the accurate solver, run concurrently on every slice
+	 */
+	private Solver fine;
+	/**
+	 * the cheap solver, run sequentially across the slices
+	 */
+	private Solver coarse;
+	/**
+	 * the number of time slices
+	 */
+	private int slices;
+	/**
+	 * the maximum number of iterations, at most the number of slices
+	 */
+	private int maxIterations;
+	/**
+	 * the largest relative change of the boundary values at convergence
+	 */
+	private double tolerance = DEFAULT_TOLERANCE;
+	/**
+	 * the number of threads solving the slices
+	 */
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * iterations done by the last call to solve
+	 */
+	private int iterations;
+
+	/**
+	 * Creates a Parareal solver
+	 *
+	 * @param fine
+	 *            , the accurate solver
+	 * @param coarse
+	 *            , the cheap solver
+	 * @param slices
+	 *            , the number of time slices
+	 */
+	public PararealSolver(Solver fine, Solver coarse, int slices) {
+		this.fine = fine;
+		this.coarse = coarse;
+		this.slices = slices;
+		this.maxIterations = slices;
+	}
+
+	/**
+	 * Creates a Parareal solver with a fine RK4 solver of step h and a coarse
+	 * Euler solver of step 10h, and one slice for every processor
+	 *
+	 * @param h
+	 *            , the fine step size
+	 */
+	public PararealSolver(double h) {
+		this(new RungeKuttaSolver(h, ButcherTableau.RK4), new RungeKuttaSolver(
+				DEFAULT_COARSENING * h, ButcherTableau.EULER), Runtime
+				.getRuntime().availableProcessors());
+	}
+
+	public PararealSolver() {
+		this(DEFAULT_STEP_SIZE);
+	}
+
+	/**
+	 * A time slice of the problem
+	 */
+	private static class Slice extends InitialValueProblem {
+		private final InitialValueProblem problem;
+		private final Function[] f;
+
+		private Slice(InitialValueProblem problem, Function[] f,
+				double lowerBound, double upperBound) {
+			this.problem = problem;
+			this.f = f;
+			setLowerBound(lowerBound);
+			setUpperBound(upperBound);
+		}
+
+		@Override
+		public Function[] getDerivatives() {
+			return f;
+		}
+
+		@Override
+		public VectorFunction getVectorFunction() {
+			return problem.getVectorFunction();
+		}
+
+		@Override
+		public Jacobian getJacobian() {
+			return problem.getJacobian();
+		}
+
+		@Override
+		public SparseJacobian getSparseJacobian() {
+			return problem.getSparseJacobian();
+		}
+
+		@Override
+		public int[][] getDependencies() {
+			return problem.getDependencies();
+		}
+
+		@Override
+		public String getDefinition() {
+			return problem.getDefinition();
+		}
+	}
+
+	/**
+	 * solves a slice with the fine solver
+	 */
+	private class FineSolve implements Callable<Solution> {
+		private final Slice slice;
+
+		private FineSolve(Slice slice, double[] initialValues) {
+			this.slice = new Slice(slice.problem, slice.f,
+					slice.getLowerBound(), slice.getUpperBound());
+			this.slice.setInitialValue(initialValues.clone());
+		}
+
+		@Override
+		public Solution call() {
+			return fine.solve(slice);
+		}
+	}
+
+	@Override
+	public Solution solve(InitialValueProblem problem) {
+		double lowerBound = problem.getLowerBound();
+		double upperBound = problem.getUpperBound();
+		int numberOfVars = problem.getSize();
+		Function[] f = problem.getDerivatives();
+
+		Slice[] slice = new Slice[slices];
+		for (int n = 0; n < slices; n++) {
+			slice[n] = new Slice(problem, f, lowerBound + n
+					* (upperBound - lowerBound) / slices, lowerBound + (n + 1)
+					* (upperBound - lowerBound) / slices);
+		}
+
+		// u[n] = values at the beginning of slice n, g[n] = coarse
+		// propagation of u[n] to the end of the slice
+		double[][] u = new double[slices + 1][];
+		double[][] g = new double[slices][];
+		Solution[] fineSolutions = new Solution[slices];
+		// the initial values of the fine solutions
+		double[][] starts = new double[slices][];
+		u[0] = problem.getInitialValue().clone();
+		for (int n = 0; n < slices; n++) {
+			g[n] = coarse(slice[n], u[n]);
+			u[n + 1] = g[n].clone();
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+				Math.min(threads, slices)));
+		iterations = 0;
+		try {
+			// slices before first are exact
+			int first = 0;
+			boolean converged = false;
+			while (!converged && first < slices && iterations < maxIterations) {
+				iterations++;
+				List<Future<Solution>> futures = new ArrayList<Future<Solution>>();
+				for (int n = first; n < slices; n++) {
+					futures.add(executor.submit(new FineSolve(slice[n], u[n])));
+					starts[n] = u[n];
+				}
+				// the correction of slice n waits only for its fine solution,
+				// and overlaps with the fine solutions still running
+				double change = 0.;
+				for (int n = first; n < slices; n++) {
+					fineSolutions[n] = get(futures.get(n - first));
+					double[] fineValues = last(fineSolutions[n], numberOfVars);
+					double[] next;
+					if (n == first) {
+						// the initial values of the slice are exact
+						next = fineValues;
+					} else {
+						double[] coarseValues = coarse(slice[n], u[n]);
+						next = new double[numberOfVars];
+						for (int j = 0; j < numberOfVars; j++) {
+							next[j] = coarseValues[j] + fineValues[j] - g[n][j];
+						}
+						g[n] = coarseValues;
+					}
+					for (int j = 0; j < numberOfVars; j++) {
+						change = Math.max(change, Math.abs(next[j] - u[n + 1][j])
+								/ Math.max(1., Math.abs(next[j])));
+					}
+					u[n + 1] = next;
+				}
+				first++;
+				converged = change <= tolerance;
+			}
+			if (!converged) {
+				// the corrected values are new arrays
+				List<Future<Solution>> futures = new ArrayList<Future<Solution>>();
+				for (int n = 0; n < slices; n++) {
+					if (starts[n] != u[n]) {
+						futures.add(executor.submit(new FineSolve(slice[n],
+								u[n])));
+					}
+				}
+				int index = 0;
+				for (int n = 0; n < slices; n++) {
+					if (starts[n] != u[n]) {
+						fineSolutions[n] = get(futures.get(index++));
+					}
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		// join the fine solutions of the slices
+		int size = 1;
+		for (int n = 0; n < slices; n++) {
+			size += fineSolutions[n].getTimesteps().length - 1;
+		}
+		double[][] values = new double[numberOfVars][size];
+		double[] times = new double[size];
+		int offset = 0;
+		for (int n = 0; n < slices; n++) {
+			double[] subTimes = fineSolutions[n].getTimesteps();
+			double[][] subValues = fineSolutions[n].getValues();
+			// the first point of a slice is the last of the previous one
+			int from = n == 0 ? 0 : 1;
+			int length = subTimes.length - from;
+			System.arraycopy(subTimes, from, times, offset, length);
+			for (int j = 0; j < numberOfVars; j++) {
+				System.arraycopy(subValues[j], from, values[j], offset, length);
+			}
+			offset += length;
+		}
+		return new Solution(times, values);
+	}
+
+	/**
+	 * propagates the values across a slice with the coarse solver
+	 */
+	private double[] coarse(Slice slice, double[] initialValues) {
+		slice.setInitialValue(initialValues);
+		return last(coarse.solve(slice), initialValues.length);
+	}
+
+	private static double[] last(Solution solution, int numberOfVars) {
+		double[][] values = solution.getValues();
+		double[] last = new double[numberOfVars];
+		for (int j = 0; j < numberOfVars; j++) {
+			last[j] = values[j][values[j].length - 1];
+		}
+		return last;
+	}
+
+	private static Solution get(Future<Solution> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * returns the number of iterations done by the last call to solve
+	 *
+	 * @return
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	public int getMaxIterations() {
+		return maxIterations;
+	}
+
+	/**
+	 * sets the maximum number of iterations; with as many iterations as
+	 * slices the solution equals the one of the fine solver
+	 *
+	 * @param maxIterations
+	 */
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	/**
+	 * sets the largest relative change of the boundary values between two
+	 * iterations at convergence
+	 *
+	 * @param tolerance
+	 */
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	public int getSlices() {
+		return slices;
+	}
+
+	public void setSlices(int slices) {
+		this.slices = slices;
+		this.maxIterations = slices;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * sets the number of threads solving the slices
+	 *
+	 * @param threads
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public Solver getFine() {
+		return fine;
+	}
+
+	public Solver getCoarse() {
+		return coarse;
+	}
+
+	/**
+	 * returns the step size of the fine solver
+	 */
+	@Override
+	public double getStepSize() {
+		return fine.getStepSize();
+	}
+
+	/**
+	 * sets the step size of the fine solver
+	 */
+	@Override
+	public void setStepSize(double h) {
+		fine.setStepSize(h);
+	}
+
+}
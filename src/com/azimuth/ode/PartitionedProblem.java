@@ -0,0 +1,77 @@
+package com.azimuth.ode;
+
+/**
+ * An Initial Value Problem whose variables are split in positions q and
+ * momenta p of the same dimension,
+ *
+ * q' = f(t, p) p' = g(t, q)
+ *
+ * as for separable Hamiltonian systems H(q, p) = T(p) + V(q), where f = dT/dp
+ * and g = -dV/dq. The values are arranged as [q_1, ..., q_d, p_1, ..., p_d].
+ *
+ * The functions receive the whole vector of values, but the position
+ * derivatives must depend only on the momenta and the momentum derivatives
+ * only on the positions: symplectic solvers evaluate them on states where
+ * the other half is not up to date.
+ *
+ * @see SymplecticSolver
+ * @author marco
+ *
+ */
+public abstract class PartitionedProblem extends InitialValueProblem {
+
+	/**
+	 * the derivatives of the problem as a single vector, for the other
+	 * solvers
+	 */
+	private Function[] derivatives;
+
+	/**
+	 * returns the derivatives of the positions (f1, ..., fd)
+	 *
+	 * @return
+	 */
+	public abstract Function[] getPositionDerivatives();
+
+	/**
+	 * returns the derivatives of the momenta (g1, ..., gd)
+	 *
+	 * @return
+	 */
+	public abstract Function[] getMomentumDerivatives();
+
+	/**
+	 * returns the Hamiltonian H(q, p), or null if it is not known. It is not
+	 * needed by the solvers, but it lets callers check the energy error.
+	 *
+	 * @return
+	 */
+	public Function getHamiltonian() {
+		return null;
+	}
+
+	/**
+	 * returns the number of positions d
+	 *
+	 * @return
+	 */
+	public int getDimension() {
+		return getPositionDerivatives().length;
+	}
+
+	/**
+	 * returns the position derivatives followed by the momentum derivatives
+	 */
+	@Override
+	public Function[] getDerivatives() {
+		if (derivatives == null) {
+			Function[] f = getPositionDerivatives();
+			Function[] g = getMomentumDerivatives();
+			derivatives = new Function[f.length + g.length];
+			System.arraycopy(f, 0, derivatives, 0, f.length);
+			System.arraycopy(g, 0, derivatives, f.length, g.length);
+		}
+		return derivatives;
+	}
+
+}
@@ -0,0 +1,166 @@
+package com.azimuth.ode;
+
+/**
+ * A linearly implicit solver for stiff ODE implementing the two stage
+ * Rosenbrock method ROS2
+ *
+ * (I - gamma h J) k1 = F(t_n, y_n)
+ * (I - gamma h J) k2 = F(t_n + h, y_n + h k1) - 2 k1
+ * y_{n+1} = y_n + 3/2 h k1 + 1/2 h k2
+ *
+ * with gamma = 1 + 1/sqrt(2). No nonlinear system is solved: each step costs
+ * two linear solves with the same matrix.
+ *
+ * ROS2 keeps its second order with any approximation of J, so the Jacobian
+ * and its factorization can be reused for several steps.
+ *
+ * @see J.G. Verwer, E.J. Spee, J.G. Blom, W. Hundsdorfer, A second order
+ *      Rosenbrock method applied to photochemical dispersion problems, SIAM
+ *      J. Sci. Comput. 20 (1999)
+ * @author marco
+ *
+ */
+public class RosenbrockSolver implements Solver {
+
+	/**
+	 * default constants
+	 */
+	private final static double DEFAULT_STEP_SIZE = 0.05;
+	private final static int DEFAULT_JACOBIAN_UPDATE_INTERVAL = 5;
+
+	private final static double GAMMA = 1. + 1. / Math.sqrt(2.);
+
+	/**
+	 * the size of the step
+	 */
+	private double h;
+	/**
+	 * the number of steps between two evaluations of the Jacobian
+	 */
+	private int jacobianUpdateInterval = DEFAULT_JACOBIAN_UPDATE_INTERVAL;
+
+	/**
+	 * statistics of the last call to solve
+	 */
+	private int jacobianEvaluations;
+	private int factorizations;
+
+	/**
+	 * Creates a Rosenbrock solver
+	 *
+	 * @param h
+	 *            , step size
+	 */
+	public RosenbrockSolver(double h) {
+		this.h = h;
+	}
+
+	public RosenbrockSolver() {
+		this(DEFAULT_STEP_SIZE);
+	}
+
+	@Override
+	public InitialValueProblem.Solution solve(InitialValueProblem problem) {
+		double[] initialValues = problem.getInitialValue();
+		double lowerBound = problem.getLowerBound();
+		double upperBound = problem.getUpperBound();
+
+		Function[] f = problem.getDerivatives();
+		int numberOfVars = f.length;
+		int numberOfSteps = (int) Math.round((upperBound - lowerBound) / h);
+
+		double[][] solution = new double[numberOfVars][numberOfSteps + 1];
+		double[] times = new double[numberOfSteps + 1];
+		for (int m = 0; m < numberOfVars; m++) {
+			solution[m][0] = initialValues[m];
+		}
+		times[0] = lowerBound;
+
+		IterationMatrix matrix = IterationMatrix.create(problem, f);
+		// workspace
+		double[] y = new double[numberOfVars];
+		double[] k1 = new double[numberOfVars];
+		double[] k2 = new double[numberOfVars];
+
+		for (int n = 0; n < numberOfSteps; n++) {
+			double t = times[n];
+			for (int j = 0; j < numberOfVars; j++) {
+				y[j] = solution[j][n];
+			}
+			if (n % jacobianUpdateInterval == 0) {
+				matrix.updateJacobian(t, y);
+			}
+			matrix.factor(GAMMA * h);
+			// first stage
+			for (int j = 0; j < numberOfVars; j++) {
+				k1[j] = f[j].value(t, y);
+			}
+			matrix.solve(k1);
+			// second stage
+			for (int j = 0; j < numberOfVars; j++) {
+				y[j] = solution[j][n] + h * k1[j];
+			}
+			for (int j = 0; j < numberOfVars; j++) {
+				k2[j] = f[j].value(t + h, y) - 2. * k1[j];
+			}
+			matrix.solve(k2);
+			for (int j = 0; j < numberOfVars; j++) {
+				solution[j][n + 1] = solution[j][n] + h
+						* (1.5 * k1[j] + 0.5 * k2[j]);
+			}
+			times[n + 1] = lowerBound + (n + 1) * h;
+		}
+		jacobianEvaluations = matrix.getJacobianEvaluations();
+		factorizations = matrix.getFactorizations();
+		return new InitialValueProblem.Solution(times, solution);
+	}
+
+	@Override
+	public double getStepSize() {
+		return h;
+	}
+
+	@Override
+	public void setStepSize(double h) {
+		this.h = h;
+	}
+
+	public int getJacobianUpdateInterval() {
+		return jacobianUpdateInterval;
+	}
+
+	/**
+	 * sets the number of steps between two evaluations of the Jacobian; 1
+	 * evaluates it at every step
+	 *
+	 * @param jacobianUpdateInterval
+	 *            , at least 1
+	 */
+	public void setJacobianUpdateInterval(int jacobianUpdateInterval) {
+		if (jacobianUpdateInterval < 1) {
+			throw new IllegalArgumentException(
+					"the Jacobian update interval must be at least 1");
+		}
+		this.jacobianUpdateInterval = jacobianUpdateInterval;
+	}
+
+	/**
+	 * returns the number of Jacobians evaluated by the last call to solve
+	 *
+	 * @return
+	 */
+	public int getJacobianEvaluations() {
+		return jacobianEvaluations;
+	}
+
+	/**
+	 * returns the number of LU factorizations computed by the last call to
+	 * solve
+	 *
+	 * @return
+	 */
+	public int getFactorizations() {
+		return factorizations;
+	}
+
+}
@@ -1,9 +1,22 @@
 package com.azimuth.ode;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * A solver for ODE implementing the generic Runge Kutta algorithm
  * 
+ * Event handlers are checked at the end of every step, and can stop the
+ * integration at the time of their event.
+ * 
+ * The stages of systems with many variables are evaluated in parallel, on
+ * chunks of variables handled by a pool of threads that lives as long as
+ * the integration.
+ * 
  * @see http://en.wikipedia.org/wiki/Runge-Kutta_methods
  * @author marco
  * 
@@ -15,54 +28,464 @@ public class RungeKuttaSolver implements Solver{
 	 */
 	private final static double DEFAULT_STEP_SIZE = 0.05;
 	private final static ButcherTableau DEFAULT_TABLEAU = ButcherTableau.RK4;
+	private final static int DEFAULT_PARALLEL_THRESHOLD = 10000;
 
 
 	/**
 	 * The Butcher Tableau is a matrix of coefficients used in the Runge-Kutta
 	 * method
 	 * 
+	 * Tableaus can be defined at runtime, or read from text: they are
+	 * validated when created and their order is computed from the order
+	 * conditions. Each tableau also keeps the lists of its non zero
+	 * coefficients, so that the solver skips the zeros of the matrix and the
+	 * stages that do not contribute to the solution.
+	 * 
 	 * @see http://en.wikipedia.org/wiki/Runge-Kutta_methods
+	 * @see http://en.wikipedia.org/wiki/List_of_Runge-Kutta_methods
 	 * @author marco
 	 * 
 	 */
-	public enum ButcherTableau {
+	public static class ButcherTableau {
 
-		EULER(new double[] {}, new double[] { 1. }, new double[] { 0. }), 
-		TRAPEZOIDAL(
-				new double[] { 1. }, new double[] { 0.5, 0.5 },
-				new double[] { 1. }), 
-	    MIDPOINT(new double[] { 1. / 2. },
-				new double[] { 0., 1. / 2. }, new double[] { 0., 1. }), 
-		RK4(
+		private final static double ROW_SUM_TOLERANCE = 1e-12;
+
+		public final static ButcherTableau EULER = new ButcherTableau("EULER",
+				new double[] {}, new double[] { 1. }, new double[] { 0. }, 1);
+		public final static ButcherTableau TRAPEZOIDAL = new ButcherTableau(
+				"TRAPEZOIDAL", new double[] { 1. }, new double[] { 0.5, 0.5 },
+				new double[] { 0., 1. }, 2);
+		public final static ButcherTableau MIDPOINT = new ButcherTableau(
+				"MIDPOINT", new double[] { 1. / 2. },
+				new double[] { 0., 1. }, new double[] { 0., 1. / 2. }, 2);
+		/**
+		 * Kutta's third order method
+		 */
+		public final static ButcherTableau RK3 = new ButcherTableau("RK3",
+				new double[] { 1. / 2., -1., 2. }, new double[] { 1. / 6.,
+						2. / 3., 1. / 6. }, new double[] { 0., 1. / 2., 1. }, 3);
+		public final static ButcherTableau RK4 = new ButcherTableau("RK4",
 				new double[] { 1. / 2., 0., 1. / 2., 0., 0., 1. },
 				new double[] { 1. / 6., 1. / 3., 1. / 3., 1. / 6. },
-				new double[] { 0, 1. / 2., 1. / 2., 1. });
+				new double[] { 0, 1. / 2., 1. / 2., 1. }, 4);
+		/**
+		 * Kutta's 3/8 rule
+		 */
+		public final static ButcherTableau RK38 = new ButcherTableau("RK38",
+				new double[] { 1. / 3., -1. / 3., 1., 1., -1., 1. },
+				new double[] { 1. / 8., 3. / 8., 3. / 8., 1. / 8. },
+				new double[] { 0., 1. / 3., 2. / 3., 1. }, 4);
+		/**
+		 * Butcher's sixth order method with seven stages
+		 */
+		public final static ButcherTableau BUTCHER6 = fromMatrix("BUTCHER6",
+				new double[][] {
+						{},
+						{ 1. / 3. },
+						{ 0., 2. / 3. },
+						{ 1. / 12., 1. / 3., -1. / 12. },
+						{ -1. / 16., 9. / 8., -3. / 16., -3. / 8. },
+						{ 0., 9. / 8., -3. / 8., -3. / 4., 1. / 2. },
+						{ 9. / 44., -9. / 11., 63. / 44., 18. / 11., 0.,
+								-16. / 11. } }, new double[] { 11. / 120.,
+						0., 27. / 40., 27. / 40., -4. / 15., -4. / 15.,
+						11. / 120. }, 6);
+		/**
+		 * the seventh order solution of Fehlberg's RK7(8) method
+		 */
+		public final static ButcherTableau FEHLBERG7 = fromMatrix("FEHLBERG7",
+				fehlberg(11), new double[] { 41. / 840., 0., 0., 0., 0.,
+						34. / 105., 9. / 35., 9. / 35., 9. / 280., 9. / 280.,
+						41. / 840. }, 7);
+		/**
+		 * the eighth order solution of Fehlberg's RK7(8) method
+		 */
+		public final static ButcherTableau FEHLBERG8 = fromMatrix("FEHLBERG8",
+				fehlberg(13), new double[] { 0., 0., 0., 0., 0., 34. / 105.,
+						9. / 35., 9. / 35., 9. / 280., 9. / 280., 0.,
+						41. / 840., 41. / 840. }, 8);
+
+		private final static ButcherTableau[] VALUES = { EULER, TRAPEZOIDAL,
+				MIDPOINT, RK3, RK4, RK38, BUTCHER6, FEHLBERG7, FEHLBERG8 };
 
+		private final String name;
 		private final double[] a;
 		private final double[] b;
 		private final double[] c;
+		/**
+		 * the order, computed when first needed
+		 */
+		private int order;
+
+		/**
+		 * the non zero coefficients: stage i depends on the stages
+		 * stageIndexes[i] with coefficients stageCoefficients[i], and the
+		 * solution on the stages weightIndexes with coefficients
+		 * weightCoefficients. stageIndexes[i] is null for the stages that do
+		 * not contribute to the solution.
+		 */
+		private final int[][] stageIndexes;
+		private final double[][] stageCoefficients;
+		private final int[] weightIndexes;
+		private final double[] weightCoefficients;
+
+		/**
+		 * Creates a tableau from its coefficients
+		 * 
+		 * @param name
+		 * @param a
+		 *            , the strictly lower triangular matrix packed by rows,
+		 *            a_ij = a[j + i*(i-1)/2] for j < i
+		 * @param b
+		 *            , the weights
+		 * @param c
+		 *            , the nodes, each equal to the sum of its row of a
+		 */
+		public ButcherTableau(String name, double[] a, double[] b, double[] c) {
+			if (name == null || name.length() == 0) {
+				throw new IllegalArgumentException(
+						"a tableau must have a name");
+			}
+			int s = c.length;
+			if (s == 0 || b.length != s || a.length != s * (s - 1) / 2) {
+				throw new IllegalArgumentException("tableau " + name
+						+ " has inconsistent sizes");
+			}
+			for (int i = 0; i < s; i++) {
+				double sum = 0.;
+				for (int j = 0; j < i; j++) {
+					sum += a[j + i * (i - 1) / 2];
+				}
+				if (Math.abs(sum - c[i]) > ROW_SUM_TOLERANCE
+						* Math.max(1., Math.abs(c[i]))) {
+					throw new IllegalArgumentException("tableau " + name
+							+ ": c[" + i + "] is not the sum of row " + i
+							+ " of a");
+				}
+			}
+			this.name = name;
+			this.a = a.clone();
+			this.b = b.clone();
+			this.c = c.clone();
+
+			// a stage is needed if the solution or a needed stage depends on
+			// it
+			boolean[] needed = new boolean[s];
+			for (int i = s - 1; i >= 0; i--) {
+				needed[i] |= b[i] != 0.;
+				if (needed[i]) {
+					for (int j = 0; j < i; j++) {
+						needed[j] |= a[j + i * (i - 1) / 2] != 0.;
+					}
+				}
+			}
+			stageIndexes = new int[s][];
+			stageCoefficients = new double[s][];
+			for (int i = 0; i < s; i++) {
+				if (!needed[i]) {
+					continue;
+				}
+				int count = 0;
+				for (int j = 0; j < i; j++) {
+					if (a[j + i * (i - 1) / 2] != 0.) {
+						count++;
+					}
+				}
+				stageIndexes[i] = new int[count];
+				stageCoefficients[i] = new double[count];
+				count = 0;
+				for (int j = 0; j < i; j++) {
+					if (a[j + i * (i - 1) / 2] != 0.) {
+						stageIndexes[i][count] = j;
+						stageCoefficients[i][count++] = a[j + i * (i - 1) / 2];
+					}
+				}
+			}
+			int count = 0;
+			for (int i = 0; i < s; i++) {
+				if (b[i] != 0.) {
+					count++;
+				}
+			}
+			weightIndexes = new int[count];
+			weightCoefficients = new double[count];
+			count = 0;
+			for (int i = 0; i < s; i++) {
+				if (b[i] != 0.) {
+					weightIndexes[count] = i;
+					weightCoefficients[count++] = b[i];
+				}
+			}
+		}
+
+		/**
+		 * Creates a tableau and checks that it satisfies the order
+		 * conditions up to the given order
+		 * 
+		 * @param name
+		 * @param a
+		 * @param b
+		 * @param c
+		 * @param order
+		 *            , the expected order
+		 */
+		public ButcherTableau(String name, double[] a, double[] b,
+				double[] c, int order) {
+			this(name, a, b, c);
+			if (getOrder() < order) {
+				throw new IllegalArgumentException("tableau " + name
+						+ " has order " + getOrder() + ", not " + order);
+			}
+		}
+
+		/**
+		 * Creates a tableau from the rows of a, computing the nodes as their
+		 * sums
+		 * 
+		 * @param name
+		 * @param a
+		 *            , the rows of a: row i must have no non zero elements
+		 *            after the first i
+		 * @param b
+		 * @param order
+		 *            , the expected order, or 0 to skip the check
+		 * @return
+		 */
+		public static ButcherTableau fromMatrix(String name, double[][] a,
+				double[] b, int order) {
+			int s = a.length;
+			double[] packed = new double[s * (s - 1) / 2];
+			double[] c = new double[s];
+			for (int i = 0; i < s; i++) {
+				for (int j = 0; j < a[i].length; j++) {
+					if (j >= i) {
+						if (a[i][j] != 0.) {
+							throw new IllegalArgumentException("tableau "
+									+ name + " is not explicit");
+						}
+						continue;
+					}
+					packed[j + i * (i - 1) / 2] = a[i][j];
+					c[i] += a[i][j];
+				}
+			}
+			return new ButcherTableau(name, packed, b, c, order);
+		}
+
+		/**
+		 * reads a tableau in its usual layout, one row of c and a per line
+		 * followed by the weights,
+		 * 
+		 * <pre>
+		 * 0   |
+		 * 1/2 | 1/2
+		 * 1/2 | 0   1/2
+		 * 1   | 0   0   1
+		 * ----+----------------
+		 *     | 1/6 1/3 1/3 1/6
+		 * </pre>
+		 * 
+		 * where the coefficients are decimal numbers or fractions. Empty
+		 * lines, separators and lines starting with # are ignored.
+		 * 
+		 * @param name
+		 * @param reader
+		 * @param order
+		 *            , the expected order, or 0 to skip the check
+		 * @return
+		 * @throws IOException
+		 */
+		public static ButcherTableau read(String name, Reader reader,
+				int order) throws IOException {
+			BufferedReader lines = new BufferedReader(reader);
+			List<double[]> rows = new ArrayList<double[]>();
+			List<Double> nodes = new ArrayList<Double>();
+			double[] weights = null;
+			String line;
+			while ((line = lines.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")
+						|| line.matches("[-+=|\\s]+")) {
+					continue;
+				}
+				int bar = line.indexOf('|');
+				if (bar < 0) {
+					throw new IOException("missing | in line: " + line);
+				}
+				String node = line.substring(0, bar).trim();
+				double[] row = parseRow(line.substring(bar + 1).trim());
+				if (node.length() == 0) {
+					weights = row;
+				} else {
+					nodes.add(parseNumber(node));
+					rows.add(row);
+				}
+			}
+			if (weights == null) {
+				throw new IOException("missing weights");
+			}
+			double[][] a = rows.toArray(new double[rows.size()][]);
+			ButcherTableau tableau = fromMatrix(name, a, weights, order);
+			for (int i = 0; i < nodes.size(); i++) {
+				if (Math.abs(nodes.get(i) - tableau.c[i]) > ROW_SUM_TOLERANCE
+						* Math.max(1., Math.abs(tableau.c[i]))) {
+					throw new IllegalArgumentException("tableau " + name
+							+ ": c[" + i + "] is not the sum of row " + i
+							+ " of a");
+				}
+			}
+			return tableau;
+		}
+
+		private static double[] parseRow(String row) throws IOException {
+			if (row.length() == 0) {
+				return new double[0];
+			}
+			String[] tokens = row.split("\\s+");
+			double[] values = new double[tokens.length];
+			for (int i = 0; i < tokens.length; i++) {
+				values[i] = parseNumber(tokens[i]);
+			}
+			return values;
+		}
+
+		private static double parseNumber(String token) throws IOException {
+			try {
+				int slash = token.indexOf('/');
+				if (slash < 0) {
+					return Double.parseDouble(token);
+				}
+				return Double.parseDouble(token.substring(0, slash))
+						/ Double.parseDouble(token.substring(slash + 1));
+			} catch (NumberFormatException e) {
+				throw new IOException("not a number: " + token);
+			}
+		}
+
+		/**
+		 * returns the first rows of the matrix of Fehlberg's RK7(8) method
+		 */
+		private static double[][] fehlberg(int stages) {
+			double[][] a = {
+					{},
+					{ 2. / 27. },
+					{ 1. / 36., 1. / 12. },
+					{ 1. / 24., 0., 1. / 8. },
+					{ 5. / 12., 0., -25. / 16., 25. / 16. },
+					{ 1. / 20., 0., 0., 1. / 4., 1. / 5. },
+					{ -25. / 108., 0., 0., 125. / 108., -65. / 27.,
+							125. / 54. },
+					{ 31. / 300., 0., 0., 0., 61. / 225., -2. / 9.,
+							13. / 900. },
+					{ 2., 0., 0., -53. / 6., 704. / 45., -107. / 9.,
+							67. / 90., 3. },
+					{ -91. / 108., 0., 0., 23. / 108., -976. / 135.,
+							311. / 54., -19. / 60., 17. / 6., -1. / 12. },
+					{ 2383. / 4100., 0., 0., -341. / 164., 4496. / 1025.,
+							-301. / 82., 2133. / 4100., 45. / 82.,
+							45. / 164., 18. / 41. },
+					{ 3. / 205., 0., 0., 0., 0., -6. / 41., -3. / 205.,
+							-3. / 41., 3. / 41., 6. / 41., 0. },
+					{ -1777. / 4100., 0., 0., -341. / 164., 4496. / 1025.,
+							-289. / 82., 2193. / 4100., 51. / 82.,
+							33. / 164., 12. / 41., 0., 1. } };
+			double[][] rows = new double[stages][];
+			System.arraycopy(a, 0, rows, 0, stages);
+			return rows;
+		}
+
+		/**
+		 * returns the predefined tableaus
+		 * 
+		 * @return
+		 */
+		public static ButcherTableau[] values() {
+			return VALUES.clone();
+		}
+
+		/**
+		 * returns the predefined tableau with the given name
+		 * 
+		 * @param name
+		 * @return
+		 */
+		public static ButcherTableau valueOf(String name) {
+			for (ButcherTableau tableau : VALUES) {
+				if (tableau.name.equals(name)) {
+					return tableau;
+				}
+			}
+			throw new IllegalArgumentException("no tableau " + name);
+		}
 
-		ButcherTableau(double[] a, double[] b, double[] c) {
-			this.a = a;
-			this.b = b;
-			this.c = c;
+		public String name() {
+			return name;
 		}
 
+		/**
+		 * returns a copy of the matrix a, packed by rows
+		 * 
+		 * @return
+		 */
 		public double[] getA() {
-			return a;
+			return a.clone();
 		}
 
+		/**
+		 * returns a copy of the weights
+		 * 
+		 * @return
+		 */
 		public double[] getB() {
-			return b;
+			return b.clone();
 		}
 
+		/**
+		 * returns a copy of the nodes
+		 * 
+		 * @return
+		 */
 		public double[] getC() {
-			return c;
+			return c.clone();
 		}
 
 		public int getStageNumber() {
 			return c.length;
 		}
+
+		/**
+		 * returns the order of the method, i.e. the highest p such that
+		 * every order condition up to p is satisfied
+		 * 
+		 * @return
+		 */
+		public synchronized int getOrder() {
+			if (order == 0) {
+				order = OrderConditions.order(this);
+			}
+			return order;
+		}
+
+		int[][] getStageIndexes() {
+			return stageIndexes;
+		}
+
+		double[][] getStageCoefficients() {
+			return stageCoefficients;
+		}
+
+		int[] getWeightIndexes() {
+			return weightIndexes;
+		}
+
+		double[] getWeightCoefficients() {
+			return weightCoefficients;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
 	}
 
 	/**
@@ -73,6 +496,31 @@ public class RungeKuttaSolver implements Solver{
 	 * the size of the step
 	 */
 	private double h = Double.NaN;
+	/**
+	 * handlers of the events checked during the integration
+	 */
+	private final List<EventHandler> eventHandlers = new ArrayList<EventHandler>();
+	/**
+	 * whether every step is stored in the solution
+	 */
+	private boolean storeTrajectory = true;
+	/**
+	 * the number of threads evaluating the stages of wide systems
+	 */
+	private int threads = Runtime.getRuntime().availableProcessors();
+	/**
+	 * the minimum number of variables evaluated in parallel
+	 */
+	private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+	/**
+	 * whether the steps are computed by a kernel compiled for the tableau
+	 */
+	private boolean compiled;
+	/**
+	 * the encoding of the stored trajectory, or null for doubles
+	 */
+	private CompactSolution.Encoding storage;
+	private double errorBound;
 
 	/**
 	 * Creates an instance of a generic Runge Kutta Solver
@@ -106,6 +554,152 @@ public class RungeKuttaSolver implements Solver{
 		this.h = DEFAULT_STEP_SIZE;
 	}
 
+	/**
+	 * The state of an integration, advanced by one step every time it runs.
+	 * 
+	 * Every chunk of variables updates only its own stage values, stages and
+	 * next values; the only point where a chunk needs the others is before
+	 * evaluating a stage, since every f_j may read all the stage values. The
+	 * stage values alternate between two buffers, so a chunk can write the
+	 * next stage while the others are still reading the previous one, and
+	 * a stage costs a single synchronization.
+	 */
+	private class Integration implements StagePool.Task {
+		private final Function[] f;
+		// the derivative as a whole, if the problem provides it
+		private final VectorFunction vector;
+		// the non zero coefficients of the current Butcher Tableau
+		private final int[][] stageIndexes;
+		private final double[][] stageCoefficients;
+		private final int[] weightIndexes;
+		private final double[] weightCoefficients;
+		private final double[] c;
+		private final StagePool pool;
+		// the compiled step, if any
+		private final StepKernel kernel;
+		// the current and the next values
+		private double[] current;
+		private double[] next;
+		// create a stage matrix: k[i][j] = i-th stage for variable j
+		private final double[][] k;
+		private final double[][] y;
+		// derivative at the end of the step, computed only when needed by
+		// the events
+		private double[] derivative;
+		private boolean haveDerivative;
+		private double time;
+		private double nextTime;
+
+		private Integration(Function[] f, VectorFunction vector,
+				int numberOfVars, StagePool pool, StepKernel kernel) {
+			this.f = f;
+			this.vector = vector;
+			this.pool = pool;
+			this.kernel = kernel;
+			this.stageIndexes = tableau.getStageIndexes();
+			this.stageCoefficients = tableau.getStageCoefficients();
+			this.weightIndexes = tableau.getWeightIndexes();
+			this.weightCoefficients = tableau.getWeightCoefficients();
+			this.c = tableau.getC();
+			this.current = new double[numberOfVars];
+			this.next = new double[numberOfVars];
+			this.k = new double[tableau.getStageNumber()][numberOfVars];
+			this.y = new double[2][numberOfVars];
+		}
+
+		/**
+		 * computes the step from time to nextTime
+		 */
+		private void step() {
+			if (haveDerivative) {
+				// k1 = F(t_n, y_n) is known from the previous step
+				double[] tmp = k[0];
+				k[0] = derivative;
+				derivative = tmp;
+			}
+			if (pool != null) {
+				pool.run(this);
+			} else if (kernel != null) {
+				kernel.step(f, time, h, current, next, k, y[0], haveDerivative);
+				if (derivative != null) {
+					for (int j = 0; j < current.length; j++) {
+						derivative[j] = f[j].value(nextTime, next);
+					}
+				}
+			} else {
+				run(0, current.length);
+			}
+		}
+
+		@Override
+		public void run(int from, int to) {
+			// the buffer of the next stage values
+			int buffer = 0;
+			// update matrix k
+			for (int i = 0; i < k.length; i++) {
+				int[] indexes = stageIndexes[i];
+				if (indexes == null || (i == 0 && haveDerivative)) {
+					// the stage does not contribute to the solution, or it
+					// is known
+					continue;
+				}
+				double[] yi;
+				if (indexes.length == 0) {
+					// the stage is evaluated at the current values
+					yi = current;
+				} else {
+					yi = y[buffer];
+					buffer ^= 1;
+					double[] coefficients = stageCoefficients[i];
+					// compute midpoint values, skipping the zeros of a
+					for (int j = from; j < to; j++) {
+						double sum = 0.;
+						for (int s = 0; s < indexes.length; s++) {
+							sum += coefficients[s] * k[indexes[s]][j];
+						}
+						yi[j] = current[j] + h * sum;
+					}
+					await();
+				}
+				// compute midpoint time
+				double t = time + c[i] * h;
+				// calculate ki for each var
+				double[] ki = k[i];
+				if (vector != null) {
+					vector.value(t, yi, ki);
+				} else {
+					for (int j = from; j < to; j++) {
+						ki[j] = f[j].value(t, yi);
+					}
+				}
+			}
+			// calculate the next approximate value
+			for (int j = from; j < to; j++) {
+				double sum = 0.;
+				for (int s = 0; s < weightIndexes.length; s++) {
+					sum += weightCoefficients[s] * k[weightIndexes[s]][j];
+				}
+				next[j] = current[j] + h * sum;
+			}
+			if (derivative != null) {
+				await();
+				if (vector != null) {
+					vector.value(nextTime, next, derivative);
+				} else {
+					for (int j = from; j < to; j++) {
+						derivative[j] = f[j].value(nextTime, next);
+					}
+				}
+			}
+		}
+
+		private void await() {
+			if (pool != null) {
+				pool.await();
+			}
+		}
+	}
+
 	/**
 	 * solves the initial value problem
 	 * 
@@ -122,7 +716,6 @@ public class RungeKuttaSolver implements Solver{
 		double upperBound = problem.getUpperBound();
 
 		int numberOfVars = problem.getSize();
-		int numberOfStages = tableau.getStageNumber();
 
 		// the derivative F: R x R^m \to R^m
 		Function[] f = problem.getDerivatives();
@@ -131,58 +724,231 @@ public class RungeKuttaSolver implements Solver{
 		// since I expect an int, I use "round" to cope with rounding errors
 		int numberOfSteps = (int) Math.round((upperBound - lowerBound) / h);
 
-		// columns of the current Butchet Tableau
-		double[] c = tableau.getC();
-		double[] b = tableau.getB();
-		double[] a = tableau.getA();
+		// where I store the solution: every step, or only the first and the
+		// last values
+		int capacity = storeTrajectory ? numberOfSteps + 1 : 2;
+		double[][] solution;
+		double[] times;
+		CompactSolution.Builder builder = null;
+		if (storage != null && storeTrajectory) {
+			// the doubles are never stored
+			builder = new CompactSolution.Builder(numberOfVars, capacity,
+					storage, errorBound);
+			builder.setGrid(lowerBound, h);
+			solution = null;
+			times = null;
+		} else {
+			solution = new double[numberOfVars][capacity];
+			times = new double[capacity];
+		}
 
-		// where I store the solution
-		double[][] solution = new double[numberOfVars][numberOfSteps + 1];
-		double[] times = new double[numberOfSteps + 1];
+		// a derivative evaluated as a whole is used by a single thread...
+		VectorFunction vector = problem.getVectorFunction();
+		// ... wide systems are split in chunks evaluated in parallel
+		StagePool pool = vector == null && threads > 1
+				&& numberOfVars >= parallelThreshold ? new StagePool(Math.min(
+				threads, numberOfVars), numberOfVars) : null;
+		// ... and the others can use a step compiled for the tableau
+		StepKernel kernel = compiled && vector == null && pool == null ? StepKernels
+				.kernel(tableau, numberOfVars)
+				: null;
+		Integration integration = new Integration(f, vector, numberOfVars,
+				pool, kernel);
 
 		// set initial conditions
-		for (int m = 0; m < numberOfVars; m++) {
-			solution[m][0] = initialValues[m];
-		}
+		System.arraycopy(initialValues, 0, integration.current, 0,
+				numberOfVars);
 		// ... and start time
-		times[0] = lowerBound;
+		integration.time = lowerBound;
+		if (builder != null) {
+			builder.add(integration.time, integration.current);
+		} else {
+			store(solution, times, 0, integration.time, integration.current);
+		}
+		int stored = 1;
+		double last = integration.time;
 
-		// repeat until the end of the interval
-		for (int n = 0; n < numberOfSteps; n++) {
-			// create a stage matrix: k[i][j] = i-th stage for variable j
-			double[][] k = new double[numberOfStages][numberOfVars];
-			// update matrix k
-			for (int i = 0; i < numberOfStages; i++) {
-				// compute midpoint time
-				double t = times[n] + c[i] * h;
-				// compute midpoint values
-				double[] y = new double[numberOfVars];
-				for (int j = 0; j < numberOfVars; j++) {
-					for (int s = 0; s < i; s++) {
-						y[j] += a[s + i * (i - 1) / 2] * k[s][j];
+		// events are checked at the end of every step
+		EventDetector detector = null;
+		if (!eventHandlers.isEmpty()) {
+			detector = new EventDetector(eventHandlers, numberOfVars);
+			detector.init(integration.time, integration.current);
+			integration.derivative = new double[numberOfVars];
+		}
+
+		try {
+			// repeat until the end of the interval
+			for (int n = 0; n < numberOfSteps; n++) {
+				integration.nextTime = lowerBound + (n + 1) * h;
+				integration.step();
+
+				if (detector != null) {
+					// the first stage is F(t_n, y_n) only if c1 = 0
+					integration.haveDerivative = integration.c[0] == 0.;
+					if (detector.step(integration.time, integration.current,
+							integration.k[0], integration.nextTime,
+							integration.next, integration.derivative)) {
+						// stop at the event
+						integration.time = detector.getEventTime();
+						System.arraycopy(detector.getEventValues(), 0,
+								integration.current, 0, numberOfVars);
+						break;
 					}
-					y[j] = solution[j][n] + h * y[j];
 				}
-				// calculate ki for each var
-				for (int j=0; j<numberOfVars; j++){
-					k[i][j] = f[j].value(t, y);
+				double[] tmp = integration.current;
+				integration.current = integration.next;
+				integration.next = tmp;
+				integration.time = integration.nextTime;
+				if (builder != null) {
+					builder.add(integration.time, integration.current);
+					last = integration.time;
+				} else if (storeTrajectory) {
+					store(solution, times, stored++, integration.time,
+							integration.current);
 				}
 			}
-			// calculate the next approximate value
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+
+		double time = integration.time;
+		if (builder != null) {
+			if (time != last) {
+				// the integration stopped at an event
+				builder.add(time, integration.current);
+			}
+			return builder.build();
+		}
+		if (!storeTrajectory) {
+			store(solution, times, 1, time, integration.current);
+			stored = 2;
+		} else if (time != times[stored - 1]) {
+			// the integration stopped at an event
+			store(solution, times, stored++, time, integration.current);
+		}
+		if (stored < capacity) {
+			times = Arrays.copyOf(times, stored);
 			for (int j = 0; j < numberOfVars; j++) {
-				for (int s = 0; s < numberOfStages; s++) {
-					solution[j][n + 1] += b[s] * k[s][j];
-				}
-				solution[j][n + 1] = solution[j][n] +  h * solution[j][n + 1];
-			
+				solution[j] = Arrays.copyOf(solution[j], stored);
 			}
-			times[n + 1] = lowerBound + (n + 1) * h;
 		}
 
 		// return the numerical solution
 		return new InitialValueProblem.Solution(times, solution);
 	}
 
+	private static void store(double[][] solution, double[] times, int index,
+			double time, double[] values) {
+		times[index] = time;
+		for (int j = 0; j < values.length; j++) {
+			solution[j][index] = values[j];
+		}
+	}
+
+	/**
+	 * adds a handler for the events of the next integrations
+	 * 
+	 * @param handler
+	 */
+	public void addEventHandler(EventHandler handler) {
+		eventHandlers.add(handler);
+	}
+
+	public List<EventHandler> getEventHandlers() {
+		return eventHandlers;
+	}
+
+	public void clearEventHandlers() {
+		eventHandlers.clear();
+	}
+
+	public ButcherTableau getTableau() {
+		return tableau;
+	}
+
+	public boolean isStoreTrajectory() {
+		return storeTrajectory;
+	}
+
+	/**
+	 * when false, the solution contains only the initial and the final
+	 * values; useful when only the events matter
+	 * 
+	 * @param storeTrajectory
+	 */
+	public void setStoreTrajectory(boolean storeTrajectory) {
+		this.storeTrajectory = storeTrajectory;
+	}
+
+	public CompactSolution.Encoding getStorage() {
+		return storage;
+	}
+
+	public double getErrorBound() {
+		return errorBound;
+	}
+
+	/**
+	 * stores the trajectory in a CompactSolution, while the integration is
+	 * still in double precision; a null encoding stores doubles
+	 * 
+	 * @param storage
+	 * @param errorBound
+	 *            , the absolute error bound of QUANTIZED
+	 */
+	public void setStorage(CompactSolution.Encoding storage, double errorBound) {
+		this.storage = storage;
+		this.errorBound = errorBound;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * sets the number of threads evaluating the stages of systems with at
+	 * least parallelThreshold variables. The functions of those systems are
+	 * called concurrently, so they must be thread safe.
+	 * 
+	 * @param threads
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public int getParallelThreshold() {
+		return parallelThreshold;
+	}
+
+	/**
+	 * sets the minimum number of variables of the systems evaluated in
+	 * parallel; smaller systems are solved by the calling thread only
+	 * 
+	 * @param parallelThreshold
+	 */
+	public void setParallelThreshold(int parallelThreshold) {
+		this.parallelThreshold = parallelThreshold;
+	}
+
+	public boolean isCompiled() {
+		return compiled;
+	}
+
+	/**
+	 * when true, the steps of systems solved by a single thread are computed
+	 * by a class generated and compiled at runtime for the tableau, with the
+	 * stages unrolled and the coefficients as constants. The first solve
+	 * with a tableau pays for the compilation, and the kernels are shared by
+	 * all the solvers; without a Java compiler the generic loop is used.
+	 * 
+	 * @param compiled
+	 */
+	public void setCompiled(boolean compiled) {
+		this.compiled = compiled;
+	}
+
 	@Override
 	public double getStepSize() {
 		return h;
@@ -0,0 +1,42 @@
+package com.azimuth.ode;
+
+/**
+ * A numerical solution of a ParametricProblem together with its sensitivities
+ * with respect to the parameters dy/dp.
+ *
+ * @author marco
+ *
+ */
+public class SensitivitySolution extends InitialValueProblem.Solution {
+
+	/**
+	 * sensitivities[k][i] = [d y_i / d p_k at time t0, at time t1, ...]
+	 */
+	private double[][][] sensitivities;
+
+	public SensitivitySolution(double[] timesteps, double[][] values,
+			double[][][] sensitivities) {
+		super(timesteps, values);
+		this.sensitivities = sensitivities;
+	}
+
+	/**
+	 * returns the sensitivities grouped by parameter and then by variable
+	 *
+	 * @return
+	 */
+	public double[][][] getSensitivities() {
+		return sensitivities;
+	}
+
+	/**
+	 * returns the sensitivity of every variable with respect to parameter k
+	 *
+	 * @param k
+	 * @return
+	 */
+	public double[][] getSensitivities(int k) {
+		return sensitivities[k];
+	}
+
+}
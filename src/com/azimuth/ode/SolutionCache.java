@@ -0,0 +1,325 @@
+package com.azimuth.ode;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.azimuth.ode.InitialValueProblem.Solution;
+
+/**
+ * A store of solutions by key, with two tiers: a memory tier that keeps the
+ * most recently used solutions up to a number of bytes, and an optional disk
+ * tier with a file for every solution, in the SolutionFormat.
+ * 
+ * A solution found only on disk is loaded back in memory. Solutions are
+ * copied in and out, so callers can modify them. The cache can be shared by
+ * several threads and solvers; files are read and written outside its lock,
+ * so a slow disk does not hold up hits in memory.
+ * 
+ * The disk tier is not bounded: files are only deleted by remove, so the
+ * directory should be cleaned by whoever owns it.
+ * 
+ * @see CachingSolver
+ * @author marco
+ * 
+ */
+public class SolutionCache {
+
+	private final static Logger logger = Logger.getLogger(SolutionCache.class
+			.getSimpleName());
+
+	/**
+	 * default constants
+	 */
+	private final static long DEFAULT_MAX_BYTES = 64L << 20;
+	private final static String EXTENSION = ".sol";
+
+	/**
+	 * the solutions in memory, from the least recently used
+	 */
+	private final LinkedHashMap<String, Solution> memory = new LinkedHashMap<String, Solution>(
+			16, 0.75f, true);
+	/**
+	 * the size of the solutions in memory
+	 */
+	private long bytes;
+	private long maxBytes;
+	/**
+	 * the directory of the disk tier, or null
+	 */
+	private File directory;
+
+	/**
+	 * statistics
+	 */
+	private int memoryHits;
+	private int diskHits;
+	private int misses;
+
+	/**
+	 * Creates a cache
+	 * 
+	 * @param maxBytes
+	 *            , the size of the memory tier
+	 * @param directory
+	 *            , the directory of the disk tier, or null
+	 */
+	public SolutionCache(long maxBytes, File directory) {
+		this.maxBytes = maxBytes;
+		setDirectory(directory);
+	}
+
+	public SolutionCache(long maxBytes) {
+		this(maxBytes, null);
+	}
+
+	/**
+	 * Creates a cache of 64MB in memory
+	 */
+	public SolutionCache() {
+		this(DEFAULT_MAX_BYTES, null);
+	}
+
+	/**
+	 * returns a copy of the solution with the given key, or null
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public Solution get(String key) {
+		File directory;
+		synchronized (this) {
+			Solution solution = memory.get(key);
+			if (solution != null) {
+				memoryHits++;
+				return copy(solution);
+			}
+			directory = this.directory;
+		}
+		// the file is read without the lock, other keys are served meanwhile
+		Solution solution = directory != null ? load(file(directory, key))
+				: null;
+		synchronized (this) {
+			if (solution == null) {
+				misses++;
+				return null;
+			}
+			diskHits++;
+			// a solution put while reading is newer than the file
+			Solution stored = memory.get(key);
+			if (stored != null) {
+				return copy(stored);
+			}
+			store(key, solution);
+			return copy(solution);
+		}
+	}
+
+	/**
+	 * stores a copy of a solution, replacing the one with the same key
+	 * 
+	 * @param key
+	 * @param solution
+	 */
+	public void put(String key, Solution solution) {
+		solution = copy(solution);
+		File directory;
+		synchronized (this) {
+			store(key, solution);
+			directory = this.directory;
+		}
+		if (directory != null) {
+			save(solution, file(directory, key));
+		}
+	}
+
+	/**
+	 * removes the solution with the given key from both tiers
+	 * 
+	 * @param key
+	 */
+	public void remove(String key) {
+		File directory;
+		synchronized (this) {
+			Solution solution = memory.remove(key);
+			if (solution != null) {
+				bytes -= sizeOf(solution);
+			}
+			directory = this.directory;
+		}
+		if (directory != null) {
+			file(directory, key).delete();
+		}
+	}
+
+	/**
+	 * removes every solution from memory; the files are kept
+	 */
+	public synchronized void clear() {
+		memory.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * adds a solution to memory, evicting the least recently used ones
+	 */
+	private void store(String key, Solution solution) {
+		Solution old = memory.remove(key);
+		if (old != null) {
+			bytes -= sizeOf(old);
+		}
+		long size = sizeOf(solution);
+		if (size > maxBytes) {
+			return;
+		}
+		memory.put(key, solution);
+		bytes += size;
+		evict();
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Solution>> entries = memory.entrySet()
+				.iterator();
+		while (bytes > maxBytes && entries.hasNext()) {
+			bytes -= sizeOf(entries.next().getValue());
+			entries.remove();
+		}
+	}
+
+	private static File file(File directory, String key) {
+		return new File(directory, key + EXTENSION);
+	}
+
+	/**
+	 * reads a solution, or returns null if the file is missing or unreadable
+	 */
+	private static Solution load(File file) {
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			return SolutionFormat.load(file);
+		} catch (IOException e) {
+			logger.warning("cannot read " + file + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * writes a solution to a temporary file of its own and renames it, so
+	 * readers and concurrent writers of the same key see a complete file or
+	 * none
+	 */
+	private static void save(Solution solution, File file) {
+		File temporary = null;
+		try {
+			temporary = File.createTempFile(file.getName(), ".tmp",
+					file.getParentFile());
+			SolutionFormat.save(solution, temporary);
+			file.delete();
+			if (!temporary.renameTo(file)) {
+				throw new IOException("cannot rename " + temporary);
+			}
+		} catch (IOException e) {
+			if (temporary != null) {
+				temporary.delete();
+			}
+			logger.warning("cannot write " + file + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * returns the number of bytes of the values and the timesteps, as
+	 * stored
+	 * 
+	 * @param solution
+	 * @return
+	 */
+	static long sizeOf(Solution solution) {
+		if (solution instanceof CompactSolution) {
+			return ((CompactSolution) solution).getBytes();
+		}
+		return 8L * (solution.getValues().length + 1)
+				* solution.getTimesteps().length;
+	}
+
+	private static Solution copy(Solution solution) {
+		if (solution instanceof CompactSolution) {
+			// immutable
+			return solution;
+		}
+		double[][] values = solution.getValues();
+		double[][] copy = new double[values.length][];
+		for (int j = 0; j < values.length; j++) {
+			copy[j] = values[j].clone();
+		}
+		return new Solution(solution.getTimesteps().clone(), copy);
+	}
+
+	/**
+	 * returns the number of solutions in memory
+	 * 
+	 * @return
+	 */
+	public synchronized int size() {
+		return memory.size();
+	}
+
+	/**
+	 * returns the size of the solutions in memory
+	 * 
+	 * @return
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * sets the size of the memory tier, evicting the least recently used
+	 * solutions
+	 * 
+	 * @param maxBytes
+	 */
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	public synchronized File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * sets the directory of the disk tier, creating it if needed; null
+	 * disables the disk tier
+	 * 
+	 * @param directory
+	 */
+	public synchronized void setDirectory(File directory) {
+		if (directory != null && !directory.isDirectory()
+				&& !directory.mkdirs()) {
+			throw new IllegalArgumentException("cannot create " + directory);
+		}
+		this.directory = directory;
+	}
+
+	public synchronized int getMemoryHits() {
+		return memoryHits;
+	}
+
+	public synchronized int getDiskHits() {
+		return diskHits;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+}
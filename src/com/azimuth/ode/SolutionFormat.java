@@ -0,0 +1,278 @@
+package com.azimuth.ode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+
+import com.azimuth.ode.InitialValueProblem.Solution;
+
+/**
+ * A binary format for solutions.
+ * 
+ * A file is made of a header
+ * 
+ * magic (int), version (int), encoding (byte), number of variables (int),
+ * number of points (int)
+ * 
+ * followed by the timesteps and by the values of every variable in the
+ * encoding, all big endian:
+ * 
+ * - 0, doubles: the timesteps and the values as doubles, written exactly,
+ * so a solution read back is equal to the one written;
+ * 
+ * - 1, floats: the timesteps of a CompactSolution (t0 and h as doubles, the
+ * number of points t0 + n h and of the other points as ints, and the other
+ * points as doubles), and the values as floats;
+ * 
+ * - 2, quantized: the error bound (double) and the block size (int), the
+ * timesteps of a CompactSolution, and for every block of every variable its
+ * length (int) and its bytes.
+ * 
+ * Compact solutions are written without decoding them, and read back as
+ * compact solutions.
+ * 
+ * @author marco
+ * 
+ */
+public class SolutionFormat {
+
+	/**
+	 * "AZSL"
+	 */
+	private final static int MAGIC = 0x415A534C;
+	private final static int VERSION = 1;
+	/**
+	 * the encodings of the values
+	 */
+	private final static byte DOUBLE = 0;
+	private final static byte FLOAT = 1;
+	private final static byte QUANTIZED = 2;
+	private final static int BUFFER_SIZE = 1 << 16;
+
+	private SolutionFormat() {
+	}
+
+	/**
+	 * writes a solution to a stream, without closing it
+	 * 
+	 * @param solution
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void write(Solution solution, OutputStream out)
+			throws IOException {
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+				out, BUFFER_SIZE));
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		if (solution instanceof CompactSolution) {
+			CompactSolution compact = (CompactSolution) solution;
+			float[][] floats = compact.getFloats();
+			if (floats != null) {
+				header(data, FLOAT, floats.length, compact
+						.getNumberOfPoints());
+				compact.writeTimesteps(data);
+				for (float[] variable : floats) {
+					write(variable, buffer, data);
+				}
+			} else {
+				byte[][][] blocks = compact.getBlocks();
+				header(data, QUANTIZED, blocks.length, compact
+						.getNumberOfPoints());
+				data.writeDouble(compact.getErrorBound());
+				data.writeInt(CompactSolution.BLOCK_SIZE);
+				compact.writeTimesteps(data);
+				for (byte[][] variable : blocks) {
+					for (byte[] block : variable) {
+						data.writeInt(block.length);
+						data.write(block);
+					}
+				}
+			}
+		} else {
+			double[] timesteps = solution.getTimesteps();
+			double[][] values = solution.getValues();
+			header(data, DOUBLE, values.length, timesteps.length);
+			write(timesteps, buffer, data);
+			for (double[] variable : values) {
+				write(variable, buffer, data);
+			}
+		}
+		data.flush();
+	}
+
+	private static void header(DataOutputStream data, byte encoding,
+			int numberOfVars, int numberOfPoints) throws IOException {
+		data.writeByte(encoding);
+		data.writeInt(numberOfVars);
+		data.writeInt(numberOfPoints);
+	}
+
+	private static void write(float[] values, ByteBuffer buffer,
+			OutputStream out) throws IOException {
+		FloatBuffer floats = buffer.asFloatBuffer();
+		for (int from = 0; from < values.length; from += floats.capacity()) {
+			int length = Math.min(floats.capacity(), values.length - from);
+			floats.clear();
+			floats.put(values, from, length);
+			out.write(buffer.array(), 0, 4 * length);
+		}
+	}
+
+	private static void read(float[] values, ByteBuffer buffer,
+			DataInputStream in) throws IOException {
+		FloatBuffer floats = buffer.asFloatBuffer();
+		for (int from = 0; from < values.length; from += floats.capacity()) {
+			int length = Math.min(floats.capacity(), values.length - from);
+			in.readFully(buffer.array(), 0, 4 * length);
+			floats.clear();
+			floats.get(values, from, length);
+		}
+	}
+
+	/**
+	 * writes an array through the buffer, which is faster than writing one
+	 * double at a time
+	 */
+	private static void write(double[] values, ByteBuffer buffer,
+			OutputStream out) throws IOException {
+		DoubleBuffer doubles = buffer.asDoubleBuffer();
+		for (int from = 0; from < values.length; from += doubles.capacity()) {
+			int length = Math.min(doubles.capacity(), values.length - from);
+			doubles.clear();
+			doubles.put(values, from, length);
+			out.write(buffer.array(), 0, 8 * length);
+		}
+	}
+
+	private static void read(double[] values, ByteBuffer buffer,
+			DataInputStream in) throws IOException {
+		DoubleBuffer doubles = buffer.asDoubleBuffer();
+		for (int from = 0; from < values.length; from += doubles.capacity()) {
+			int length = Math.min(doubles.capacity(), values.length - from);
+			in.readFully(buffer.array(), 0, 8 * length);
+			doubles.clear();
+			doubles.get(values, from, length);
+		}
+	}
+
+	/**
+	 * reads a solution from a stream, without closing it. It reads no more
+	 * than the solution, so the stream should be buffered by the caller.
+	 * 
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 *             , if the stream does not contain a solution
+	 */
+	public static Solution read(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		try {
+			if (data.readInt() != MAGIC) {
+				throw new IOException("not a solution");
+			}
+			int version = data.readInt();
+			if (version != VERSION) {
+				throw new IOException("unsupported version " + version);
+			}
+			byte encoding = data.readByte();
+			if (encoding != DOUBLE && encoding != FLOAT
+					&& encoding != QUANTIZED) {
+				throw new IOException("unsupported encoding " + encoding);
+			}
+			int numberOfVars = data.readInt();
+			int numberOfPoints = data.readInt();
+			if (numberOfVars < 0 || numberOfPoints < 0) {
+				throw new IOException("corrupted header");
+			}
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			if (encoding == QUANTIZED) {
+				double errorBound = data.readDouble();
+				if (data.readInt() != CompactSolution.BLOCK_SIZE) {
+					throw new IOException("unsupported block size");
+				}
+				double[] timesteps = CompactSolution.readTimesteps(data,
+						numberOfPoints);
+				int numberOfBlocks = (numberOfPoints
+						+ CompactSolution.BLOCK_SIZE - 1)
+						/ CompactSolution.BLOCK_SIZE;
+				byte[][][] blocks = new byte[numberOfVars][numberOfBlocks][];
+				for (int j = 0; j < numberOfVars; j++) {
+					for (int b = 0; b < numberOfBlocks; b++) {
+						int length = data.readInt();
+						if (length < 1) {
+							throw new IOException("corrupted block");
+						}
+						blocks[j][b] = new byte[length];
+						data.readFully(blocks[j][b]);
+					}
+				}
+				return new CompactSolution(timesteps, blocks, errorBound);
+			}
+			if (encoding == FLOAT) {
+				double[] timesteps = CompactSolution.readTimesteps(data,
+						numberOfPoints);
+				float[][] floats = new float[numberOfVars][numberOfPoints];
+				for (int j = 0; j < numberOfVars; j++) {
+					read(floats[j], buffer, data);
+				}
+				return new CompactSolution(timesteps, floats);
+			}
+			double[] timesteps = new double[numberOfPoints];
+			read(timesteps, buffer, data);
+			double[][] values = new double[numberOfVars][numberOfPoints];
+			for (int j = 0; j < numberOfVars; j++) {
+				read(values[j], buffer, data);
+			}
+			return new Solution(timesteps, values);
+		} catch (EOFException e) {
+			throw new IOException("truncated solution", e);
+		}
+	}
+
+	/**
+	 * writes a solution to a file
+	 * 
+	 * @param solution
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void save(Solution solution, File file) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			write(solution, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * reads a solution from a file
+	 * 
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static Solution load(File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file),
+				BUFFER_SIZE);
+		try {
+			return read(in);
+		} finally {
+			in.close();
+		}
+	}
+
+}
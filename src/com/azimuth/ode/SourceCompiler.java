@@ -0,0 +1,183 @@
+package com.azimuth.ode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles Java source generated at runtime in memory, with the system Java
+ * compiler, and defines every class with its own class loader. Generated
+ * classes can only use the public types of the project.
+ * 
+ * @author marco
+ * 
+ */
+public class SourceCompiler {
+
+	private final static Logger logger = Logger.getLogger(SourceCompiler.class
+			.getSimpleName());
+
+	private SourceCompiler() {
+	}
+
+	/**
+	 * A source file in memory
+	 */
+	private static class Source extends SimpleJavaFileObject {
+		private final String code;
+
+		private Source(String name, String code) {
+			super(URI.create("string:///" + name.replace('.', '/')
+					+ Kind.SOURCE.extension), Kind.SOURCE);
+			this.code = code;
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return code;
+		}
+	}
+
+	/**
+	 * A class file in memory
+	 */
+	private static class Bytecode extends SimpleJavaFileObject {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		private Bytecode(String name) {
+			super(URI.create("bytes:///" + name.replace('.', '/')
+					+ Kind.CLASS.extension), Kind.CLASS);
+		}
+
+		@Override
+		public OutputStream openOutputStream() {
+			return bytes;
+		}
+	}
+
+	/**
+	 * Defines a compiled class
+	 */
+	private static class GeneratedClassLoader extends ClassLoader {
+		private GeneratedClassLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		private Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+
+	/**
+	 * returns true if a Java compiler is available, i.e. if the program runs
+	 * on a JDK
+	 * 
+	 * @return
+	 */
+	public static boolean isAvailable() {
+		return ToolProvider.getSystemJavaCompiler() != null;
+	}
+
+	/**
+	 * returns the location of the classes of the project, where the class
+	 * loader of the type found it, followed by the class path of the virtual
+	 * machine: the two differ in containers and under custom class loaders
+	 * 
+	 * @param type
+	 * @return
+	 */
+	private static String classpath(Class<?> type) {
+		String classpath = System.getProperty("java.class.path", "");
+		CodeSource source = type.getProtectionDomain().getCodeSource();
+		if (source == null || source.getLocation() == null) {
+			return classpath;
+		}
+		try {
+			String location = new File(source.getLocation().toURI())
+					.getPath();
+			return classpath.length() == 0 ? location : location
+					+ File.pathSeparator + classpath;
+		} catch (Exception e) {
+			// not a file, e.g. a remote or nested jar
+			return classpath;
+		}
+	}
+
+	/**
+	 * compiles a class and returns a new instance of it, or null if it
+	 * cannot be compiled
+	 * 
+	 * @param className
+	 *            , the fully qualified name of the class
+	 * @param code
+	 *            , its source
+	 * @param type
+	 *            , a public interface implemented by the class
+	 * @return
+	 */
+	public static <T> T compile(String className, String code, Class<T> type) {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) {
+			logger.warning("no Java compiler available");
+			return null;
+		}
+		final Map<String, Bytecode> classes = new HashMap<String, Bytecode>();
+		StandardJavaFileManager standard = compiler.getStandardFileManager(
+				null, null, null);
+		JavaFileManager manager = new ForwardingJavaFileManager<StandardJavaFileManager>(
+				standard) {
+			@Override
+			public JavaFileObject getJavaFileForOutput(Location location,
+					String className, JavaFileObject.Kind kind,
+					FileObject sibling) {
+				Bytecode bytecode = new Bytecode(className);
+				classes.put(className, bytecode);
+				return bytecode;
+			}
+		};
+		StringWriter errors = new StringWriter();
+		boolean compiled;
+		try {
+			compiled = compiler.getTask(errors, manager, null,
+					Arrays.asList("-classpath", classpath(type), "-g:none"),
+					null, Arrays.asList(new Source(className, code))).call();
+		} finally {
+			try {
+				manager.close();
+			} catch (IOException e) {
+				logger.warning("cannot close the file manager: " + e);
+			}
+		}
+		if (!compiled || !classes.containsKey(className)) {
+			logger.warning("cannot compile " + className + ": " + errors);
+			return null;
+		}
+		try {
+			GeneratedClassLoader loader = new GeneratedClassLoader(type
+					.getClassLoader());
+			Class<?> generated = loader.define(className, classes.get(
+					className).bytes.toByteArray());
+			return type.cast(generated.getConstructor().newInstance());
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
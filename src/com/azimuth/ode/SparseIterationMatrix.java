@@ -0,0 +1,159 @@
+package com.azimuth.ode;
+
+import java.util.logging.Logger;
+
+import com.azimuth.linear.BandedLUDecomposition;
+import com.azimuth.linear.SparseMatrix;
+import com.azimuth.linear.SparsityPattern;
+
+/**
+ * An iteration matrix I - gamma*J for problems with a sparse Jacobian.
+ *
+ * The Jacobian is stored in CSR format and the iteration matrix is factored as
+ * a band matrix, after a reverse Cuthill-McKee reordering of the variables
+ * when it reduces the bandwidth. Memory and time scale with the number of non
+ * zeros and the bandwidth, not with n^2: the band factorization stores
+ * n*(2*ml+mu+1) doubles for the lower and upper bandwidths ml and mu, so a
+ * pattern that is sparse but not banded, as a 2-D stencil of side m with
+ * bandwidth m, still costs n*3m doubles.
+ *
+ * @author marco
+ *
+ */
+class SparseIterationMatrix extends IterationMatrix {
+
+	private final static Logger logger = Logger
+			.getLogger(SparseIterationMatrix.class.getSimpleName());
+
+	private final int n;
+	private final SparseJacobian jacobian;
+	private final SparseMatrix dfdy;
+	/**
+	 * permutation[k] = the variable in position k, inverse[i] = the position
+	 * of variable i
+	 */
+	private final int[] permutation;
+	private final int[] inverse;
+	private final BandedLUDecomposition lu;
+	private final double[] work;
+
+	private SparseIterationMatrix(InitialValueProblem problem, Function[] f,
+			SparsityPattern pattern, int[] permutation, int lower, int upper) {
+		this.n = f.length;
+		SparseJacobian j = problem.getSparseJacobian();
+		if (j == null && AutomaticJacobian.isDifferentiable(f)) {
+			j = new AutomaticJacobian(f, pattern);
+		}
+		if (j == null) {
+			j = new FiniteDifferenceJacobian(f, pattern);
+		}
+		this.jacobian = j;
+		this.dfdy = new SparseMatrix(pattern);
+		this.work = new double[n];
+		this.permutation = permutation;
+		this.inverse = invert(permutation);
+		this.lu = new BandedLUDecomposition(n, lower, upper);
+	}
+
+	/**
+	 * creates a sparse iteration matrix with the ordering of the variables
+	 * that gives the narrowest band, or returns null if the band is as wide
+	 * as the matrix. The bandwidths are computed before the band storage is
+	 * allocated.
+	 * 
+	 * @param problem
+	 * @param f
+	 * @param pattern
+	 * @return
+	 */
+	static SparseIterationMatrix create(InitialValueProblem problem,
+			Function[] f, SparsityPattern pattern) {
+		int n = f.length;
+		int[] identity = new int[n];
+		for (int i = 0; i < n; i++) {
+			identity[i] = i;
+		}
+		int[] reordered = pattern.reverseCuthillMcKee();
+		int[] natural = bandwidth(pattern, identity);
+		int[] rcm = bandwidth(pattern, invert(reordered));
+		int[] permutation = identity;
+		int[] band = natural;
+		if (2 * rcm[0] + rcm[1] < 2 * natural[0] + natural[1]) {
+			permutation = reordered;
+			band = rcm;
+		}
+		// entries stored for each column of the band factorization
+		if (2 * band[0] + band[1] + 1 >= n) {
+			logger.warning("the sparsity pattern of " + n
+					+ " variables has bandwidths " + band[0] + " and "
+					+ band[1] + ", too wide for a band matrix");
+			return null;
+		}
+		return new SparseIterationMatrix(problem, f, pattern, permutation,
+				band[0], band[1]);
+	}
+
+	@Override
+	protected void evaluateJacobian(double t, double[] y) {
+		jacobian.evaluate(t, y, dfdy);
+	}
+
+	@Override
+	protected void factorize(double gamma) {
+		SparsityPattern pattern = dfdy.getPattern();
+		int[] rowPointers = pattern.getRowPointers();
+		int[] columnIndexes = pattern.getColumnIndexes();
+		double[] values = dfdy.getValues();
+		lu.clear();
+		for (int i = 0; i < n; i++) {
+			int row = inverse[i];
+			for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+				lu.set(row, inverse[columnIndexes[k]], -gamma * values[k]);
+			}
+			lu.add(row, row, 1.);
+		}
+		lu.factor();
+	}
+
+	@Override
+	void solve(double[] b) {
+		for (int k = 0; k < n; k++) {
+			work[k] = b[permutation[k]];
+		}
+		lu.solve(work);
+		for (int k = 0; k < n; k++) {
+			b[permutation[k]] = work[k];
+		}
+	}
+
+	private static int[] invert(int[] permutation) {
+		int[] inverse = new int[permutation.length];
+		for (int k = 0; k < permutation.length; k++) {
+			inverse[permutation[k]] = k;
+		}
+		return inverse;
+	}
+
+	/**
+	 * returns the lower and upper bandwidth of the reordered pattern
+	 *
+	 * @param pattern
+	 * @param inverse
+	 * @return
+	 */
+	private static int[] bandwidth(SparsityPattern pattern, int[] inverse) {
+		int[] rowPointers = pattern.getRowPointers();
+		int[] columnIndexes = pattern.getColumnIndexes();
+		int lower = 0;
+		int upper = 0;
+		for (int i = 0; i < pattern.getSize(); i++) {
+			for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+				int d = inverse[i] - inverse[columnIndexes[k]];
+				lower = Math.max(lower, d);
+				upper = Math.max(upper, -d);
+			}
+		}
+		return new int[] { lower, upper };
+	}
+
+}
@@ -0,0 +1,25 @@
+package com.azimuth.ode;
+
+import com.azimuth.linear.SparseMatrix;
+
+/**
+ * This interface represents a sparse Jacobian matrix of the derivative of an
+ * IVP. Only the entries in the sparsity pattern of the problem are computed.
+ *
+ * @see InitialValueProblem#getDependencies()
+ * @author marco
+ *
+ */
+public interface SparseJacobian {
+
+	/**
+	 * fills the non zero entries of dfdy with the partial derivatives d f_i /
+	 * d y_j evaluated at (t, y)
+	 *
+	 * @param t
+	 * @param values
+	 * @param dfdy
+	 */
+	public void evaluate(double t, double[] values, SparseMatrix dfdy);
+
+}
@@ -0,0 +1,185 @@
+package com.azimuth.ode;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * A pool of worker threads that run a task on contiguous chunks of the
+ * variables of a problem.
+ *
+ * The workers live until shutdown() and are synchronized by a single
+ * barrier: the calling thread takes the first chunk, so a call to run()
+ * costs two barrier crossings, and a task can call await() to wait until
+ * every chunk has reached the same point.
+ *
+ * @author marco
+ *
+ */
+class StagePool {
+
+	/**
+	 * A task run on a chunk of the variables
+	 */
+	interface Task {
+		/**
+		 * runs the task on the variables from (inclusive) to (exclusive)
+		 *
+		 * @param from
+		 * @param to
+		 */
+		void run(int from, int to);
+	}
+
+	private final CyclicBarrier barrier;
+	private final Thread[] workers;
+	private final int size;
+	private final int threads;
+
+	private volatile Task task;
+	private volatile boolean stopped;
+	/**
+	 * the first exception thrown by a worker
+	 */
+	private Throwable failure;
+
+	/**
+	 * starts the workers
+	 *
+	 * @param threads
+	 *            , the number of chunks, counting the calling thread
+	 * @param size
+	 *            , the number of variables
+	 */
+	StagePool(int threads, int size) {
+		this.threads = threads;
+		this.size = size;
+		this.barrier = new CyclicBarrier(threads);
+		this.workers = new Thread[threads - 1];
+		for (int w = 1; w < threads; w++) {
+			final int from = from(w);
+			final int to = from(w + 1);
+			Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work(from, to);
+				}
+			}, "stage-worker-" + w);
+			worker.setDaemon(true);
+			workers[w - 1] = worker;
+			worker.start();
+		}
+	}
+
+	private int from(int chunk) {
+		return (int) ((long) chunk * size / threads);
+	}
+
+	private void work(int from, int to) {
+		try {
+			while (true) {
+				barrier.await();
+				if (stopped) {
+					return;
+				}
+				task.run(from, to);
+				barrier.await();
+			}
+		} catch (InterruptedException e) {
+			// the pool was stopped
+		} catch (BrokenBarrierException e) {
+			// another chunk failed
+		} catch (Throwable e) {
+			fail(e);
+		}
+	}
+
+	private void fail(Throwable e) {
+		synchronized (this) {
+			if (failure == null) {
+				failure = e;
+			}
+		}
+		// an interrupted thread breaks the barrier: the other chunks waiting
+		// or arriving later get a BrokenBarrierException
+		Thread.currentThread().interrupt();
+		try {
+			barrier.await();
+		} catch (InterruptedException ex) {
+			// the barrier is broken
+		} catch (BrokenBarrierException ex) {
+			Thread.interrupted();
+		}
+	}
+
+	private synchronized Throwable getFailure() {
+		return failure;
+	}
+
+	/**
+	 * runs the task on every chunk, and returns when all the chunks are done
+	 *
+	 * @param task
+	 */
+	void run(Task task) {
+		if (stopped) {
+			throw new IllegalStateException("the pool is stopped");
+		}
+		this.task = task;
+		try {
+			await();
+			task.run(0, from(1));
+			await();
+		} catch (RuntimeException e) {
+			abort();
+			Throwable cause = getFailure();
+			if (cause != null) {
+				throw new IllegalStateException(cause);
+			}
+			throw e;
+		} catch (Error e) {
+			abort();
+			throw e;
+		}
+	}
+
+	/**
+	 * waits until every chunk calls await; tasks call it between the phases
+	 * of their work
+	 */
+	void await() {
+		try {
+			barrier.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted", e);
+		} catch (BrokenBarrierException e) {
+			throw new IllegalStateException("a chunk failed", e);
+		}
+	}
+
+	private void abort() {
+		stopped = true;
+		for (Thread worker : workers) {
+			worker.interrupt();
+		}
+	}
+
+	/**
+	 * stops the workers
+	 */
+	void shutdown() {
+		if (stopped) {
+			return;
+		}
+		stopped = true;
+		try {
+			barrier.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			abort();
+		} catch (BrokenBarrierException e) {
+			abort();
+		}
+	}
+
+}
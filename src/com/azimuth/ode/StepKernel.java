@@ -0,0 +1,36 @@
+package com.azimuth.ode;
+
+/**
+ * A step of an explicit Runge Kutta method specialized for a tableau, as
+ * generated at runtime by RungeKuttaSolver. It is public only because the
+ * generated classes are defined by their own class loader.
+ * 
+ * @author marco
+ * 
+ */
+public interface StepKernel {
+
+	/**
+	 * computes the stages k and the values at time t + h
+	 * 
+	 * @param f
+	 *            , the derivative
+	 * @param t
+	 *            , the current time
+	 * @param h
+	 *            , the step size
+	 * @param current
+	 *            , the current values
+	 * @param next
+	 *            , filled with the next values
+	 * @param k
+	 *            , the stages k[i][j]
+	 * @param y
+	 *            , workspace for the stage values
+	 * @param firstKnown
+	 *            , true if k[0] already holds F(t, current)
+	 */
+	public void step(Function[] f, double t, double h, double[] current,
+			double[] next, double[][] k, double[] y, boolean firstKnown);
+
+}
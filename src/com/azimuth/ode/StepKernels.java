@@ -0,0 +1,163 @@
+package com.azimuth.ode;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Logger;
+
+import com.azimuth.ode.RungeKuttaSolver.ButcherTableau;
+
+/**
+ * Generates, compiles and caches the step kernels of the tableaus.
+ * 
+ * The source of a kernel has the stages unrolled and the non zero
+ * coefficients of the tableau as literals, so the JIT compiles straight line
+ * code; the loops over the variables are unrolled too for systems with at
+ * most UNROLL_LIMIT variables. The arithmetic is the same as in the generic
+ * loop of the solver, so the results are identical.
+ * 
+ * Kernels are compiled by the SourceCompiler: when it fails (e.g. on a JRE)
+ * kernel() returns null and the solver uses its generic loop. A failure is
+ * remembered only for its tableau and size.
+ * 
+ * @author marco
+ * 
+ */
+class StepKernels {
+
+	/**
+	 * the largest system whose loops are unrolled
+	 */
+	final static int UNROLL_LIMIT = 8;
+
+	private final static String PACKAGE = "com.azimuth.ode.generated";
+
+	private final static Logger logger = Logger.getLogger(StepKernels.class
+			.getSimpleName());
+
+	/**
+	 * kernels by tableau and size, 0 for the kernels that are not unrolled;
+	 * a null kernel could not be compiled and is not tried again
+	 */
+	private final static Map<ButcherTableau, Map<Integer, StepKernel>> CACHE = new WeakHashMap<ButcherTableau, Map<Integer, StepKernel>>();
+	private static int counter;
+
+	private StepKernels() {
+	}
+
+	/**
+	 * returns the kernel of a tableau for systems with the given number of
+	 * variables, or null if kernels cannot be compiled
+	 * 
+	 * @param tableau
+	 * @param numberOfVars
+	 * @return
+	 */
+	static synchronized StepKernel kernel(ButcherTableau tableau,
+			int numberOfVars) {
+		int size = numberOfVars <= UNROLL_LIMIT ? numberOfVars : 0;
+		Map<Integer, StepKernel> kernels = CACHE.get(tableau);
+		if (kernels == null) {
+			kernels = new HashMap<Integer, StepKernel>();
+			CACHE.put(tableau, kernels);
+		}
+		if (kernels.containsKey(size)) {
+			return kernels.get(size);
+		}
+		String name = "Kernel" + (counter++) + "_"
+				+ tableau.name().replaceAll("[^A-Za-z0-9]", "_");
+		StepKernel kernel = SourceCompiler.compile(PACKAGE + "." + name,
+				source(name, tableau, size), StepKernel.class);
+		if (kernel == null) {
+			logger.warning("using the generic Runge Kutta loop for "
+					+ tableau.name() + " with " + numberOfVars + " variables");
+		}
+		kernels.put(size, kernel);
+		return kernel;
+	}
+
+	/**
+	 * returns the source of the kernel
+	 */
+	static String source(String name, ButcherTableau tableau, int size) {
+		int[][] stageIndexes = tableau.getStageIndexes();
+		double[][] stageCoefficients = tableau.getStageCoefficients();
+		double[] c = tableau.getC();
+		StringBuilder code = new StringBuilder();
+		code.append("package ").append(PACKAGE).append(";\n\n");
+		code.append("import com.azimuth.ode.Function;\n");
+		code.append("import com.azimuth.ode.StepKernel;\n\n");
+		code.append("public final class ").append(name).append(
+				" implements StepKernel {\n\n");
+		code.append("\tpublic void step(Function[] f, double t, double h, ");
+		code.append("double[] current, double[] next, double[][] k, ");
+		code.append("double[] y, boolean firstKnown) {\n");
+		code.append("\t\tint n = current.length;\n");
+		for (int i = 0; i < stageIndexes.length; i++) {
+			if (stageIndexes[i] != null) {
+				code.append("\t\tdouble[] k").append(i).append(" = k[")
+						.append(i).append("];\n");
+			}
+		}
+		for (int i = 0; i < stageIndexes.length; i++) {
+			int[] indexes = stageIndexes[i];
+			if (indexes == null) {
+				continue;
+			}
+			String stage = "stage " + i;
+			String values = "current";
+			if (i == 0) {
+				code.append("\t\tif (!firstKnown) {\n");
+			}
+			if (indexes.length > 0) {
+				values = "y";
+				loop(code, size, "y[#] = current[#] + h * ("
+						+ combination(indexes, stageCoefficients[i]) + ");");
+			}
+			code.append("\t\t// ").append(stage).append("\n");
+			code.append("\t\tdouble t").append(i).append(" = t + ").append(
+					c[i]).append(" * h;\n");
+			loop(code, size, "k" + i + "[#] = f[#].value(t" + i + ", "
+					+ values + ");");
+			if (i == 0) {
+				code.append("\t\t}\n");
+			}
+		}
+		loop(code, size, "next[#] = current[#] + h * ("
+				+ combination(tableau.getWeightIndexes(), tableau
+						.getWeightCoefficients()) + ");");
+		code.append("\t}\n\n}\n");
+		return code.toString();
+	}
+
+	/**
+	 * returns the sum of the coefficients times the stages
+	 */
+	private static String combination(int[] indexes, double[] coefficients) {
+		StringBuilder sum = new StringBuilder();
+		for (int s = 0; s < indexes.length; s++) {
+			if (s > 0) {
+				sum.append(" + ");
+			}
+			sum.append(coefficients[s]).append(" * k").append(indexes[s])
+					.append("[#]");
+		}
+		return sum.toString();
+	}
+
+	/**
+	 * appends a statement for every variable, replacing # with its index
+	 */
+	private static void loop(StringBuilder code, int size, String statement) {
+		if (size > 0) {
+			for (int j = 0; j < size; j++) {
+				code.append("\t\t").append(statement.replace("#", "" + j))
+						.append("\n");
+			}
+		} else {
+			code.append("\t\tfor (int j = 0; j < n; j++) {\n\t\t\t").append(
+					statement.replace("#", "j")).append("\n\t\t}\n");
+		}
+	}
+
+}
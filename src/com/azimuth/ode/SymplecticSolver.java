@@ -0,0 +1,224 @@
+package com.azimuth.ode;
+
+/**
+ * A solver for PartitionedProblem implementing explicit symplectic methods
+ * built as compositions of the Stormer-Verlet method.
+ *
+ * A step of the Stormer-Verlet method with weight w is
+ *
+ * p += w h/2 g(q); q += w h f(p); p += w h/2 g(q)
+ *
+ * and a method is a sequence of steps with weights w_1, ..., w_s summing to
+ * one; adjacent half kicks are merged, and the last kick of a step reuses
+ * g(q) for the first kick of the next, so a step costs s evaluations of f
+ * and g.
+ *
+ * Symplectic methods preserve the geometric structure of Hamiltonian
+ * systems: the energy error stays bounded over long integrations instead of
+ * drifting as with Runge Kutta methods, so they allow larger steps when
+ * only invariants need to be accurate.
+ *
+ * @see http://en.wikipedia.org/wiki/Verlet_integration
+ * @see http://en.wikipedia.org/wiki/Symplectic_integrator
+ * @author marco
+ *
+ */
+public class SymplecticSolver implements Solver {
+
+	/**
+	 * default constants
+	 */
+	private final static double DEFAULT_STEP_SIZE = 0.05;
+	private final static Method DEFAULT_METHOD = Method.YOSHIDA4;
+
+	/**
+	 * The symplectic methods, given by the weights of their Stormer-Verlet
+	 * steps
+	 *
+	 * @author marco
+	 *
+	 */
+	public enum Method {
+
+		/**
+		 * Stormer-Verlet, order 2
+		 */
+		STORMER_VERLET(2, new double[] { 1. }),
+		/**
+		 * Yoshida's triple jump, order 4
+		 */
+		YOSHIDA4(4, new double[] { 1. / (2. - Math.cbrt(2.)),
+				-Math.cbrt(2.) / (2. - Math.cbrt(2.)),
+				1. / (2. - Math.cbrt(2.)) }),
+		/**
+		 * Yoshida's order 6 method (solution A)
+		 */
+		YOSHIDA6(6, new double[] { 0.784513610477560, 0.235573213359357,
+				-1.17767998417887,
+				1. - 2. * (0.784513610477560 + 0.235573213359357 - 1.17767998417887),
+				-1.17767998417887, 0.235573213359357, 0.784513610477560 });
+
+		private final int order;
+		/**
+		 * drift[i] = weight of the i-th drift of the positions
+		 */
+		private final double[] drift;
+		/**
+		 * kick[i] = weight of the i-th kick of the momenta, the last one
+		 * after the last drift
+		 */
+		private final double[] kick;
+
+		Method(int order, double[] weights) {
+			this.order = order;
+			this.drift = weights;
+			this.kick = new double[weights.length + 1];
+			for (int i = 0; i < weights.length; i++) {
+				kick[i] += weights[i] / 2.;
+				kick[i + 1] += weights[i] / 2.;
+			}
+		}
+
+		public int getOrder() {
+			return order;
+		}
+
+		public double[] getDrift() {
+			return drift;
+		}
+
+		public double[] getKick() {
+			return kick;
+		}
+
+		/**
+		 * returns the number of evaluations of f and g per step
+		 *
+		 * @return
+		 */
+		public int getStageNumber() {
+			return drift.length;
+		}
+	}
+
+	/**
+	 * the method used to compute the numerical approximation
+	 */
+	private Method method;
+	/**
+	 * the size of the step
+	 */
+	private double h;
+
+	public SymplecticSolver(double h, Method method) {
+		this.h = h;
+		this.method = method;
+	}
+
+	public SymplecticSolver(double h) {
+		this(h, DEFAULT_METHOD);
+	}
+
+	public SymplecticSolver() {
+		this(DEFAULT_STEP_SIZE, DEFAULT_METHOD);
+	}
+
+	/**
+	 * solves a partitioned problem
+	 *
+	 * @param problem
+	 *            , a PartitionedProblem
+	 * @return, a numerical solution
+	 */
+	@Override
+	public InitialValueProblem.Solution solve(InitialValueProblem problem) {
+		if (!(problem instanceof PartitionedProblem)) {
+			throw new IllegalArgumentException(
+					"symplectic methods need a PartitionedProblem");
+		}
+		PartitionedProblem partitioned = (PartitionedProblem) problem;
+		Function[] f = partitioned.getPositionDerivatives();
+		Function[] g = partitioned.getMomentumDerivatives();
+		int d = f.length;
+		if (g.length != d) {
+			throw new IllegalArgumentException(
+					"positions and momenta must have the same dimension");
+		}
+
+		double lowerBound = problem.getLowerBound();
+		double upperBound = problem.getUpperBound();
+		int numberOfSteps = (int) Math.round((upperBound - lowerBound) / h);
+		double[] drift = method.getDrift();
+		double[] kick = method.getKick();
+
+		double[][] solution = new double[2 * d][numberOfSteps + 1];
+		double[] times = new double[numberOfSteps + 1];
+
+		// values = [q, p]
+		double[] values = problem.getInitialValue().clone();
+		// g at the current positions
+		double[] force = new double[d];
+		double[] velocity = new double[d];
+
+		for (int j = 0; j < 2 * d; j++) {
+			solution[j][0] = values[j];
+		}
+		times[0] = lowerBound;
+		for (int i = 0; i < d; i++) {
+			force[i] = g[i].value(lowerBound, values);
+		}
+
+		for (int n = 0; n < numberOfSteps; n++) {
+			double time = lowerBound + n * h;
+			// times reached by the positions and by the momenta
+			double tq = time;
+			double tp = time;
+			for (int s = 0; s < drift.length; s++) {
+				// kick
+				for (int i = 0; i < d; i++) {
+					values[d + i] += kick[s] * h * force[i];
+				}
+				tp += kick[s] * h;
+				// drift
+				for (int i = 0; i < d; i++) {
+					velocity[i] = f[i].value(tp, values);
+				}
+				for (int i = 0; i < d; i++) {
+					values[i] += drift[s] * h * velocity[i];
+				}
+				tq += drift[s] * h;
+				for (int i = 0; i < d; i++) {
+					force[i] = g[i].value(tq, values);
+				}
+			}
+			// last kick
+			for (int i = 0; i < d; i++) {
+				values[d + i] += kick[drift.length] * h * force[i];
+			}
+			times[n + 1] = lowerBound + (n + 1) * h;
+			for (int j = 0; j < 2 * d; j++) {
+				solution[j][n + 1] = values[j];
+			}
+		}
+		return new InitialValueProblem.Solution(times, solution);
+	}
+
+	public Method getMethod() {
+		return method;
+	}
+
+	public void setMethod(Method method) {
+		this.method = method;
+	}
+
+	@Override
+	public double getStepSize() {
+		return h;
+	}
+
+	@Override
+	public void setStepSize(double h) {
+		this.h = h;
+	}
+
+}
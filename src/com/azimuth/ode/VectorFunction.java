@@ -0,0 +1,22 @@
+package com.azimuth.ode;
+
+/**
+ * The derivative F: R x R^n \to R^n of an Initial Value Problem evaluated as
+ * a whole, so that the computations shared by its components are done once.
+ * 
+ * @see InitialValueProblem#getVectorFunction()
+ * @author marco
+ * 
+ */
+public interface VectorFunction {
+
+	/**
+	 * fills result with F(t, values)
+	 * 
+	 * @param t
+	 * @param values
+	 * @param result
+	 */
+	public void value(double t, double[] values, double[] result);
+
+}
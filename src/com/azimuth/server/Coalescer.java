@@ -0,0 +1,271 @@
+package com.azimuth.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.azimuth.ode.InitialValueProblem;
+import com.azimuth.ode.InitialValueProblem.Solution;
+import com.azimuth.ode.Solver;
+
+/**
+ * Joins the concurrent requests with the same key in ensembles.
+ * 
+ * A request solves at once while fewer than "parallelism" ensembles of its
+ * key are solving. The requests arriving later wait in a queue, and when an
+ * ensemble is done the first of them solves the queue as one
+ * EnsembleProblem, up to a maximum size. So requests are not delayed while
+ * there are free processors, and under load the number of solves grows with
+ * the number of models instead of the number of requests.
+ * 
+ * @author marco
+ * 
+ */
+public class Coalescer {
+
+	/**
+	 * A request waiting for its solution
+	 */
+	private static class Member {
+		private final InitialValueProblem problem;
+		private Solution solution;
+		private RuntimeException failure;
+		private boolean done;
+		/**
+		 * whether the member solves the next ensemble
+		 */
+		private boolean leader;
+
+		private Member(InitialValueProblem problem) {
+			this.problem = problem;
+		}
+	}
+
+	/**
+	 * the requests of a key; a group exists while some of its ensembles are
+	 * solving
+	 */
+	private static class Group {
+		/**
+		 * the waiting members, and the leaders that have not woken up yet.
+		 * Members that are not leaders wait only if the ensembles solving
+		 * are as many as the parallelism.
+		 */
+		private final List<Member> queue = new ArrayList<Member>();
+		/**
+		 * the ensembles solving, and the leaders that have not woken up yet
+		 */
+		private int running;
+	}
+
+	private final Map<String, Group> groups = new HashMap<String, Group>();
+	/**
+	 * a lock instead of synchronized, since waiting on a monitor blocks the
+	 * carrier of a virtual thread
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition solved = lock.newCondition();
+	/**
+	 * the largest ensemble
+	 */
+	private final int maxSize;
+	/**
+	 * the largest number of ensembles of a key solving at the same time
+	 */
+	private final int parallelism;
+
+	/**
+	 * statistics
+	 */
+	private int requests;
+	private int solves;
+
+	public Coalescer(int maxSize, int parallelism) {
+		this.maxSize = maxSize;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * solves a problem, possibly with other problems of the same key
+	 * 
+	 * @param key
+	 *            , identifies the problems that can be solved together: with
+	 *            the same derivatives, bounds and solver
+	 * @param problem
+	 * @param solver
+	 *            , an explicit Runge Kutta solver
+	 * @return
+	 */
+	public Solution solve(String key, InitialValueProblem problem,
+			Solver solver) {
+		Member member = new Member(problem);
+		List<Member> ensemble;
+		boolean interrupted = false;
+		lock.lock();
+		try {
+			requests++;
+			Group group = groups.get(key);
+			if (group == null) {
+				group = new Group();
+				groups.put(key, group);
+			}
+			if (group.running < parallelism) {
+				// only leaders are waiting
+				group.running++;
+				member.leader = true;
+			}
+			group.queue.add(member);
+			while (!member.leader && !member.done) {
+				try {
+					solved.await();
+				} catch (InterruptedException e) {
+					if (!member.leader && !member.done) {
+						// the member leaves the queue, or it is solved anyway
+						// by the ensemble it belongs to
+						group.queue.remove(member);
+						Thread.currentThread().interrupt();
+						throw new IllegalStateException("interrupted", e);
+					}
+					// a leader must solve its ensemble, the others wait for it
+					interrupted = true;
+				}
+			}
+			if (member.done) {
+				restore(interrupted);
+				return result(member);
+			}
+			// the other leaders waking up take their own ensembles
+			group.queue.remove(member);
+			ensemble = new ArrayList<Member>();
+			ensemble.add(member);
+			Iterator<Member> waiting = group.queue.iterator();
+			while (ensemble.size() < maxSize && waiting.hasNext()) {
+				Member next = waiting.next();
+				if (!next.leader) {
+					ensemble.add(next);
+					waiting.remove();
+				}
+			}
+			solves++;
+		} finally {
+			lock.unlock();
+		}
+
+		Solution[] solutions = null;
+		RuntimeException failure = null;
+		try {
+			solutions = solve(ensemble, solver);
+		} catch (RuntimeException e) {
+			failure = e;
+		} catch (Error e) {
+			// the members waiting must be released anyway
+			failure = new IllegalStateException(e);
+		}
+
+		lock.lock();
+		try {
+			for (int m = 0; m < ensemble.size(); m++) {
+				Member done = ensemble.get(m);
+				done.done = true;
+				if (failure != null) {
+					done.failure = failure;
+				} else {
+					done.solution = solutions[m];
+				}
+			}
+			// the slot goes to the first member that is not already
+			// leading, since an ensemble finishing before a promoted member
+			// wakes up finds it still in the queue
+			Group group = groups.get(key);
+			Member next = null;
+			for (Member waiting : group.queue) {
+				if (!waiting.leader) {
+					next = waiting;
+					break;
+				}
+			}
+			if (next != null) {
+				next.leader = true;
+			} else if (--group.running == 0) {
+				groups.remove(key);
+			}
+			solved.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		restore(interrupted);
+		return result(member);
+	}
+
+	private static void restore(boolean interrupted) {
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static Solution[] solve(List<Member> ensemble, Solver solver) {
+		if (ensemble.size() == 1) {
+			return new Solution[] { solver.solve(ensemble.get(0).problem) };
+		}
+		List<InitialValueProblem> problems = new ArrayList<InitialValueProblem>();
+		for (Member member : ensemble) {
+			problems.add(member.problem);
+		}
+		EnsembleProblem problem = new EnsembleProblem(problems);
+		return problem.split(solver.solve(problem));
+	}
+
+	private static Solution result(Member member) {
+		if (member.failure != null) {
+			throw member.failure;
+		}
+		return member.solution;
+	}
+
+	/**
+	 * returns the number of problems solved
+	 * 
+	 * @return
+	 */
+	public int getRequests() {
+		lock.lock();
+		try {
+			return requests;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * returns the number of keys with ensembles solving or requests waiting
+	 * 
+	 * @return
+	 */
+	public int getActiveKeys() {
+		lock.lock();
+		try {
+			return groups.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * returns the number of calls to the solver
+	 * 
+	 * @return
+	 */
+	public int getSolves() {
+		lock.lock();
+		try {
+			return solves;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+}
@@ -0,0 +1,131 @@
+package com.azimuth.server;
+
+import java.util.List;
+
+import com.azimuth.ode.CompactSolution;
+import com.azimuth.ode.Function;
+import com.azimuth.ode.InitialValueProblem;
+import com.azimuth.ode.VectorFunction;
+
+/**
+ * The problems of an ensemble solved as one: problems with the same number
+ * of variables and the same bounds, whose values are stacked one after the
+ * other.
+ * 
+ * The components of explicit Runge Kutta methods do not interact, so the
+ * solution of every member equals the one computed alone, while the cost of
+ * the steps is shared.
+ * 
+ * @author marco
+ * 
+ */
+class EnsembleProblem extends InitialValueProblem {
+
+	private final InitialValueProblem[] members;
+	/**
+	 * the number of variables of a member
+	 */
+	private final int size;
+	private final Function[] derivatives;
+
+	EnsembleProblem(List<? extends InitialValueProblem> members) {
+		this.members = members.toArray(new InitialValueProblem[members.size()]);
+		InitialValueProblem first = this.members[0];
+		this.size = first.getSize();
+		setLowerBound(first.getLowerBound());
+		setUpperBound(first.getUpperBound());
+		double[] initialValues = new double[this.members.length * size];
+		for (int m = 0; m < this.members.length; m++) {
+			System.arraycopy(this.members[m].getInitialValue(), 0,
+					initialValues, m * size, size);
+		}
+		setInitialValue(initialValues);
+		this.derivatives = new Function[initialValues.length];
+		for (int m = 0; m < this.members.length; m++) {
+			for (int i = 0; i < size; i++) {
+				derivatives[m * size + i] = new Component(m,
+						this.members[m].getDerivatives()[i]);
+			}
+		}
+	}
+
+	/**
+	 * a derivative of a member, evaluated on its slice of the values
+	 */
+	private class Component implements Function {
+		private final int offset;
+		private final Function f;
+		private final double[] values = new double[size];
+
+		private Component(int member, Function f) {
+			this.offset = member * size;
+			this.f = f;
+		}
+
+		@Override
+		public double value(double t, double[] values) {
+			System.arraycopy(values, offset, this.values, 0, size);
+			return f.value(t, this.values);
+		}
+	}
+
+	@Override
+	public Function[] getDerivatives() {
+		return derivatives;
+	}
+
+	/**
+	 * returns a function evaluating the vector functions of the members, or
+	 * null if a member has none
+	 */
+	@Override
+	public VectorFunction getVectorFunction() {
+		final VectorFunction[] functions = new VectorFunction[members.length];
+		for (int m = 0; m < members.length; m++) {
+			functions[m] = members[m].getVectorFunction();
+			if (functions[m] == null) {
+				return null;
+			}
+		}
+		return new VectorFunction() {
+			private final double[] values = new double[size];
+			private final double[] result = new double[size];
+
+			@Override
+			public void value(double t, double[] values, double[] result) {
+				for (int m = 0; m < functions.length; m++) {
+					System.arraycopy(values, m * size, this.values, 0, size);
+					functions[m].value(t, this.values, this.result);
+					System.arraycopy(this.result, 0, result, m * size, size);
+				}
+			}
+		};
+	}
+
+	/**
+	 * splits the solution of the ensemble in the solutions of the members; a
+	 * compact solution is split without decoding, in compact solutions
+	 * equal to the ones of the members solved alone
+	 * 
+	 * @param solution
+	 * @return
+	 */
+	Solution[] split(Solution solution) {
+		Solution[] solutions = new Solution[members.length];
+		if (solution instanceof CompactSolution) {
+			CompactSolution compact = (CompactSolution) solution;
+			for (int m = 0; m < members.length; m++) {
+				solutions[m] = compact.getVariables(m * size, size);
+			}
+			return solutions;
+		}
+		double[][] values = solution.getValues();
+		for (int m = 0; m < members.length; m++) {
+			double[][] memberValues = new double[size][];
+			System.arraycopy(values, m * size, memberValues, 0, size);
+			solutions[m] = new Solution(solution.getTimesteps(), memberValues);
+		}
+		return solutions;
+	}
+
+}
@@ -0,0 +1,304 @@
+package com.azimuth.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+import com.azimuth.batch.Job;
+import com.azimuth.batch.Manifest;
+import com.azimuth.batch.OutputFormat;
+import com.azimuth.model.Model;
+import com.azimuth.ode.InitialValueProblem.Solution;
+import com.azimuth.ode.RungeKuttaSolver;
+import com.azimuth.ode.Solver;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An HTTP service solving models, listening only on the loopback address.
+ * 
+ * A POST to /solve carries the text of a model in the body, and the options
+ * in the query, with the keys of a Manifest job:
+ * 
+ * POST /solve?to=10&step=0.01&solver=RK4&parameter.a=2&initial.x=1&format=json
+ * 
+ * The response is the solution in the json (default), binary or text
+ * OutputFormat, sent in chunks as it is written. Errors in the request are
+ * answered with 400 and a message.
+ * 
+ * Concurrent requests for the same small model, bounds and Runge Kutta
+ * solver are coalesced: when more of them arrive than there are processors,
+ * the excess is solved in ensembles, whatever their parameters and initial
+ * values, so the solves in flight stay bounded under load. The requests are handled on virtual
+ * threads when the JVM supports them (Java 21), and on a cached thread pool
+ * otherwise.
+ * 
+ * Usage: SolveServer [port]
+ * 
+ * @author marco
+ * 
+ */
+public class SolveServer {
+
+	private final static Logger logger = Logger.getLogger(SolveServer.class
+			.getSimpleName());
+
+	/**
+	 * default constants
+	 */
+	private final static int DEFAULT_PORT = 8642;
+	private final static int DEFAULT_MAX_ENSEMBLE = 64;
+	private final static int DEFAULT_COALESCE_LIMIT = 64;
+
+	private final HttpServer server;
+	private final Coalescer coalescer;
+	private ExecutorService executor;
+	/**
+	 * the largest model coalesced with other requests
+	 */
+	private volatile int coalesceLimit = DEFAULT_COALESCE_LIMIT;
+
+	/**
+	 * Creates a server
+	 * 
+	 * @param port
+	 *            , the port, or 0 for any free port
+	 * @param maxEnsemble
+	 *            , the largest number of requests solved together
+	 * @throws IOException
+	 */
+	public SolveServer(int port, int maxEnsemble) throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress
+				.getLoopbackAddress(), port), 0);
+		this.coalescer = new Coalescer(maxEnsemble, Runtime.getRuntime()
+				.availableProcessors());
+		server.createContext("/solve", new SolveHandler());
+	}
+
+	public SolveServer(int port) throws IOException {
+		this(port, DEFAULT_MAX_ENSEMBLE);
+	}
+
+	public synchronized void start() {
+		executor = newExecutor();
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * stops the server, waiting at most delay seconds for the requests being
+	 * handled
+	 * 
+	 * @param delay
+	 */
+	public synchronized void stop(int delay) {
+		server.stop(delay);
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * returns an executor running every task on a new virtual thread, or a
+	 * cached thread pool before Java 21
+	 * 
+	 * @return
+	 */
+	static ExecutorService newExecutor() {
+		try {
+			Method method = Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (Exception e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	/**
+	 * handles the requests to /solve
+	 */
+	private class SolveHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				if (!"POST".equals(exchange.getRequestMethod())) {
+					exchange.getResponseHeaders().set("Allow", "POST");
+					error(exchange, 405, "use POST");
+					return;
+				}
+				Model model;
+				Job job = new Job("request", null);
+				job.setFormat(OutputFormat.JSON);
+				try {
+					model = Model.parse(read(exchange.getRequestBody()));
+					Manifest.configure(job, query(exchange.getRequestURI()
+							.getRawQuery()));
+					job.configure(model);
+				} catch (IOException e) {
+					error(exchange, 400, e.getMessage());
+					return;
+				} catch (IllegalArgumentException e) {
+					error(exchange, 400, e.getMessage());
+					return;
+				} catch (RuntimeException e) {
+					logger.warning("cannot read the request: " + e);
+					error(exchange, 500, e.toString());
+					return;
+				}
+
+				Solution solution;
+				try {
+					solution = solve(model, job);
+				} catch (RuntimeException e) {
+					logger.warning("cannot solve: " + e);
+					error(exchange, 500, e.toString());
+					return;
+				}
+
+				OutputFormat format = job.getFormat();
+				exchange.getResponseHeaders().set("Content-Type",
+						contentType(format));
+				// a length of 0 sends the response in chunks
+				exchange.sendResponseHeaders(200, 0);
+				OutputStream body = exchange.getResponseBody();
+				format.write(solution, model.getVariableNames(), body);
+				body.close();
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+	private Solution solve(Model model, Job job) {
+		Solver solver = job.createSolver();
+		if (solver instanceof RungeKuttaSolver
+				&& model.getSize() <= coalesceLimit) {
+			// the requests differ only by parameters and initial values
+			String key = job.getSolver() + " " + job.getStepSize() + " "
+					+ job.getStorage() + " " + job.getErrorBound() + " "
+					+ model.getLowerBound() + " " + model.getUpperBound()
+					+ "\n" + model.getDefinition();
+			return coalescer.solve(key, model, solver);
+		}
+		return solver.solve(model);
+	}
+
+	private static String contentType(OutputFormat format) {
+		switch (format) {
+		case JSON:
+			return "application/json";
+		case TEXT:
+			return "text/plain; charset=utf-8";
+		default:
+			return "application/octet-stream";
+		}
+	}
+
+	private static void error(HttpExchange exchange, int code, String message)
+			throws IOException {
+		byte[] bytes = (message + "\n").getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type",
+				"text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(code, bytes.length);
+		OutputStream body = exchange.getResponseBody();
+		body.write(bytes);
+		body.close();
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int length;
+		while ((length = in.read(buffer)) > 0) {
+			bytes.write(buffer, 0, length);
+		}
+		return bytes.toString("UTF-8");
+	}
+
+	/**
+	 * returns the parameters of a query as properties
+	 */
+	private static Properties query(String query) throws IOException {
+		Properties properties = new Properties();
+		if (query == null) {
+			return properties;
+		}
+		for (String parameter : query.split("&")) {
+			if (parameter.length() == 0) {
+				continue;
+			}
+			int equals = parameter.indexOf('=');
+			if (equals < 0) {
+				throw new IOException("no value for " + parameter);
+			}
+			properties.setProperty(URLDecoder.decode(parameter.substring(0,
+					equals), "UTF-8"), URLDecoder.decode(parameter
+					.substring(equals + 1), "UTF-8"));
+		}
+		return properties;
+	}
+
+	/**
+	 * returns the port the server listens to
+	 * 
+	 * @return
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * returns the number of requests coalesced or solved alone
+	 * 
+	 * @return
+	 */
+	public int getCoalescedRequests() {
+		return coalescer.getRequests();
+	}
+
+	/**
+	 * returns the number of ensembles solved for the coalesced requests
+	 * 
+	 * @return
+	 */
+	public int getEnsembles() {
+		return coalescer.getSolves();
+	}
+
+	public int getCoalesceLimit() {
+		return coalesceLimit;
+	}
+
+	/**
+	 * sets the largest number of variables of a model coalesced with other
+	 * requests; 0 disables coalescing
+	 * 
+	 * @param coalesceLimit
+	 */
+	public void setCoalesceLimit(int coalesceLimit) {
+		this.coalesceLimit = coalesceLimit;
+	}
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		SolveServer server = new SolveServer(port);
+		server.start();
+		System.out.println("listening on http://localhost:" + server.getPort()
+				+ "/solve");
+	}
+
+}
@@ -0,0 +1,97 @@
+package com.azimuth.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.azimuth.model.Model;
+import com.azimuth.ode.CachingSolver;
+import com.azimuth.ode.InitialValueProblem.Solution;
+import com.azimuth.ode.RungeKuttaSolver;
+import com.azimuth.ode.SolutionCache;
+
+// solves the predator prey model over growing intervals through a cache
+// with a disk tier, then again with a new cache reading the same directory;
+// every truncated or extended solution must equal a direct solve; the
+// directory is temporary and deleted at the end
+public class CacheTest {
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		String filename = args.length > 0 ? args[0]
+				: "./models/predator_prey.model";
+		File directory = File.createTempFile("cache", "");
+		directory.delete();
+		try {
+			run(filename, directory);
+		} finally {
+			delete(directory);
+		}
+	}
+
+	private static void run(String filename, File directory)
+			throws IOException {
+		SolutionCache cache = new SolutionCache(16L << 20, directory);
+		CachingSolver solver = new CachingSolver(new RungeKuttaSolver(0.001),
+				cache);
+
+		double[] upperBounds = { 50, 20, 100, 100, 200 };
+		for (double upperBound : upperBounds) {
+			solve(Model.load(filename), upperBound, solver);
+		}
+		System.out.println("hits: " + solver.getHits() + ", extensions: "
+				+ solver.getExtensions() + ", misses: " + solver.getMisses());
+
+		// a new process would find the solutions on disk
+		CachingSolver restarted = new CachingSolver(
+				new RungeKuttaSolver(0.001), new SolutionCache(16L << 20,
+						directory));
+		solve(Model.load(filename), 150, restarted);
+		System.out.println("disk hits: " + restarted.getCache().getDiskHits());
+	}
+
+	private static void delete(File directory) {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	private static void solve(Model model, double upperBound,
+			CachingSolver solver) {
+		model.setLowerBound(0);
+		model.setUpperBound(upperBound);
+		long start = System.nanoTime();
+		Solution solution = solver.solve(model);
+		long time = System.nanoTime() - start;
+		double[][] values = solution.getValues();
+		int last = values[0].length - 1;
+		System.out.println("[0, " + upperBound + "]: " + (last + 1)
+				+ " points, prey " + values[0][last] + ", " + time / 1000
+				+ " us");
+
+		Solution direct = new RungeKuttaSolver(solver.getStepSize())
+				.solve(model);
+		double[] times = solution.getTimesteps();
+		double[] directTimes = direct.getTimesteps();
+		if (!Arrays.deepEquals(values, direct.getValues())) {
+			throw new IllegalStateException("[0, " + upperBound
+					+ "]: the values differ from a direct solve");
+		}
+		// the times of an extension are computed from its own start
+		for (int n = 0; n < times.length; n++) {
+			if (Math.abs(times[n] - directTimes[n]) > 1e-9) {
+				throw new IllegalStateException("[0, " + upperBound
+						+ "]: time " + times[n] + " instead of "
+						+ directTimes[n]);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,157 @@
+package com.azimuth.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.azimuth.ode.Function;
+import com.azimuth.ode.InitialValueProblem;
+import com.azimuth.ode.InitialValueProblem.Solution;
+import com.azimuth.ode.RungeKuttaSolver;
+import com.azimuth.ode.Solver;
+import com.azimuth.server.Coalescer;
+
+// two ensembles of the same key finish together while two requests wait:
+// every round checks the solutions, that the key is released at the end,
+// and that two new requests still solve in parallel
+public class CoalescerTest {
+
+	private final static int ROUNDS = 200;
+	private final static String KEY = "decay";
+
+	/**
+	 * A solver that waits for a permit before solving
+	 */
+	private static class GatedSolver implements Solver {
+		private final Solver solver = new RungeKuttaSolver(0.1);
+		private final Semaphore gate = new Semaphore(0);
+		private final Semaphore started = new Semaphore(0);
+
+		@Override
+		public Solution solve(InitialValueProblem problem) {
+			started.release();
+			gate.acquireUninterruptibly();
+			return solver.solve(problem);
+		}
+
+		@Override
+		public double getStepSize() {
+			return solver.getStepSize();
+		}
+
+		@Override
+		public void setStepSize(double h) {
+			solver.setStepSize(h);
+		}
+	}
+
+	/**
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			for (int round = 0; round < ROUNDS; round++) {
+				Coalescer coalescer = new Coalescer(64, 2);
+				GatedSolver solver = new GatedSolver();
+				List<Future<Solution>> futures = new ArrayList<Future<Solution>>();
+				// two leaders
+				for (int i = 0; i < 2; i++) {
+					futures.add(submit(executor, coalescer, solver, i));
+				}
+				await(solver.started, 2);
+				// two requests waiting
+				for (int i = 2; i < 4; i++) {
+					futures.add(submit(executor, coalescer, solver, i));
+				}
+				while (coalescer.getRequests() < 4) {
+					Thread.sleep(1);
+				}
+				// both leaders finish, then the waiting requests
+				solver.gate.release(4);
+				for (int i = 0; i < 4; i++) {
+					check(futures.get(i).get(10, TimeUnit.SECONDS), i);
+				}
+				if (coalescer.getActiveKeys() != 0) {
+					throw new IllegalStateException("round " + round
+							+ ": the key is still active");
+				}
+
+				// the key reaches its parallelism again
+				futures.clear();
+				for (int i = 0; i < 2; i++) {
+					futures.add(submit(executor, coalescer, solver, i));
+				}
+				await(solver.started, 2);
+				solver.gate.release(2);
+				for (int i = 0; i < 2; i++) {
+					check(futures.get(i).get(10, TimeUnit.SECONDS), i);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		System.out.println(ROUNDS + " rounds: ok");
+	}
+
+	private static Future<Solution> submit(ExecutorService executor,
+			final Coalescer coalescer, final Solver solver, final int i) {
+		return executor.submit(new Callable<Solution>() {
+			@Override
+			public Solution call() {
+				return coalescer.solve(KEY, decay(i), solver);
+			}
+		});
+	}
+
+	/**
+	 * waits until the solver has been called the given number of times
+	 */
+	private static void await(Semaphore started, int calls)
+			throws InterruptedException {
+		if (!started.tryAcquire(calls, 10, TimeUnit.SECONDS)) {
+			throw new IllegalStateException("the solves do not start");
+		}
+	}
+
+	/**
+	 * y' = -y, y(0) = i
+	 */
+	private static InitialValueProblem decay(int i) {
+		InitialValueProblem problem = new InitialValueProblem() {
+			private Function[] derivatives = { new Function() {
+				@Override
+				public double value(double t, double[] values) {
+					return -values[0];
+				}
+			} };
+
+			@Override
+			public Function[] getDerivatives() {
+				return derivatives;
+			}
+		};
+		problem.setInitialValue(new double[] { i });
+		problem.setLowerBound(0);
+		problem.setUpperBound(1);
+		return problem;
+	}
+
+	private static void check(Solution solution, int i) {
+		Solution expected = new RungeKuttaSolver(0.1).solve(decay(i));
+		double[] values = solution.getValues()[0];
+		double[] direct = expected.getValues()[0];
+		if (values[values.length - 1] != direct[direct.length - 1]) {
+			throw new IllegalStateException("request " + i + ": "
+					+ values[values.length - 1] + " instead of "
+					+ direct[direct.length - 1]);
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+package com.azimuth.test;
+
+import com.azimuth.ode.Function;
+import com.azimuth.ode.InitialValueProblem;
+import com.azimuth.ode.RungeKuttaSolver;
+import com.azimuth.ode.RungeKuttaSolver.ButcherTableau;
+
+// compares the generic Runge Kutta loop with the compiled step kernels for
+// every tableau, on the predator prey model and on a chain of 1000 coupled
+// oscillators
+public class KernelBenchmark {
+
+	private static final int REPETITIONS = 5;
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		InitialValueProblem predatorPrey = new InitialValueProblem() {
+
+			private Function[] derivatives = {
+					new Function() { // prey rate
+						@Override
+						public double value(double t, double[] values) {
+							return (1.5 - values[1])*values[0];
+						}
+					},
+					new Function() { // predator rate
+						@Override
+						public double value(double t, double[] values) {
+							return (-3 + values[0])*values[1];
+						}
+					}
+			};
+
+			@Override
+			public Function[] getDerivatives() {
+				return derivatives;
+			}
+		};
+		predatorPrey.setInitialValue(new double[]{10, 4});
+		predatorPrey.setLowerBound(0);
+		predatorPrey.setUpperBound(200);
+
+		final int size = 1000;
+		final Function[] chain = new Function[size];
+		for (int i = 0; i < size; i++) {
+			final int j = i;
+			chain[i] = new Function() {
+				@Override
+				public double value(double t, double[] values) {
+					double left = j > 0 ? values[j-1] : 0;
+					double right = j < size-1 ? values[j+1] : 0;
+					return left - 2*values[j] + right;
+				}
+			};
+		}
+		InitialValueProblem oscillators = new InitialValueProblem() {
+			@Override
+			public Function[] getDerivatives() {
+				return chain;
+			}
+		};
+		double[] initialValues = new double[size];
+		for (int i = 0; i < size; i++) {
+			initialValues[i] = Math.sin(i*Math.PI/size);
+		}
+		oscillators.setInitialValue(initialValues);
+		oscillators.setLowerBound(0);
+		oscillators.setUpperBound(20);
+
+		System.out.println("tableau\tmodel\tgeneric (ms)\tcompiled (ms)\tspeedup");
+		for (ButcherTableau tableau : ButcherTableau.values()) {
+			run(tableau, "predator prey", predatorPrey, 0.001);
+			run(tableau, "oscillators", oscillators, 0.01);
+		}
+	}
+
+	private static void run(ButcherTableau tableau, String model,
+			InitialValueProblem problem, double h) {
+		RungeKuttaSolver solver = new RungeKuttaSolver(h, tableau);
+		solver.setThreads(1);
+		solver.setCompiled(false);
+		double generic = time(solver, problem);
+		solver.setCompiled(true);
+		double compiled = time(solver, problem);
+		System.out.println(tableau + "\t" + model + "\t"
+				+ String.format("%.1f\t%.1f\t%.2f", generic, compiled, generic/compiled));
+	}
+
+	/**
+	 * returns the best time of a few solutions, after a warm up
+	 */
+	private static double time(RungeKuttaSolver solver, InitialValueProblem problem) {
+		solver.solve(problem);
+		double best = Double.MAX_VALUE;
+		for (int i = 0; i < REPETITIONS; i++) {
+			long start = System.nanoTime();
+			solver.solve(problem);
+			best = Math.min(best, (System.nanoTime() - start)/1e6);
+		}
+		return best;
+	}
+
+}
@@ -0,0 +1,42 @@
+package com.azimuth.test;
+
+import java.io.IOException;
+
+import com.azimuth.model.Model;
+import com.azimuth.ode.InitialValueProblem.Solution;
+import com.azimuth.ode.RungeKuttaSolver;
+import com.azimuth.plot.Plot2D;
+import com.azimuth.plot.Plot2D.Series;
+
+// the predator prey model of PredatorPreyTest, read from a model file
+public class ModelTest {
+
+	/**
+	 * @param args
+	 * @throws IOException 
+	 */
+	public static void main(String[] args) throws IOException {
+		Model model = Model.load(args.length > 0 ? args[0] : "./models/predator_prey.model");
+		model.setLowerBound(0);
+		model.setUpperBound(20);
+		RungeKuttaSolver solver = new RungeKuttaSolver(0.05);
+		Solution solution = solver.solve(model);
+		System.out.println("instructions: " + model.getNumberOfInstructions());
+		System.out.println("compiled: " + model.isCompiled());
+
+		String[] names = model.getVariableNames();
+		double[][] values = solution.getValues(); 
+		Plot2D plot = new Plot2D();
+		for (int i=0; i<values.length; i++  ){
+			Series series = new Series();
+			series.setYValues(values[i]);
+			series.setXValues(solution.getTimesteps());
+			series.setXLabel("time");
+			series.setYLabel(names[i]);
+			series.setTitle(names[i]);
+			plot.addSeries(series);
+		}
+		plot.render("./output/model");
+	}
+
+}
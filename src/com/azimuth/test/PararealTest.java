@@ -0,0 +1,60 @@
+package com.azimuth.test;
+
+import java.io.IOException;
+
+import com.azimuth.model.Model;
+import com.azimuth.ode.InitialValueProblem.Solution;
+import com.azimuth.ode.PararealSolver;
+import com.azimuth.ode.RungeKuttaSolver;
+import com.azimuth.ode.RungeKuttaSolver.ButcherTableau;
+
+// compares the wall clock time of RK4 and Parareal on a long horizon
+public class PararealTest {
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		Model model = Model.load(args.length > 0 ? args[0]
+				: "./models/predator_prey.model");
+		model.setLowerBound(0);
+		model.setUpperBound(40);
+
+		double h = 1e-5;
+		RungeKuttaSolver serial = new RungeKuttaSolver(h);
+		int slices = Runtime.getRuntime().availableProcessors();
+		PararealSolver parareal = new PararealSolver(new RungeKuttaSolver(h),
+				new RungeKuttaSolver(1e-3, ButcherTableau.RK4), slices);
+
+		// both use the evaluator of the model, compiled by the first solve
+		model.setUpperBound(1);
+		serial.solve(model);
+		parareal.solve(model);
+		model.setUpperBound(40);
+
+		long start = System.nanoTime();
+		Solution reference = serial.solve(model);
+		double serialTime = (System.nanoTime() - start) / 1e9;
+
+		start = System.nanoTime();
+		Solution solution = parareal.solve(model);
+		double pararealTime = (System.nanoTime() - start) / 1e9;
+
+		double error = 0;
+		double[][] expected = reference.getValues();
+		double[][] values = solution.getValues();
+		for (int j = 0; j < values.length; j++) {
+			for (int i = 0; i < values[j].length; i++) {
+				error = Math.max(error, Math.abs(values[j][i] - expected[j][i]));
+			}
+		}
+		System.out.println("slices: " + slices);
+		System.out.println("iterations: " + parareal.getIterations());
+		System.out.println("serial: " + serialTime + " s");
+		System.out.println("parareal: " + pararealTime + " s");
+		System.out.println("speedup: " + serialTime / pararealTime);
+		System.out.println("max difference: " + error);
+	}
+
+}
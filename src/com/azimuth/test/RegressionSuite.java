@@ -0,0 +1,876 @@
+package com.azimuth.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.azimuth.linear.SparsityPattern;
+import com.azimuth.model.Model;
+import com.azimuth.ode.AbstractDifferentiableFunction;
+import com.azimuth.ode.AdjointSolver;
+import com.azimuth.ode.AutomaticJacobian;
+import com.azimuth.ode.BDFSolver;
+import com.azimuth.ode.CompactSolution;
+import com.azimuth.ode.DelaySolver;
+import com.azimuth.ode.Dual;
+import com.azimuth.ode.FiniteDifferenceJacobian;
+import com.azimuth.ode.ForwardSensitivitySolver;
+import com.azimuth.ode.Function;
+import com.azimuth.ode.InitialValueProblem;
+import com.azimuth.ode.InitialValueProblem.Solution;
+import com.azimuth.ode.Objective;
+import com.azimuth.ode.RosenbrockSolver;
+import com.azimuth.ode.RungeKuttaSolver;
+import com.azimuth.ode.RungeKuttaSolver.ButcherTableau;
+import com.azimuth.ode.SensitivitySolution;
+import com.azimuth.ode.Solver;
+
+/**
+ * Checks the solvers against known solutions, and their time and allocation
+ * against the baselines file; prints a line for every check and exits with
+ * status 1 when one fails, so that it can run in a build.
+ * 
+ * The time baselines are scaled up when a reference loop, which does not
+ * depend on the solvers, runs slower than when they were recorded, and the
+ * times may exceed them by time.margin; -notime only reports the times, e.g.
+ * on a shared machine.
+ * 
+ * Usage: RegressionSuite [-record] [-notime] [baselines file]
+ * 
+ * @author marco
+ * 
+ */
+public class RegressionSuite {
+
+	private final static String DEFAULT_BASELINES = "./baselines.properties";
+	private final static double DEFAULT_ALLOCATION_MARGIN = 0.1;
+	/**
+	 * the time of a run varies much more than its allocation
+	 */
+	private final static double DEFAULT_TIME_MARGIN = 1.0;
+	private final static int RETRIES = 2;
+	/**
+	 * the size of the matrices of the reference loop
+	 */
+	private final static int REFERENCE_SIZE = 120;
+	private final static int WARMUP_RUNS = 10;
+	private final static long WARMUP_NANOS = 1000000000L;
+	private final static int MEASURED_RUNS = 10;
+	/**
+	 * the solves run while another thread uses the same model
+	 */
+	private final static int SHARED_RUNS = 50;
+	/**
+	 * the convergence checks stop at errors dominated by the roundoff
+	 */
+	private final static double MIN_ERROR = 1e-13;
+	private final static double MIN_STEP_SIZE = 1e-4;
+	/**
+	 * the high order methods reach the roundoff before the asymptotic range,
+	 * while a wrong coefficient loses at least one order
+	 */
+	private final static double ORDER_TOLERANCE = 0.5;
+
+	/**
+	 * the ratio of the time scales of the stiff system
+	 */
+	private final static double STIFFNESS = 1e4;
+
+	private final static double PREY_GROWTH_RATE = 1.5;
+	private final static double IMPACT_ON_PREDATION = 1;
+	private final static double PREDATOR_DEATH_RATE = 3;
+	private final static double PREDATOR_GROWTH_RATE = 1;
+
+	private static int checks;
+	private static int failures;
+	/**
+	 * keeps the result of the reference loop alive
+	 */
+	private static double sink;
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		boolean record = false;
+		boolean time = true;
+		String filename = DEFAULT_BASELINES;
+		for (String arg : args) {
+			if ("-record".equals(arg)) {
+				record = true;
+			} else if ("-notime".equals(arg)) {
+				time = false;
+			} else {
+				filename = arg;
+			}
+		}
+
+		for (ButcherTableau tableau : ButcherTableau.values()) {
+			checkConvergence(tableau, exponential(), Math.E);
+			checkConvergence(tableau, tangent(), Math.tan(1));
+		}
+		checkInvariant("RK4, h = 0.001", new RungeKuttaSolver(0.001),
+				predatorPrey(), 1e-9);
+		checkInvariant("FEHLBERG8, h = 0.01", new RungeKuttaSolver(0.01,
+				ButcherTableau.FEHLBERG8), predatorPrey(), 1e-9);
+		checkInvariant("model, RK4, h = 0.001", new RungeKuttaSolver(0.001),
+				Model.load("./models/predator_prey.model"), 1e-9);
+		checkDelay();
+		checkStiff("BDF order 2, h = 0.01", new BDFSolver(0.01, 2), 1e-4);
+		checkStiff("BDF order 4, h = 0.01", new BDFSolver(0.01, 4), 1e-6);
+		checkStiff("ROS2, h = 0.01", new RosenbrockSolver(0.01), 1e-4);
+		checkAutomaticJacobian(40);
+		checkSensitivity();
+		checkAdjoint("predator prey", Model
+				.load("./models/predator_prey.model"));
+		checkAdjoint("functions", Model.parse("parameter a = 0.5\n"
+				+ "parameter b = 2\n" + "parameter c = 0.3\n"
+				+ "x(0) = 1\n" + "y(0) = 0.5\n"
+				+ "dx/dt = sin(a*y) - x/b + pow(c, 2)*exp(-x)\n"
+				+ "dy/dt = sqrt(b + x*x)*c - log(1 + a*y*y)\n"));
+		checkBaselines(new File(filename), record, time);
+
+		System.out.println(checks + " checks, " + failures + " failed");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	private static void check(String name, boolean passed, String detail) {
+		checks++;
+		if (!passed) {
+			failures++;
+		}
+		System.out.println((passed ? "ok     " : "FAILED ") + name + ": "
+				+ detail);
+	}
+
+	/**
+	 * halves the step while the error at t = 1 stays above the roundoff: in
+	 * the asymptotic range the ratio of the errors of the last halving is
+	 * 2^order
+	 */
+	private static void checkConvergence(ButcherTableau tableau,
+			InitialValueProblem problem, double exact) {
+		double h = 0.5;
+		double error = error(tableau, problem, h, exact);
+		double order = Double.NaN;
+		while (h > MIN_STEP_SIZE) {
+			double next = error(tableau, problem, h / 2, exact);
+			if (next < MIN_ERROR) {
+				break;
+			}
+			order = Math.log(error / next) / Math.log(2);
+			h /= 2;
+			error = next;
+		}
+		check(tableau.name() + " order on " + problem, order > tableau
+				.getOrder() - ORDER_TOLERANCE, String.format(
+				"expected %d, measured %.2f (h = %s, error %.2e)",
+				tableau.getOrder(), order, h, error));
+	}
+
+	private static double error(ButcherTableau tableau,
+			InitialValueProblem problem, double h, double exact) {
+		Solution solution = new RungeKuttaSolver(h, tableau).solve(problem);
+		double[][] values = solution.getValues();
+		return Math.abs(values[0][values[0].length - 1] - exact) / exact;
+	}
+
+	/**
+	 * y' = y, y(0) = 1, y(1) = e
+	 */
+	private static InitialValueProblem exponential() {
+		InitialValueProblem problem = new InitialValueProblem() {
+			private Function[] derivatives = { new Function() {
+				@Override
+				public double value(double t, double[] values) {
+					return values[0];
+				}
+			} };
+
+			@Override
+			public Function[] getDerivatives() {
+				return derivatives;
+			}
+
+			@Override
+			public String toString() {
+				return "exp(t)";
+			}
+		};
+		problem.setInitialValue(new double[] { 1 });
+		problem.setLowerBound(0);
+		problem.setUpperBound(1);
+		return problem;
+	}
+
+	/**
+	 * y' = 1 + y^2, y(0) = 0, y(1) = tan(1)
+	 */
+	private static InitialValueProblem tangent() {
+		InitialValueProblem problem = new InitialValueProblem() {
+			private Function[] derivatives = { new Function() {
+				@Override
+				public double value(double t, double[] values) {
+					return 1 + values[0] * values[0];
+				}
+			} };
+
+			@Override
+			public Function[] getDerivatives() {
+				return derivatives;
+			}
+
+			@Override
+			public String toString() {
+				return "tan(t)";
+			}
+		};
+		problem.setInitialValue(new double[] { 0 });
+		problem.setLowerBound(0);
+		problem.setUpperBound(1);
+		return problem;
+	}
+
+	// http://mathworld.wolfram.com/Lotka-VolterraEquations.html
+	private static InitialValueProblem predatorPrey() {
+		InitialValueProblem problem = new InitialValueProblem() {
+			private Function[] derivatives = { new Function() { // prey rate
+						@Override
+						public double value(double t, double[] values) {
+							return (PREY_GROWTH_RATE - IMPACT_ON_PREDATION
+									* values[1])
+									* values[0];
+						}
+					}, new Function() { // predator rate
+						@Override
+						public double value(double t, double[] values) {
+							return (-PREDATOR_DEATH_RATE + PREDATOR_GROWTH_RATE
+									* values[0])
+									* values[1];
+						}
+					} };
+
+			@Override
+			public Function[] getDerivatives() {
+				return derivatives;
+			}
+		};
+		problem.setInitialValue(new double[] { 10, 4 });
+		problem.setLowerBound(0);
+		problem.setUpperBound(100);
+		return problem;
+	}
+
+	/**
+	 * the Lotka-Volterra invariant, constant along the exact solutions
+	 */
+	private static double invariant(double prey, double predator) {
+		return PREDATOR_GROWTH_RATE * prey - PREDATOR_DEATH_RATE
+				* Math.log(prey) + IMPACT_ON_PREDATION * predator
+				- PREY_GROWTH_RATE * Math.log(predator);
+	}
+
+	private static void checkInvariant(String name, Solver solver,
+			InitialValueProblem problem, double tolerance) {
+		problem.setLowerBound(0);
+		problem.setUpperBound(100);
+		double[][] values = solver.solve(problem).getValues();
+		double v0 = invariant(values[0][0], values[1][0]);
+		double drift = 0;
+		for (int n = 0; n < values[0].length; n++) {
+			drift = Math.max(drift, Math.abs(invariant(values[0][n],
+					values[1][n])
+					- v0));
+		}
+		drift /= Math.abs(v0);
+		check("invariant drift, " + name, drift < tolerance, String.format(
+				"%.2e (tolerance %.0e)", drift, tolerance));
+	}
+
+	/**
+	 * y'(t) = -y(t - 1) with y = 1 for t <= 0, solved by the method of steps:
+	 * y = 1 - t on [0, 1], 1 - t + (t - 1)^2/2 on [1, 2] and 1 - t + (t -
+	 * 1)^2/2 - (t - 2)^3/6 on [2, 3]
+	 */
+	private static void checkDelay() {
+		InitialValueProblem problem = new InitialValueProblem() {
+			private Function[] derivatives = { new Function() {
+				// values = [y(t), y(t - 1)]
+				@Override
+				public double value(double t, double[] values) {
+					return -values[1];
+				}
+			} };
+
+			@Override
+			public Function[] getDerivatives() {
+				return derivatives;
+			}
+		};
+		problem.setInitialValue(new double[] { 1 });
+		problem.setLowerBound(0);
+		problem.setUpperBound(3);
+		double coarse = delayError(problem, 100);
+		double fine = delayError(problem, 200);
+		double order = Math.log(coarse / fine) / Math.log(2);
+		check("DelaySolver on y'(t) = -y(t - 1)", fine < 1e-2 && order > 0.8,
+				String.format("error %.2e with 200 points per delay, "
+						+ "measured order %.2f", fine, order));
+	}
+
+	private static double delayError(InitialValueProblem problem,
+			int meshPoints) {
+		Solution solution = new DelaySolver(1, meshPoints,
+				new RungeKuttaSolver(0.1)).solve(problem);
+		double[] times = solution.getTimesteps();
+		double[] values = solution.getValues()[0];
+		double error = 0;
+		for (int n = 0; n < times.length; n++) {
+			double t = times[n];
+			double exact = 1 - t;
+			if (t > 1) {
+				exact += (t - 1) * (t - 1) / 2;
+			}
+			if (t > 2) {
+				exact -= (t - 2) * (t - 2) * (t - 2) / 6;
+			}
+			error = Math.max(error, Math.abs(values[n] - exact));
+		}
+		return error;
+	}
+
+	/**
+	 * y1' = -y1, y2' = -STIFFNESS (y2 - y1) with y(0) = (1, 0):
+	 * 
+	 * y1 = exp(-t), y2 = c exp(-t) - c exp(-STIFFNESS t), c = STIFFNESS /
+	 * (STIFFNESS - 1)
+	 */
+	private static InitialValueProblem stiff() {
+		InitialValueProblem problem = new InitialValueProblem() {
+			private Function[] derivatives = { new Function() {
+				@Override
+				public double value(double t, double[] values) {
+					return -values[0];
+				}
+			}, new Function() {
+				@Override
+				public double value(double t, double[] values) {
+					return -STIFFNESS * (values[1] - values[0]);
+				}
+			} };
+
+			@Override
+			public Function[] getDerivatives() {
+				return derivatives;
+			}
+		};
+		problem.setInitialValue(new double[] { 1, 0 });
+		problem.setLowerBound(0);
+		problem.setUpperBound(10);
+		return problem;
+	}
+
+	/**
+	 * checks the error of a stiff solver after the transient, and that it is
+	 * faster than RK4 with the largest stable step reaching the same error
+	 */
+	private static void checkStiff(String name, Solver solver,
+			double tolerance) {
+		InitialValueProblem problem = stiff();
+		double c = STIFFNESS / (STIFFNESS - 1);
+		double error = 0;
+		Solution solution = solver.solve(problem);
+		double[] times = solution.getTimesteps();
+		double[][] values = solution.getValues();
+		for (int n = 0; n < times.length; n++) {
+			if (times[n] >= 0.1) {
+				double exact = Math.exp(-times[n]);
+				error = Math.max(error, Math.max(Math.abs(values[0][n]
+						- exact), Math.abs(values[1][n] - c * exact)));
+			}
+		}
+		// RK4 is stable for h STIFFNESS < 2.78
+		Solver explicit = new RungeKuttaSolver(2.5 / STIFFNESS);
+		long stiffNanos = bestTime(solver, problem);
+		long explicitNanos = bestTime(explicit, problem);
+		check("stiff system, " + name, error < tolerance
+				&& stiffNanos < explicitNanos, String.format(
+				"error %.2e (tolerance %.0e), %d us against %d us for RK4",
+				error, tolerance, stiffNanos / 1000, explicitNanos / 1000));
+	}
+
+	/**
+	 * f_i = sin(y_i) y_(i+1) - exp(-y_(i-1)) / (1 + y_i^2), on a chain of n
+	 * variables
+	 */
+	private static Function[] chain(final int n) {
+		Function[] f = new Function[n];
+		for (int i = 0; i < n; i++) {
+			final int k = i;
+			f[i] = new AbstractDifferentiableFunction() {
+				@Override
+				public void value(double t, Dual[] values, Dual result) {
+					result.set(values[k]).sin();
+					if (k + 1 < n) {
+						result.multiply(values[k + 1]);
+					}
+					if (k > 0) {
+						int width = result.getWidth();
+						Dual denominator = new Dual(width).set(values[k])
+								.square().add(1.);
+						result.subtract(new Dual(width).set(values[k - 1])
+								.negate().exp().divide(denominator));
+					}
+				}
+			};
+		}
+		return f;
+	}
+
+	/**
+	 * compares the dense and the compressed AutomaticJacobian of a chain with
+	 * finite differences, and their F(t, y) with the plain values
+	 */
+	private static void checkAutomaticJacobian(int n) {
+		Function[] f = chain(n);
+		int[][] dependencies = new int[n][];
+		for (int i = 0; i < n; i++) {
+			dependencies[i] = i == 0 ? new int[] { 0, 1 }
+					: i == n - 1 ? new int[] { i - 1, i } : new int[] {
+							i - 1, i, i + 1 };
+		}
+		double[] y = new double[n];
+		for (int i = 0; i < n; i++) {
+			y[i] = Math.cos(i);
+		}
+		double[][] expected = new double[n][n];
+		new FiniteDifferenceJacobian(f).evaluate(0, y, expected);
+		double[][] dense = new double[n][n];
+		double[] dydt = new double[n];
+		new AutomaticJacobian(f).evaluate(0, y, dydt, dense);
+		double[][] compressed = new double[n][n];
+		new AutomaticJacobian(f, new SparsityPattern(dependencies)).evaluate(
+				0, y, compressed);
+		double error = 0;
+		double valueError = 0;
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				error = Math.max(error, Math.max(Math.abs(dense[i][j]
+						- expected[i][j]), Math.abs(compressed[i][j]
+						- expected[i][j])));
+			}
+			valueError = Math.max(valueError, Math.abs(dydt[i]
+					- f[i].value(0, y)));
+		}
+		check("AutomaticJacobian against finite differences, " + n
+				+ " variables", error < 1e-6 && valueError == 0,
+				String.format("difference %.2e, values %.2e", error,
+						valueError));
+	}
+
+	/**
+	 * compares the sensitivities dy/dp of the model at the final time with
+	 * central differences of solves with perturbed parameters, and checks
+	 * that a solve is not disturbed by the finite differences of dF/dp
+	 * computed by another thread on the same model
+	 */
+	private static void checkSensitivity() throws IOException {
+		final Model model = Model.load("./models/predator_prey.model");
+		model.setLowerBound(0);
+		model.setUpperBound(2);
+		double h = 0.001;
+		SensitivitySolution solution = new ForwardSensitivitySolver(h)
+				.solve(model);
+		int last = solution.getTimesteps().length - 1;
+		double[] parameters = model.getParameters();
+		double error = 0;
+		for (int k = 0; k < parameters.length; k++) {
+			double p = parameters[k];
+			double delta = 1e-5 * Math.max(Math.abs(p), 1.);
+			parameters[k] = p + delta;
+			double[][] plus = new RungeKuttaSolver(h).solve(model).getValues();
+			parameters[k] = p - delta;
+			double[][] minus = new RungeKuttaSolver(h).solve(model)
+					.getValues();
+			parameters[k] = p;
+			for (int i = 0; i < plus.length; i++) {
+				double expected = (plus[i][last] - minus[i][last])
+						/ (2 * delta);
+				double sensitivity = solution.getSensitivities(k)[i][last];
+				error = Math.max(error, Math.abs(sensitivity - expected)
+						/ Math.max(Math.abs(expected), 1.));
+			}
+		}
+		check("sensitivities of the model against finite differences",
+				error < 1e-5, String.format("relative difference %.2e",
+						error));
+
+		double[][] serial = new RungeKuttaSolver(h).solve(model).getValues();
+		final double[] y = model.getInitialValue().clone();
+		final AtomicBoolean done = new AtomicBoolean();
+		final Semaphore started = new Semaphore(0);
+		Thread differences = new Thread() {
+			@Override
+			public void run() {
+				double[][] dfdp = new double[y.length][model
+						.getNumberOfParameters()];
+				started.release();
+				while (!done.get()) {
+					model.parameterJacobian(0, y, dfdp);
+				}
+			}
+		};
+		differences.start();
+		started.acquireUninterruptibly();
+		double difference = 0;
+		try {
+			for (int run = 0; run < SHARED_RUNS; run++) {
+				double[][] values = new RungeKuttaSolver(h).solve(model)
+						.getValues();
+				for (int i = 0; i < values.length; i++) {
+					difference = Math.max(difference, Math.abs(values[i][last]
+							- serial[i][last]));
+				}
+			}
+		} finally {
+			done.set(true);
+		}
+		check("solves of a model shared with finite differences of dF/dp",
+				difference == 0, String.format("difference %.2e",
+						difference));
+	}
+
+	/**
+	 * compares the adjoint gradient of L = y_0(T)^2 / 2 + y_1(T) with the one
+	 * given by the forward sensitivities and with central differences of
+	 * solves with perturbed parameters
+	 */
+	private static void checkAdjoint(String name, Model model) {
+		model.setLowerBound(0);
+		model.setUpperBound(2);
+		double h = 0.001;
+		Objective objective = new Objective() {
+			@Override
+			public double value(double[] values) {
+				return values[0] * values[0] / 2 + values[1];
+			}
+
+			@Override
+			public void gradient(double[] values, double[] dgdy) {
+				dgdy[0] = values[0];
+				dgdy[1] = 1;
+			}
+		};
+		double[] gradient = new AdjointSolver(h).gradient(model, objective);
+		SensitivitySolution solution = new ForwardSensitivitySolver(h)
+				.solve(model);
+		int last = solution.getTimesteps().length - 1;
+		double[] y = new double[2];
+		for (int i = 0; i < 2; i++) {
+			y[i] = solution.getValues()[i][last];
+		}
+		double[] parameters = model.getParameters();
+		double forwardError = 0;
+		double differenceError = 0;
+		for (int k = 0; k < parameters.length; k++) {
+			double[][] s = solution.getSensitivities(k);
+			double forward = y[0] * s[0][last] + s[1][last];
+			double p = parameters[k];
+			double delta = 1e-5 * Math.max(Math.abs(p), 1.);
+			parameters[k] = p + delta;
+			double plus = objective.value(finalValues(model, h));
+			parameters[k] = p - delta;
+			double minus = objective.value(finalValues(model, h));
+			parameters[k] = p;
+			double scale = Math.max(Math.abs(forward), 1.);
+			forwardError = Math.max(forwardError, Math.abs(gradient[k]
+					- forward)
+					/ scale);
+			differenceError = Math.max(differenceError, Math.abs(gradient[k]
+					- (plus - minus) / (2 * delta))
+					/ scale);
+		}
+		// the forward sensitivities differentiate F by finite differences
+		check("adjoint gradient, " + name, forwardError < 1e-6
+				&& differenceError < 1e-5, String.format(
+				"relative difference %.2e from forward sensitivities, "
+						+ "%.2e from finite differences", forwardError,
+				differenceError));
+	}
+
+	private static double[] finalValues(InitialValueProblem problem, double h) {
+		double[][] values = new RungeKuttaSolver(h).solve(problem).getValues();
+		double[] last = new double[values.length];
+		for (int i = 0; i < values.length; i++) {
+			last[i] = values[i][values[i].length - 1];
+		}
+		return last;
+	}
+
+	private static long bestTime(Solver solver, InitialValueProblem problem) {
+		long nanos = Long.MAX_VALUE;
+		for (int i = 0; i < MEASURED_RUNS; i++) {
+			long start = System.nanoTime();
+			solver.solve(problem);
+			nanos = Math.min(nanos, System.nanoTime() - start);
+		}
+		return nanos;
+	}
+
+	/**
+	 * A solve whose time and allocation are compared with the baselines
+	 */
+	private static abstract class Benchmark {
+		private final String name;
+
+		private Benchmark(String name) {
+			this.name = name;
+		}
+
+		abstract void run();
+	}
+
+	private static List<Benchmark> benchmarks() throws IOException {
+		final InitialValueProblem problem = predatorPrey();
+		final Model model = Model.load("./models/predator_prey.model");
+		model.setLowerBound(0);
+		model.setUpperBound(100);
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(new Benchmark("rk4") {
+			@Override
+			void run() {
+				new RungeKuttaSolver(0.001).solve(problem);
+			}
+		});
+		benchmarks.add(new Benchmark("fehlberg8") {
+			@Override
+			void run() {
+				new RungeKuttaSolver(0.01, ButcherTableau.FEHLBERG8)
+						.solve(problem);
+			}
+		});
+		benchmarks.add(new Benchmark("model") {
+			@Override
+			void run() {
+				new RungeKuttaSolver(0.001).solve(model);
+			}
+		});
+		benchmarks.add(new Benchmark("quantized") {
+			@Override
+			void run() {
+				RungeKuttaSolver solver = new RungeKuttaSolver(0.001);
+				solver.setStorage(CompactSolution.Encoding.QUANTIZED, 1e-6);
+				solver.solve(model);
+			}
+		});
+		benchmarks.add(new Benchmark("bdf") {
+			@Override
+			void run() {
+				new BDFSolver(0.001, 4).solve(problem);
+			}
+		});
+		return benchmarks;
+	}
+
+	/**
+	 * the machine speed: a product of matrices, without the solvers
+	 */
+	private static Benchmark reference() {
+		return new Benchmark("reference") {
+			private final double[][] a = new double[REFERENCE_SIZE][REFERENCE_SIZE];
+			private final double[][] c = new double[REFERENCE_SIZE][REFERENCE_SIZE];
+
+			@Override
+			void run() {
+				int n = REFERENCE_SIZE;
+				for (int i = 0; i < n; i++) {
+					for (int j = 0; j < n; j++) {
+						a[i][j] = 1. / (1 + i + j);
+					}
+				}
+				for (int i = 0; i < n; i++) {
+					for (int j = 0; j < n; j++) {
+						double sum = 0;
+						for (int k = 0; k < n; k++) {
+							sum += a[i][k] * a[k][j];
+						}
+						c[i][j] = sum;
+					}
+				}
+				sink += c[n - 1][n - 1];
+			}
+		};
+	}
+
+	/**
+	 * runs the benchmarks, and records their best time and allocation, or
+	 * fails the ones slower or allocating more than the baseline by more
+	 * than the margins of the baselines file. The time baselines are scaled
+	 * by the time of the reference loop, and are only reported without
+	 * "time".
+	 */
+	private static void checkBaselines(File file, boolean record, boolean time)
+			throws IOException {
+		Properties baselines = new Properties();
+		if (file.exists()) {
+			InputStream in = new FileInputStream(file);
+			try {
+				baselines.load(in);
+			} finally {
+				in.close();
+			}
+		} else if (!record) {
+			check("baselines", false, "no file " + file
+					+ ", run with -record");
+			return;
+		}
+		double timeMargin = Double.parseDouble(baselines.getProperty(
+				"time.margin", Double.toString(DEFAULT_TIME_MARGIN)));
+		double allocationMargin = Double.parseDouble(baselines.getProperty(
+				"allocation.margin", Double
+						.toString(DEFAULT_ALLOCATION_MARGIN)));
+
+		Benchmark reference = reference();
+		warmUp(reference);
+		long referenceNanos = measure(reference)[0];
+		String referenceBaseline = baselines.getProperty("reference.nanos");
+		if (record) {
+			baselines.setProperty("reference.nanos", Long
+					.toString(referenceNanos));
+		}
+		// the time of the baselines on this machine, with its current load;
+		// a faster reference keeps them, as the loop gains more than solves
+		double scale = referenceBaseline != null ? Math.max(1.,
+				(double) referenceNanos / Long.parseLong(referenceBaseline))
+				: 1.;
+
+		for (Benchmark benchmark : benchmarks()) {
+			warmUp(benchmark);
+			long[] measure = measure(benchmark);
+			String nanos = benchmark.name + ".nanos";
+			String allocation = benchmark.name + ".bytes";
+			if (record) {
+				baselines.setProperty(nanos, Long.toString(measure[0]));
+				baselines.setProperty(allocation, Long.toString(measure[1]));
+				System.out.println("record " + benchmark.name + ": "
+						+ measure[0] / 1000 + " us, " + measure[1] + " bytes");
+				continue;
+			}
+			String baseline = baselines.getProperty(nanos);
+			if (!time || baseline == null) {
+				System.out.println("time   " + benchmark.name + ": "
+						+ measure[0] / 1000 + " us"
+						+ (baseline != null ? " (baseline "
+								+ Long.parseLong(baseline) / 1000 + " us)"
+								: ""));
+			} else {
+				long expected = (long) (Long.parseLong(baseline) * scale);
+				long limit = (long) (expected * (1 + timeMargin));
+				// a slow measure is repeated before failing, since other
+				// processes can slow down all the runs of a measure
+				for (int i = 0; i < RETRIES && measure[0] > limit; i++) {
+					measure[0] = Math.min(measure[0], measure(benchmark)[0]);
+				}
+				check(benchmark.name + " time", measure[0] <= limit, String
+						.format("%d us (baseline %d us, scaled by %.2f, "
+								+ "limit %d us)", measure[0] / 1000, expected
+								/ 1000, scale, limit / 1000));
+			}
+			compare(benchmark.name + " allocation", measure[1], baselines
+					.getProperty(allocation), " bytes", allocationMargin);
+		}
+
+		if (record) {
+			baselines.setProperty("time.margin", Double.toString(timeMargin));
+			baselines.setProperty("allocation.margin", Double
+					.toString(allocationMargin));
+			file.getAbsoluteFile().getParentFile().mkdirs();
+			OutputStream out = new FileOutputStream(file);
+			try {
+				baselines.store(out, "baselines of "
+						+ RegressionSuite.class.getName());
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * runs a benchmark until the just in time compiler is done with it
+	 */
+	private static void warmUp(Benchmark benchmark) {
+		long warmup = System.nanoTime() + WARMUP_NANOS;
+		for (int i = 0; i < WARMUP_RUNS || System.nanoTime() < warmup; i++) {
+			benchmark.run();
+		}
+	}
+
+	/**
+	 * returns the best time in nanoseconds and allocation in bytes of some
+	 * runs of the benchmark
+	 */
+	private static long[] measure(Benchmark benchmark) {
+		long nanos = Long.MAX_VALUE;
+		long bytes = Long.MAX_VALUE;
+		for (int i = 0; i < MEASURED_RUNS; i++) {
+			long allocated = allocatedBytes();
+			long start = System.nanoTime();
+			benchmark.run();
+			nanos = Math.min(nanos, System.nanoTime() - start);
+			bytes = Math.min(bytes, allocatedBytes() - allocated);
+		}
+		return new long[] { nanos, bytes };
+	}
+
+	/**
+	 * fails a measure above the baseline by more than the margin
+	 * 
+	 * @param measured
+	 * @param baseline
+	 *            , the recorded value
+	 */
+	private static void compare(String name, long measured, String baseline,
+			String units, double margin) {
+		if (baseline == null) {
+			check(name, false, "no baseline, run with -record");
+			return;
+		}
+		long expected = Long.parseLong(baseline);
+		long limit = (long) (expected * (1 + margin));
+		check(name, measured <= limit, measured + units + " (baseline "
+				+ expected + units + ", limit " + limit + units + ")");
+	}
+
+	/**
+	 * returns the bytes allocated by the current thread, or 0 if the virtual
+	 * machine does not count them
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		try {
+			// com.sun.management.ThreadMXBean, not available everywhere
+			Method method = Class.forName("com.sun.management.ThreadMXBean")
+					.getMethod("getThreadAllocatedBytes", long.class);
+			long bytes = (Long) method.invoke(bean, Thread.currentThread()
+					.getId());
+			return Math.max(bytes, 0);
+		} catch (Exception e) {
+			return 0;
+		}
+	}
+
+}
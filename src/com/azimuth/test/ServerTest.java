@@ -0,0 +1,202 @@
+package com.azimuth.test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.azimuth.model.Model;
+import com.azimuth.ode.InitialValueProblem.Solution;
+import com.azimuth.ode.RungeKuttaSolver;
+import com.azimuth.ode.SolutionFormat;
+import com.azimuth.server.SolveServer;
+
+// sends concurrent requests for the predator prey model with different
+// initial values to a SolveServer, with and without coalescing, and checks
+// the solutions against direct solves, and that the responses of compact
+// storage are the same bytes coalesced or alone
+public class ServerTest {
+
+	private final static int CLIENTS = 32;
+	private final static int REQUESTS = 500;
+	private final static int VARIANTS = 30;
+	private final static double TO = 20;
+	private final static double STEP = 0.001;
+
+	/**
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String text = read(args.length > 0 ? args[0]
+				: "./models/predator_prey.model");
+		// the requests repeat every VARIANTS
+		Solution[] direct = new Solution[VARIANTS];
+		for (int i = 0; i < VARIANTS; i++) {
+			Model model = Model.parse(text);
+			model.setLowerBound(0);
+			model.setUpperBound(TO);
+			model.getInitialValue()[model.indexOfVariable("prey")] = 5 + i % 10;
+			model.setParameter("predatorDeathRate", 2 + i % 3);
+			direct[i] = new RungeKuttaSolver(STEP).solve(model);
+		}
+
+		SolveServer server = new SolveServer(0);
+		server.start();
+		try {
+			String url = "http://localhost:" + server.getPort() + "/solve";
+			for (int limit : new int[] { 0, 64, 0, 64 }) {
+				server.setCoalesceLimit(limit);
+				int requests = server.getCoalescedRequests();
+				int ensembles = server.getEnsembles();
+				long start = System.nanoTime();
+				List<byte[]> responses = run(url, text, "");
+				long time = System.nanoTime() - start;
+				for (int i = 0; i < REQUESTS; i++) {
+					if (!Arrays.deepEquals(direct[i % VARIANTS].getValues(),
+							read(responses.get(i)).getValues())) {
+						throw new IllegalStateException("request " + i
+								+ " differs from a direct solve");
+					}
+				}
+				System.out.println(String.format(
+						"coalescing %s: %.0f requests/s, %d requests in %d ensembles",
+						limit > 0 ? "on" : "off", REQUESTS * 1e9 / time,
+						server.getCoalescedRequests() - requests,
+						server.getEnsembles() - ensembles));
+			}
+			System.out.println("served solutions equal direct solves");
+
+			// a member of an ensemble keeps the storage of its request
+			for (String storage : new String[] { "&storage=float",
+					"&storage=quantized&error=1e-6" }) {
+				server.setCoalesceLimit(0);
+				List<byte[]> alone = run(url, text, storage);
+				server.setCoalesceLimit(64);
+				List<byte[]> coalesced = run(url, text, storage);
+				for (int i = 0; i < REQUESTS; i++) {
+					if (!Arrays.equals(alone.get(i), coalesced.get(i))) {
+						throw new IllegalStateException("request " + i + " with "
+								+ storage + ": " + coalesced.get(i).length
+								+ " bytes coalesced, " + alone.get(i).length
+								+ " alone");
+					}
+				}
+				System.out.println(storage.substring(1) + ": "
+						+ alone.get(0).length + " bytes, alone and coalesced");
+			}
+
+			// a model without initial values is a bad request
+			String incomplete = text.replaceAll("(?m)^.*\\(0\\).*$", "");
+			int status = status(url + query(0), incomplete);
+			if (status != 400) {
+				throw new IllegalStateException("status " + status
+						+ " for a model without initial values");
+			}
+			System.out.println("no initial values: status " + status);
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	private static String query(int i) {
+		return "?to=" + TO + "&step=" + STEP + "&format=binary&initial.prey="
+				+ (5 + i % 10) + "&parameter.predatorDeathRate=" + (2 + i % 3);
+	}
+
+	/**
+	 * sends the requests from CLIENTS threads, and returns the responses
+	 */
+	private static List<byte[]> run(final String url, final String text,
+			final String options) throws Exception {
+		ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+		List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>();
+		for (int i = 0; i < REQUESTS; i++) {
+			final int request = i;
+			futures.add(clients.submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws IOException {
+					return post(url + query(request) + options, text);
+				}
+			}));
+		}
+		List<byte[]> responses = new ArrayList<byte[]>();
+		for (Future<byte[]> future : futures) {
+			responses.add(future.get());
+		}
+		clients.shutdown();
+		return responses;
+	}
+
+	private static Solution read(byte[] response) throws IOException {
+		return SolutionFormat.read(new BufferedInputStream(
+				new ByteArrayInputStream(response)));
+	}
+
+	private static byte[] post(String url, String text) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url)
+				.openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		OutputStream out = connection.getOutputStream();
+		out.write(text.getBytes("UTF-8"));
+		out.close();
+		if (connection.getResponseCode() != 200) {
+			throw new IOException("status " + connection.getResponseCode());
+		}
+		InputStream in = connection.getInputStream();
+		try {
+			ByteArrayOutputStream response = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int length;
+			while ((length = in.read(buffer)) > 0) {
+				response.write(buffer, 0, length);
+			}
+			return response.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static int status(String url, String text) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url)
+				.openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		OutputStream out = connection.getOutputStream();
+		out.write(text.getBytes("UTF-8"));
+		out.close();
+		int status = connection.getResponseCode();
+		connection.disconnect();
+		return status;
+	}
+
+	private static String read(String filename) throws IOException {
+		Reader reader = new FileReader(filename);
+		try {
+			StringBuilder text = new StringBuilder();
+			char[] buffer = new char[4096];
+			int length;
+			while ((length = reader.read(buffer)) > 0) {
+				text.append(buffer, 0, length);
+			}
+			return text.toString();
+		} finally {
+			reader.close();
+		}
+	}
+
+}
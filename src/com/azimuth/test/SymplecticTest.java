@@ -0,0 +1,101 @@
+package com.azimuth.test;
+
+import com.azimuth.ode.Function;
+import com.azimuth.ode.InitialValueProblem;
+import com.azimuth.ode.InitialValueProblem.Solution;
+import com.azimuth.ode.PartitionedProblem;
+import com.azimuth.ode.RungeKuttaSolver;
+import com.azimuth.ode.Solver;
+import com.azimuth.ode.SymplecticSolver;
+import com.azimuth.ode.SymplecticSolver.Method;
+
+// the predator prey model in logarithmic variables q = log(prey), p =
+// log(predator) is a separable Hamiltonian system: compares the drift of its
+// invariant with Runge Kutta and symplectic methods over a long horizon
+public class SymplecticTest {
+
+	private final static double PREY_GROWTH_RATE = 1.5;
+	private final static double IMPACT_ON_PREDATION = 1;
+	private final static double PREDATOR_DEATH_RATE = 3;
+	private final static double PREDATOR_GROWTH_RATE = 1;
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		PartitionedProblem model = new PartitionedProblem() {
+
+			private Function[] positionDerivatives = {
+					new Function() { // log prey rate
+						@Override
+						public double value(double t, double[] values) {
+							double y = Math.exp(values[1]); // predator
+							return PREY_GROWTH_RATE - IMPACT_ON_PREDATION*y;
+						}
+					}
+			};
+
+			private Function[] momentumDerivatives = {
+					new Function() { // log predator rate
+						@Override
+						public double value(double t, double[] values) {
+							double x = Math.exp(values[0]); // prey
+							return -PREDATOR_DEATH_RATE + PREDATOR_GROWTH_RATE*x;
+						}
+					}
+			};
+
+			private Function hamiltonian = new Function() {
+				@Override
+				public double value(double t, double[] values) {
+					return PREDATOR_GROWTH_RATE*Math.exp(values[0])
+							- PREDATOR_DEATH_RATE*values[0]
+							+ IMPACT_ON_PREDATION*Math.exp(values[1])
+							- PREY_GROWTH_RATE*values[1];
+				}
+			};
+
+			@Override
+			public Function[] getPositionDerivatives() {
+				return positionDerivatives;
+			}
+
+			@Override
+			public Function[] getMomentumDerivatives() {
+				return momentumDerivatives;
+			}
+
+			@Override
+			public Function getHamiltonian() {
+				return hamiltonian;
+			}
+		};
+		model.setInitialValue(new double[]{Math.log(10), Math.log(4)});
+		model.setLowerBound(0);
+		model.setUpperBound(1000);
+
+		report("RK4, h = 0.01", new RungeKuttaSolver(0.01), model);
+		report("RK4, h = 0.1", new RungeKuttaSolver(0.1), model);
+		report("Stormer-Verlet, h = 0.01", new SymplecticSolver(0.01, Method.STORMER_VERLET), model);
+		report("Yoshida 4, h = 0.1", new SymplecticSolver(0.1, Method.YOSHIDA4), model);
+		report("Yoshida 6, h = 0.1", new SymplecticSolver(0.1, Method.YOSHIDA6), model);
+	}
+
+	private static void report(String name, Solver solver, PartitionedProblem model) {
+		long start = System.nanoTime();
+		Solution solution = solver.solve(model);
+		double time = (System.nanoTime() - start) / 1e9;
+		double[][] values = solution.getValuesGroupedByTime();
+		double[] timesteps = solution.getTimesteps();
+		Function hamiltonian = model.getHamiltonian();
+		double h0 = hamiltonian.value(timesteps[0], values[0]);
+		double error = 0;
+		for (int i = 0; i < values.length; i++) {
+			error = Math.max(error, Math.abs(hamiltonian.value(timesteps[i], values[i]) - h0));
+		}
+		double last = Math.abs(hamiltonian.value(timesteps[values.length - 1], values[values.length - 1]) - h0);
+		System.out.println(name + ": max energy error " + error + ", final "
+				+ last + ", " + time + " s");
+	}
+
+}